@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+/**
+ * Generates the layouts and the inputs used by the benchmarks. The inputs are
+ * generated, so their size can be changed with the benchmark parameters, and
+ * always use the ISO-8859-1 encoding.
+ *
+ * @version $Id$
+ */
+public final class BenchmarkData {
+
+  public static final String ENCODING = "ISO-8859-1";
+
+  public static final String SIMPLE_NS = "http://www.auster.com.br/udd/SimpleFlatFileReader/";
+
+  public static final String TAGGED_NS = "http://www.auster.com.br/udd/TaggedFileReader/";
+
+  // the size of each field in the fixed length records
+  public static final int FIELD_SIZE = 12;
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Parses a XML fragment, with namespaces, and returns its root element.
+   */
+  public static Element parseElement(String xml) throws Exception {
+    DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    return dbf.newDocumentBuilder().parse(new InputSource(new StringReader(xml)))
+        .getDocumentElement();
+  }
+
+  /**
+   * Writes <code>content</code> to a temporary file, that will be deleted when
+   * the JVM exits.
+   */
+  public static File writeTempFile(String prefix, String suffix, String content)
+      throws IOException {
+    File file = File.createTempFile(prefix, suffix);
+    file.deleteOnExit();
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), ENCODING);
+    try {
+      writer.write(content);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+  /**
+   * Creates the <code>xml-reader</code> configuration for a reader class and
+   * a UDD file.
+   */
+  public static Element readerConfig(String className, File udd) throws Exception {
+    return parseElement("<xml-reader class-name=\"" + className + "\" udd-path=\""
+                        + udd.getAbsolutePath() + "\" encrypted=\"false\"/>");
+  }
+
+  /**
+   * The UDD of the simple layout. Each record has <code>fields</code> fields
+   * separated by ';', or with <code>FIELD_SIZE</code> chars each if
+   * <code>fixedLength</code> is true.
+   */
+  public static String simpleUDD(int fields, boolean fixedLength, boolean escaped) {
+    StringBuffer udd = new StringBuffer();
+    udd.append("<udd:document name=\"BENCH\" xmlns:udd=\"").append(SIMPLE_NS).append("\"");
+    udd.append(" encoding-from=\"").append(ENCODING).append("\"");
+    udd.append(" max-record-size=\"16384\" buffer-size=\"65536\"");
+    if (fixedLength) {
+      udd.append(" record-length=\"").append(fields * FIELD_SIZE).append("\">");
+      udd.append("<udd:element name=\"rec\">");
+      for (int i = 0; i < fields; i++) {
+        udd.append("<udd:attribute name=\"f").append(i).append("\" start=\"")
+            .append(i * FIELD_SIZE + 1).append("\" size=\"").append(FIELD_SIZE).append("\"/>");
+      }
+    } else {
+      udd.append(" separator-char=\"\\n\"");
+      udd.append(escaped ? " escape-char=\"\\\">" : ">");
+      udd.append("<udd:element name=\"rec\" separator=\";\"");
+      udd.append(escaped ? " escape=\"\\\">" : ">");
+      for (int i = 0; i < fields; i++) {
+        udd.append("<udd:attribute name=\"f").append(i).append("\" index=\"").append(i + 1)
+            .append("\"/>");
+      }
+    }
+    udd.append("</udd:element></udd:document>");
+    return udd.toString();
+  }
+
+  /**
+   * Generates the input of the simple layout, with <code>records</code>
+   * records. If <code>escaped</code> is true, one field in each record
+   * contains an escaped separator.
+   */
+  public static String simpleInput(int records, int fields, boolean fixedLength, boolean escaped) {
+    StringBuffer input = new StringBuffer(records * fields * (FIELD_SIZE + 1));
+    for (int r = 0; r < records; r++) {
+      for (int f = 0; f < fields; f++) {
+        String value = field(r, f, escaped);
+        if (fixedLength) {
+          input.append(value);
+          for (int i = value.length(); i < FIELD_SIZE; i++) {
+            input.append(' ');
+          }
+        } else {
+          if (f > 0) {
+            input.append(';');
+          }
+          input.append(value);
+        }
+      }
+      if (!fixedLength) {
+        input.append('\n');
+      }
+    }
+    return input.toString();
+  }
+
+  /**
+   * Generates one record of the simple layout, separated by ';'.
+   */
+  public static String simpleRecord(int fields, boolean escaped) {
+    return simpleInput(1, fields, false, escaped).trim();
+  }
+
+  private static String field(int record, int field, boolean escaped) {
+    if (escaped && field == 1) {
+      return "a\\;b" + (record % 1000);
+    }
+    // at most FIELD_SIZE chars, with some spaces to trim
+    return " v" + field + "_" + (record % 100000) + " ";
+  }
+
+  /**
+   * The UDD of the tagged layout: a header block (key "01") with item ("02")
+   * and tax ("03") children, a notes block ("05" to "06") and a trailer
+   * ("09"). Item records use a joined key definition.
+   */
+  public static String taggedUDD() {
+    return "<udd:document name=\"INV\" xmlns:udd=\"" + TAGGED_NS + "\" encoding-from=\""
+           + ENCODING + "\" max-record-size=\"4096\" buffer-size=\"65536\""
+           + " separator-char=\"\\n\">"
+           + "<udd:key-definition><udd:attribute name=\"k\" start=\"1\" size=\"2\"/>"
+           + "</udd:key-definition>"
+           + "<udd:key-definition name=\"sub\" join-char=\"-\">"
+           + "<udd:attribute name=\"a\" start=\"1\" size=\"2\"/>"
+           + "<udd:attribute name=\"b\" start=\"3\" size=\"1\"/></udd:key-definition>"
+           + "<udd:key start-key=\"01\" name=\"customer\" separator=\";\">"
+           + "<udd:attribute name=\"id\" index=\"2\"/>"
+           + "<udd:key start-key=\"02-X\" key=\"02\" key-definition=\"sub\" name=\"item\""
+           + " separator=\";\"><udd:attribute name=\"desc\" index=\"2\"/>"
+           + "<udd:attribute name=\"v\" index=\"3\"/></udd:key>"
+           + "<udd:key start-key=\"03\" name=\"tax\" separator=\";\">"
+           + "<udd:attribute name=\"t\" index=\"2\"/></udd:key>"
+           + "<udd:key start-key=\"05\" name=\"notes\" end-key=\"06\">"
+           + "<udd:key start-key=\"07\" name=\"note\" separator=\";\">"
+           + "<udd:attribute name=\"n\" index=\"2\"/></udd:key></udd:key>"
+           + "</udd:key>"
+           + "<udd:key start-key=\"09\" name=\"trailer\" separator=\";\">"
+           + "<udd:attribute name=\"count\" index=\"2\"/></udd:key>"
+           + "</udd:document>";
+  }
+
+  /**
+   * Generates the input of the tagged layout, with <code>customers</code>
+   * header blocks.
+   */
+  public static String taggedInput(int customers) {
+    StringBuffer input = new StringBuffer(customers * 120);
+    for (int c = 0; c < customers; c++) {
+      input.append("01;").append(c).append('\n');
+      for (int i = 0; i < 3; i++) {
+        input.append("02X;item ").append(i).append(';').append(c * 10 + i).append('\n');
+      }
+      input.append("03;tax\n");
+      input.append("05\n07;note ").append(c).append("\n06\n");
+    }
+    input.append("09;").append(customers).append('\n');
+    return input.toString();
+  }
+}
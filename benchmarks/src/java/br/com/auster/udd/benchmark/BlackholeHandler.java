@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.benchmark;
+
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A content handler that sends everything it receives to a JMH
+ * <code>Blackhole</code>, so the parsing is not optimized away.
+ *
+ * @version $Id$
+ */
+public final class BlackholeHandler extends DefaultHandler {
+
+  private final Blackhole bh;
+
+  public BlackholeHandler(Blackhole bh) {
+    this.bh = bh;
+  }
+
+  public void startElement(String uri, String localName, String qName, Attributes atts) {
+    this.bh.consume(qName);
+    for (int i = 0, size = atts.getLength(); i < size; i++) {
+      this.bh.consume(atts.getValue(i));
+    }
+  }
+
+  public void endElement(String uri, String localName, String qName) {
+    this.bh.consume(qName);
+  }
+
+  public void characters(char[] ch, int start, int length) {
+    this.bh.consume(length);
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.benchmark;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.helpers.AttributesImpl;
+
+import br.com.auster.udd.node.UDDAttribute;
+import br.com.auster.udd.node.UDDChoose;
+import br.com.auster.udd.node.UDDElement;
+import br.com.auster.udd.node.UDDKeyDefinition;
+
+/**
+ * Measures the parsing of a single record by the UDD nodes: elements with and
+ * without separator and escape, attributes with trim and invalid chars
+ * replacement, the <code>choose</code> dispatch and the key definitions used
+ * by <code>TaggedFileReader</code> to resolve the block of each record.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeBenchmark {
+
+  private static final String NS = BenchmarkData.SIMPLE_NS;
+
+  @Param({ "8", "32" })
+  public int fields;
+
+  private UDDElement separated, escaped, positional;
+
+  private UDDAttribute trimmed, replacing;
+
+  private UDDChoose choose;
+
+  private UDDKeyDefinition defaultKey, joinedKey;
+
+  private CharBuffer separatedRecord, escapedRecord, positionalRecord, attributeRecord,
+      replacingRecord, chooseRecord, keyRecord;
+
+  // the records changed by the parsing (escape removal and invalid chars
+  // replacement), copied to their buffers before each call
+  private char[] escapedChars, invalidChars;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.separated = new UDDElement(BenchmarkData.parseElement(
+        element("rec", " separator=\";\"", indexedAttributes(this.fields))));
+    this.escaped = new UDDElement(BenchmarkData.parseElement(
+        element("rec", " separator=\";\" escape=\"\\\"", indexedAttributes(this.fields))));
+    this.positional = new UDDElement(BenchmarkData.parseElement(
+        element("rec", "", positionalAttributes(this.fields))));
+
+    this.separatedRecord = wrap(BenchmarkData.simpleRecord(this.fields, false));
+    this.escapedChars = BenchmarkData.simpleRecord(this.fields, true).toCharArray();
+    this.escapedRecord = CharBuffer.wrap(new char[this.escapedChars.length]);
+    this.positionalRecord = wrap(BenchmarkData.simpleInput(1, this.fields, true, false));
+
+    this.trimmed = new UDDAttribute(BenchmarkData.parseElement(
+        "<udd:attribute xmlns:udd=\"" + NS + "\" name=\"a\" start=\"3\" size=\"40\"/>"));
+    this.replacing = new UDDAttribute(BenchmarkData.parseElement(
+        "<udd:attribute xmlns:udd=\"" + NS + "\" name=\"a\" start=\"3\" size=\"40\""
+        + " trim=\"false\" replace-invalid-chars=\"true\"/>"));
+    this.attributeRecord = wrap("   some value with spaces around it       .");
+    this.invalidChars = "01some\u0001value\u0002with\u001Finvalid\u0000chars in it ....."
+        .toCharArray();
+    this.replacingRecord = CharBuffer.wrap(new char[this.invalidChars.length]);
+
+    this.choose = new UDDChoose(BenchmarkData.parseElement(
+        "<udd:choose xmlns:udd=\"" + NS + "\" separator=\";\">"
+        + "<udd:value index=\"1\"/>"
+        + "<udd:when value=\"A\" index=\"2\"><udd:element name=\"wa\">"
+        + "<udd:attribute name=\"v\"/></udd:element></udd:when>"
+        + "<udd:when value=\"B\" index=\"3\"><udd:element name=\"wb\">"
+        + "<udd:attribute name=\"v\"/></udd:element></udd:when>"
+        + "<udd:when value=\"C\" index=\"2\"><udd:element name=\"wc\">"
+        + "<udd:attribute name=\"v\"/></udd:element></udd:when>"
+        + "<udd:otherwise index=\"1\"><udd:attribute name=\"other\"/></udd:otherwise>"
+        + "</udd:choose>"));
+    this.chooseRecord = wrap("B;first;second;third");
+
+    this.defaultKey = new UDDKeyDefinition(BenchmarkData.parseElement(
+        "<udd:key-definition xmlns:udd=\"" + NS + "\">"
+        + "<udd:attribute name=\"k\" start=\"1\" size=\"2\"/></udd:key-definition>"));
+    this.joinedKey = new UDDKeyDefinition(BenchmarkData.parseElement(
+        "<udd:key-definition xmlns:udd=\"" + NS + "\" name=\"sub\" join-char=\"-\">"
+        + "<udd:attribute name=\"a\" start=\"1\" size=\"2\"/>"
+        + "<udd:attribute name=\"b\" start=\"3\" size=\"1\"/></udd:key-definition>"));
+    this.keyRecord = wrap("02X;item 1;10");
+  }
+
+  /**
+   * The records given by the readers are writable buffers over char arrays.
+   */
+  private static CharBuffer wrap(String record) {
+    return CharBuffer.wrap(record.toCharArray());
+  }
+
+  private static String element(String name, String options, String children) {
+    return "<udd:element xmlns:udd=\"" + NS + "\" name=\"" + name + "\"" + options + ">"
+           + children + "</udd:element>";
+  }
+
+  private static String indexedAttributes(int fields) {
+    StringBuffer attributes = new StringBuffer();
+    for (int i = 0; i < fields; i++) {
+      attributes.append("<udd:attribute name=\"f").append(i).append("\" index=\"")
+          .append(i + 1).append("\"/>");
+    }
+    return attributes.toString();
+  }
+
+  private static String positionalAttributes(int fields) {
+    StringBuffer attributes = new StringBuffer();
+    for (int i = 0; i < fields; i++) {
+      attributes.append("<udd:attribute name=\"f").append(i).append("\" start=\"")
+          .append(i * BenchmarkData.FIELD_SIZE + 1).append("\" size=\"")
+          .append(BenchmarkData.FIELD_SIZE).append("\"/>");
+    }
+    return attributes.toString();
+  }
+
+  @Benchmark
+  public void elementWithSeparator(Blackhole bh) throws Exception {
+    this.separated.parse(this.separatedRecord.duplicate(), new BlackholeHandler(bh));
+  }
+
+  @Benchmark
+  public void elementWithEscape(Blackhole bh) throws Exception {
+    System.arraycopy(this.escapedChars, 0, this.escapedRecord.array(), 0,
+                     this.escapedChars.length);
+    this.escaped.parse(this.escapedRecord.duplicate(), new BlackholeHandler(bh));
+  }
+
+  @Benchmark
+  public void elementWithoutSeparator(Blackhole bh) throws Exception {
+    this.positional.parse(this.positionalRecord.duplicate(), new BlackholeHandler(bh));
+  }
+
+  @Benchmark
+  public AttributesImpl attributeWithTrim() {
+    AttributesImpl atts = new AttributesImpl();
+    this.trimmed.parse(this.attributeRecord.duplicate(), atts);
+    return atts;
+  }
+
+  @Benchmark
+  public AttributesImpl attributeReplacingInvalidChars() {
+    System.arraycopy(this.invalidChars, 0, this.replacingRecord.array(), 0,
+                     this.invalidChars.length);
+    AttributesImpl atts = new AttributesImpl();
+    this.replacing.parse(this.replacingRecord.duplicate(), atts);
+    return atts;
+  }
+
+  @Benchmark
+  public void chooseDispatch(Blackhole bh) throws Exception {
+    this.choose.parse(this.chooseRecord.duplicate(), new BlackholeHandler(bh));
+  }
+
+  @Benchmark
+  public String defaultKey() throws Exception {
+    return this.defaultKey.parseKey(this.keyRecord.duplicate());
+  }
+
+  @Benchmark
+  public String joinedKey() throws Exception {
+    return this.joinedKey.parseKey(this.keyRecord.duplicate());
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.XMLReader;
+
+import br.com.auster.common.io.NIOUtils;
+import br.com.auster.common.xml.sax.NIOInputSource;
+import br.com.auster.udd.reader.SimpleFlatFileReader;
+import br.com.auster.udd.reader.TaggedFileReader;
+
+/**
+ * Measures the readers parsing a whole generated file: the record separation
+ * of <code>FlatNIOReader</code> (<code>separateUsingSeparator</code> and
+ * <code>separateUsingSubstring</code>) with the parsing of each record, and
+ * the key resolution of <code>TaggedFileReader</code>. The SAX events are
+ * consumed by a <code>BlackholeHandler</code>.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReaderBenchmark {
+
+  @Param({ "100000" })
+  public int records;
+
+  @Param({ "8" })
+  public int fields;
+
+  private File separatedInput, escapedInput, fixedInput, taggedInput;
+
+  private XMLReader separatedReader, escapedReader, fixedReader, taggedReader;
+
+  @Setup
+  public void setUp() throws Exception {
+    this.separatedInput = BenchmarkData.writeTempFile(
+        "udd-sep", ".txt", BenchmarkData.simpleInput(this.records, this.fields, false, false));
+    this.escapedInput = BenchmarkData.writeTempFile(
+        "udd-esc", ".txt", BenchmarkData.simpleInput(this.records, this.fields, false, true));
+    this.fixedInput = BenchmarkData.writeTempFile(
+        "udd-fix", ".txt", BenchmarkData.simpleInput(this.records, this.fields, true, false));
+    // each customer block has 8 records
+    this.taggedInput = BenchmarkData.writeTempFile(
+        "udd-tag", ".txt", BenchmarkData.taggedInput(Math.max(1, this.records / 8)));
+
+    this.separatedReader = newReader(SimpleFlatFileReader.class,
+                                     BenchmarkData.simpleUDD(this.fields, false, false));
+    this.escapedReader = newReader(SimpleFlatFileReader.class,
+                                   BenchmarkData.simpleUDD(this.fields, false, true));
+    this.fixedReader = newReader(SimpleFlatFileReader.class,
+                                 BenchmarkData.simpleUDD(this.fields, true, false));
+    this.taggedReader = newReader(TaggedFileReader.class, BenchmarkData.taggedUDD());
+  }
+
+  private static XMLReader newReader(Class readerClass, String udd) throws Exception {
+    File uddFile = BenchmarkData.writeTempFile("udd-layout", ".xml", udd);
+    return (XMLReader) readerClass.getConstructor(new Class[] { org.w3c.dom.Element.class })
+        .newInstance(new Object[] { BenchmarkData.readerConfig(readerClass.getName(), uddFile) });
+  }
+
+  private static void parse(XMLReader reader, File input, Blackhole bh) throws Exception {
+    reader.setContentHandler(new BlackholeHandler(bh));
+    NIOInputSource source = new NIOInputSource(NIOUtils.openFileForRead(input));
+    try {
+      reader.parse(source);
+    } finally {
+      source.getReadableByteChannel().close();
+    }
+  }
+
+  @Benchmark
+  public void separator(Blackhole bh) throws Exception {
+    parse(this.separatedReader, this.separatedInput, bh);
+  }
+
+  @Benchmark
+  public void separatorWithEscape(Blackhole bh) throws Exception {
+    parse(this.escapedReader, this.escapedInput, bh);
+  }
+
+  @Benchmark
+  public void substring(Blackhole bh) throws Exception {
+    parse(this.fixedReader, this.fixedInput, bh);
+  }
+
+  @Benchmark
+  public void tagged(Blackhole bh) throws Exception {
+    parse(this.taggedReader, this.taggedInput, bh);
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.node;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * The compiled form of an <code>UDDAttribute</code>, used by
+ * <code>ParsePlan</code>. The bounds of the attribute in its field are
+ * computed with the constants of the attribute, and the value is added to the
+ * <code>RecordAttributes</code> as a range of the chars of the record, after
+ * trimming the spaces by moving its bounds. No string or buffer view is
+ * created, unless the value has an escape char to remove.
+ * <p>
+ * Attributes with a formatter, as well as classes that extend
+ * <code>UDDAttribute</code>, are not compiled: their values are parsed by the
+ * attribute itself. So are the records that are not backed by an array.
+ * </p>
+ *
+ * @version $Id$
+ */
+final class FieldExtractor {
+
+  private final UDDAttribute attribute;
+
+  // false if the attribute parses the values by itself
+  private final boolean compiled;
+
+  private final String name;
+
+  private final int start;
+
+  private final int computedLength;
+
+  private final boolean trim;
+
+  private final boolean replaceMalformed;
+
+  private final boolean isEscapeDefined;
+
+  private final char escapeChar;
+
+  FieldExtractor(UDDAttribute attribute) {
+    this.attribute = attribute;
+    this.compiled = (attribute.getClass() == UDDAttribute.class) 
+                    && attribute.isParallelSafe()
+                    && attribute.start >= 0;
+    this.name = attribute.getName();
+    this.start = attribute.start;
+    this.computedLength = attribute.computedLength;
+    this.trim = attribute.trimElement;
+    this.replaceMalformed = attribute.replaceMalformed;
+    this.isEscapeDefined = attribute.isEscapeDefined;
+    this.escapeChar = attribute.escapeChar;
+  }
+
+  /**
+   * The same as <code>UDDAttribute.parse(CharBuffer, AttributesImpl)</code>,
+   * for the chars of <code>input</code> from <code>position</code> to
+   * <code>limit</code>.
+   */
+  void extract(CharBuffer input, int position, int limit, RecordAttributes atts) {
+    if (!this.compiled || !input.hasArray()) {
+      if (this.replaceMalformed || this.isEscapeDefined) {
+        atts.setRecordChanged();
+      }
+      addAttribute(this.attribute.parseValue(view(input, position, limit)), atts);
+      return;
+    }
+    final int length = limit - position;
+    if (length == 0 || length < this.start) {
+      return;
+    }
+    final int offset = input.arrayOffset() + position;
+    extract(input.array(), offset + this.start, offset + getEnd(length), true, atts);
+  }
+
+  /**
+   * The same as <code>UDDAttribute.parse(ByteBuffer, SingleByteCodec,
+   * AttributesImpl)</code>, for the bytes of <code>input</code> from
+   * <code>position</code> to <code>limit</code>. Only the bytes of the
+   * attribute are converted to chars.
+   */
+  void extract(ByteBuffer input, int position, int limit, SingleByteCodec codec,
+               RecordAttributes atts) {
+    if (!this.compiled) {
+      addAttribute(this.attribute.parseValue(view(input, position, limit), codec), atts);
+      return;
+    }
+    final int length = limit - position;
+    if (length == 0 || length < this.start) {
+      return;
+    }
+    final int from = position + this.start, to = position + getEnd(length);
+    final int offset = atts.decode(input, from, to, codec);
+    extract(atts.getDecodedChars(), offset, offset + (to - from), false, atts);
+  }
+
+  /**
+   * Adds the value of the chars from <code>from</code> to <code>to</code>.
+   * 
+   * @param inRecord
+   *          true if the chars are the ones of the record. The other values
+   *          are copied before the invalid chars are replaced, since they may
+   *          use the same chars.
+   */
+  private void extract(char[] chars, int from, int to, boolean inRecord,
+                       RecordAttributes atts) {
+    if (this.replaceMalformed) {
+      boolean copied = !inRecord;
+      for (int i = from; i < to; i++) {
+        if (isInvalid(chars[i])) {
+          if (!copied) {
+            atts.copyValues();
+            atts.setRecordChanged();
+            copied = true;
+          }
+          chars[i] = UDDNode.REPLACEMENT_CHAR;
+        }
+      }
+    }
+    if (this.isEscapeDefined) {
+      for (int i = from; i < to; i++) {
+        if (chars[i] == this.escapeChar) {
+          if (inRecord) {
+            atts.setRecordChanged();
+          }
+          addAttribute(this.attribute.getValue(CharBuffer.wrap(chars, from, to - from).slice()),
+                       atts);
+          return;
+        }
+      }
+    }
+    if (this.trim) {
+      while (from < to && chars[from] <= ' ') {
+        from++;
+      }
+      while (to > from && chars[to - 1] <= ' ') {
+        to--;
+      }
+    }
+    if (from < to) {
+      atts.addAttribute(this.name, chars, from, to - from);
+    }
+  }
+
+  /**
+   * Tells if <code>c</code> is replaced by
+   * <code>UDDAttribute.getValue()</code>. The chars were extracted from the
+   * XML 1.0 spec.
+   */
+  private static boolean isInvalid(char c) {
+    return c <= 0x0008 || c == 0x000B || c == 0x000C || (c >= 0x000E && c <= 0x001F)
+           || (c >= 0xD800 && c <= 0xDFFF) || c == 0xFFFE || c == 0xFFFF;
+  }
+
+  private void addAttribute(String value, RecordAttributes atts) {
+    if (value != null) {
+      atts.addAttribute("", this.name, this.name, "CDATA", value);
+    }
+  }
+
+  /**
+   * Gets the end of the attribute, for a field of <code>length</code> chars,
+   * just like <code>UDDNode.getSubstring()</code>.
+   */
+  private int getEnd(int length) {
+    final int end = this.start + this.computedLength;
+    return (this.computedLength < 0 || length < end) ? length : end;
+  }
+
+  private static CharBuffer view(CharBuffer input, int position, int limit) {
+    final CharBuffer view = input.duplicate();
+    view.position(position).limit(limit);
+    return view.slice();
+  }
+
+  private static ByteBuffer view(ByteBuffer input, int position, int limit) {
+    final ByteBuffer view = input.duplicate();
+    view.position(position).limit(limit);
+    return view.slice();
+  }
+}
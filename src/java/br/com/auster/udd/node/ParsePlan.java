@@ -0,0 +1,743 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.node;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import gnu.trove.TIntObjectHashMap;
+
+/**
+ * A loaded UDD layout compiled to a flat structure, that parses the records
+ * without walking the UDD nodes. The attributes and children of each element
+ * are kept in arrays indexed by the field number, the fields are split only
+ * once for the attributes and the children, and no command objects are
+ * created for each record. The attributes are compiled to
+ * <code>FieldExtractor</code>s, that read their values directly from the
+ * chars of the record. The SAX events are the same of the UDD nodes.
+ * <p>
+ * Only the nodes of the classes <code>UDDElement</code> and
+ * <code>UDDChoose</code> are compiled. Other nodes, such as
+ * <code>UDDContent</code> or classes that extend the UDD nodes, parse the
+ * records by themselves.
+ * </p>
+ * <p>
+ * A plan is immutable, and may be used by different threads at the same time
+ * if all its nodes are parallel safe.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class ParsePlan {
+
+	/**
+	 * Returned by <code>findKey()</code> for the records without a key.
+	 */
+	public static final Object NO_KEY = new Object();
+
+	private static final Logger log = Logger.getLogger(ParsePlan.class);
+
+	// the attributes given to the content handler, one instance per thread.
+	// SAX attributes are only valid during the startElement() call
+	private static final ThreadLocal ATTRIBUTES = new ThreadLocal() {
+		protected Object initialValue() {
+			return new RecordAttributes();
+		}
+	};
+
+	// the steps that parse each record
+	private final Step[] steps;
+
+	// the element this plan was compiled from, or null for a list of elements
+	private final ElementStep root;
+
+	private ParsePlan(Step[] steps, ElementStep root) {
+		this.steps = steps;
+		this.root = root;
+	}
+
+	/**
+	 * Compiles a list of elements, that parse each record in the list order.
+	 */
+	public static ParsePlan compile(List elements) {
+		final Step[] steps = new Step[elements.size()];
+		int i = 0;
+		for (Iterator it = elements.iterator(); it.hasNext();) {
+			steps[i++] = compileStep((UDDElement) it.next());
+		}
+		return new ParsePlan(steps, null);
+	}
+
+	/**
+	 * Compiles an element. Besides parsing the records as the element, the plan
+	 * may get only its attributes, its children or its key.
+	 */
+	public static ParsePlan compile(UDDElement element) {
+		return new ParsePlan(new Step[] { compileStep(element) }, new ElementStep(element));
+	}
+
+	private static Step compileStep(UDDElement element) {
+		final Class type = element.getClass();
+		if (type == UDDElement.class || type == UDDChoose.UDDWhen.class) {
+			return new ElementStep(element);
+		} else if (type == UDDChoose.class) {
+			return new ChooseStep((UDDChoose) element);
+		}
+		return new NodeStep(element);
+	}
+
+	/**
+	 * The same as <code>UDDElement.parse(CharBuffer, ContentHandler)</code>,
+	 * for each element of this plan.
+	 */
+	public void parse(CharBuffer input, ContentHandler output) throws SAXException,
+			ParseException {
+		for (int i = 0; i < this.steps.length; i++) {
+			this.steps[i].parse(input, null, output);
+		}
+	}
+
+	/**
+	 * The same as <code>parse(CharBuffer, ContentHandler)</code>, for a record of
+	 * a single byte charset.
+	 */
+	public void parse(ByteBuffer input, SingleByteCodec codec, ContentHandler output)
+			throws SAXException, ParseException {
+		for (int i = 0; i < this.steps.length; i++) {
+			this.steps[i].parse(input, null, codec, output);
+		}
+	}
+
+	/**
+	 * The same as <code>UDDElement.getAttributes(CharBuffer)</code>, for the
+	 * element this plan was compiled from. The attributes returned are reused by
+	 * the next parsings of the current thread, and so are the fields of the
+	 * input, if <code>getElements()</code> is called next for the same input.
+	 */
+	public RecordAttributes getAttributes(CharBuffer input) {
+		return this.root.getAttributes(input, null);
+	}
+
+	/**
+	 * The same as <code>UDDElement.getElements(CharBuffer, ContentHandler)</code>,
+	 * for the element this plan was compiled from.
+	 */
+	public void getElements(CharBuffer input, ContentHandler output) throws SAXException,
+			ParseException {
+		// the fields split by getAttributes()
+		RecordFields fields = ((RecordAttributes) ATTRIBUTES.get()).takeFields();
+		if (fields != null && !fields.isSplitOf(input, this.root.node)) {
+			RecordFields.release(fields);
+			fields = null;
+		}
+		try {
+			this.root.getElements(input, fields, output);
+		} finally {
+			release(fields);
+		}
+	}
+
+	/**
+	 * The same as <code>UDDKeyDefinition.parseKey(CharBuffer)</code>, for the
+	 * key definition this plan was compiled from.
+	 */
+	public String parseKey(CharBuffer input) {
+		StringBuffer key = null;
+		if (input.length() > 0) {
+			final String joinChar = ((UDDKeyDefinition) this.root.node).joinChar;
+			final RecordAttributes atts = getAttributes(this.root.node.getSubstring(input));
+			for (int i = 0; i < atts.getLength(); i++) {
+				if (i == 0) {
+					key = new StringBuffer();
+				} else if (joinChar != null) {
+					key.append(joinChar);
+				}
+				key.append(atts.getValue(i));
+			}
+		}
+		return key == null ? null : key.toString();
+	}
+
+	/**
+	 * Parses the key of <code>input</code>, just like
+	 * <code>parseKey(CharBuffer)</code>, and finds it in a table of keys. The
+	 * string of the key is not created: its chars are compared directly with
+	 * the keys of the table.
+	 * 
+	 * @return the value of the key in <code>keys</code>, null if it is not
+	 *         there, or <code>NO_KEY</code> if <code>input</code> has no key.
+	 */
+	public Object findKey(CharBuffer input, ValueTable keys) {
+		if (input.length() == 0) {
+			return NO_KEY;
+		}
+		final RecordAttributes atts = getAttributes(this.root.node.getSubstring(input));
+		if (atts.getLength() == 0) {
+			return NO_KEY;
+		}
+		return keys.get(atts, ((UDDKeyDefinition) this.root.node).joinChar);
+	}
+
+	private static void release(RecordFields fields) {
+		if (fields != null) {
+			RecordFields.release(fields);
+		}
+	}
+
+	/**
+	 * Parses the records as one UDD node.
+	 */
+	private abstract static class Step {
+
+		/**
+		 * Parses <code>input</code>.
+		 * 
+		 * @param split
+		 *          the fields of <code>input</code>, split by the parent of this
+		 *          node, or null. They may be used instead of splitting it again.
+		 */
+		abstract void parse(CharBuffer input, RecordFields split, ContentHandler output)
+				throws SAXException, ParseException;
+
+		abstract void parse(ByteBuffer input, RecordFields split, SingleByteCodec codec,
+												ContentHandler output) throws SAXException, ParseException;
+
+		/**
+		 * Tells if this node, or one of its children, may change the record while
+		 * parsing it. Such nodes do not use the fields split by their parents,
+		 * since they could change the fields the parents still use.
+		 */
+		abstract boolean mayChangeRecord();
+	}
+
+	/**
+	 * A node that was not compiled, and parses the records by itself.
+	 */
+	private static final class NodeStep extends Step {
+
+		private final UDDElement node;
+
+		NodeStep(UDDElement node) {
+			this.node = node;
+		}
+
+		void parse(CharBuffer input, RecordFields split, ContentHandler output)
+				throws SAXException, ParseException {
+			this.node.parse(input, output);
+		}
+
+		void parse(ByteBuffer input, RecordFields split, SingleByteCodec codec,
+							 ContentHandler output) throws SAXException, ParseException {
+			this.node.parse(input, codec, output);
+		}
+
+		boolean mayChangeRecord() {
+			return true;
+		}
+	}
+
+	/**
+	 * A compiled <code>UDDElement</code>.
+	 */
+	private static final class ElementStep extends Step {
+
+		final UDDElement node;
+
+		// null if the element has no name, and only its children are parsed
+		private final String name;
+
+		private final boolean isSeparatorDefined;
+
+		// the attributes and the children by field number. The field 0 is the
+		// whole record
+		private final FieldExtractor[][] attributes;
+
+		private final Step[][] children;
+
+		private final boolean showText;
+
+		private final int textLength;
+
+		private final boolean mayChangeRecord;
+
+		// true if the children of the whole record may change it. Then the
+		// record is split for the other children only after they are parsed
+		private final boolean firstMayChangeRecord;
+
+		ElementStep(UDDElement node) {
+			this.node = node;
+			final String name = node.getName();
+			this.name = (name != null && name.length() > 0 ? name : null);
+			this.isSeparatorDefined = node.isSeparatorDefined;
+			this.showText = node.showText;
+			this.textLength = node.computedLength;
+
+			// replacing the invalid chars or removing the escapes may change the
+			// chars of the record
+			boolean mayChangeRecord = false;
+			final TIntObjectHashMap attrByIndex = node.attrByIndex;
+			this.attributes = new FieldExtractor[getLength(attrByIndex)][];
+			final int[] attrIndexes = attrByIndex.keys();
+			for (int i = 0; i < attrIndexes.length; i++) {
+				if (attrIndexes[i] >= 0) {
+					// the same order of the attributes parsed by UDDElement
+					final Map attributes = (Map) attrByIndex.get(attrIndexes[i]);
+					final FieldExtractor[] array = new FieldExtractor[attributes.size()];
+					int j = 0;
+					for (Iterator it = attributes.values().iterator(); it.hasNext(); j++) {
+						final UDDAttribute attribute = (UDDAttribute) it.next();
+						mayChangeRecord |= (attribute.replaceMalformed || attribute.isEscapeDefined);
+						array[j] = new FieldExtractor(attribute);
+					}
+					this.attributes[attrIndexes[i]] = array;
+				}
+			}
+
+			final TIntObjectHashMap tagsByIndex = node.tagsByIndex;
+			this.children = new Step[getLength(tagsByIndex)][];
+			final int[] tagIndexes = tagsByIndex.keys();
+			boolean firstMayChangeRecord = false;
+			for (int i = 0; i < tagIndexes.length; i++) {
+				if (tagIndexes[i] >= 0) {
+					final List elements = (List) tagsByIndex.get(tagIndexes[i]);
+					final Step[] steps = new Step[elements.size()];
+					for (int j = 0; j < steps.length; j++) {
+						steps[j] = compileStep((UDDElement) elements.get(j));
+						mayChangeRecord |= steps[j].mayChangeRecord();
+						if (tagIndexes[i] == 0) {
+							firstMayChangeRecord |= steps[j].mayChangeRecord();
+						}
+					}
+					this.children[tagIndexes[i]] = steps;
+				}
+			}
+			this.mayChangeRecord = mayChangeRecord;
+			this.firstMayChangeRecord = firstMayChangeRecord;
+		}
+
+		private static int getLength(TIntObjectHashMap byIndex) {
+			int length = 0;
+			final int[] indexes = byIndex.keys();
+			for (int i = 0; i < indexes.length; i++) {
+				length = Math.max(length, indexes[i] + 1);
+			}
+			return length;
+		}
+
+		boolean mayChangeRecord() {
+			return this.mayChangeRecord;
+		}
+
+		void parse(CharBuffer input, RecordFields split, ContentHandler output)
+				throws SAXException, ParseException {
+			if (input.length() > 0) {
+				final CharBuffer element = this.node.getSubstring(input);
+				final RecordFields inherited = inherit(split, element);
+				if (this.name == null) {
+					getElements(element, inherited, output);
+				} else {
+					final RecordAttributes atts = getAttributes(element, inherited);
+					final RecordFields fields = atts.takeFields();
+					try {
+						output.startElement("", this.name, this.name, atts);
+						getElements(element, (fields == null ? inherited : fields), output);
+						output.endElement("", this.name, this.name);
+					} finally {
+						release(fields);
+					}
+				}
+			}
+		}
+
+		void parse(ByteBuffer input, RecordFields split, SingleByteCodec codec,
+							 ContentHandler output) throws SAXException, ParseException {
+			if (input.hasRemaining()) {
+				final ByteBuffer element = this.node.getSubstring(input);
+				final RecordFields inherited = inherit(split, element);
+				if (this.name == null) {
+					getElements(element, inherited, codec, output);
+				} else {
+					final RecordAttributes atts = getAttributes(element, inherited, codec);
+					final RecordFields fields = atts.takeFields();
+					try {
+						output.startElement("", this.name, this.name, atts);
+						getElements(element, (fields == null ? inherited : fields), codec, output);
+						output.endElement("", this.name, this.name);
+					} finally {
+						release(fields);
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return the fields split by the parent, if they are the fields of
+		 *         <code>element</code> and may be used by this element.
+		 */
+		private RecordFields inherit(RecordFields split, Object element) {
+			return (split != null && !this.mayChangeRecord && split.isSplitOf(element, this.node) 
+							? split : null);
+		}
+
+		/**
+		 * Gets the attributes of the element. The fields are split after the
+		 * attributes of the whole element are parsed, as they may change it. The
+		 * fields split are kept by the attributes, to be used by the children,
+		 * unless an attribute changed the record.
+		 * 
+		 * @param split
+		 *          the fields of <code>element</code> split by the parent, or null.
+		 */
+		RecordAttributes getAttributes(CharBuffer element, RecordFields split) {
+			final RecordAttributes atts = (RecordAttributes) ATTRIBUTES.get();
+			atts.clear();
+			if (this.attributes.length > 0) {
+				addAttributes(this.attributes[0], element, atts);
+				if (this.attributes.length > 1 && this.isSeparatorDefined) {
+					RecordFields fields = split;
+					if (fields == null) {
+						fields = RecordFields.acquire();
+						fields.split(this.node, element);
+						atts.setFields(fields);
+					}
+					addAttributes(fields, atts);
+				}
+				if (atts.isRecordChanged()) {
+					// the children split the changed record again
+					atts.setFields(null);
+				}
+			}
+			return atts;
+		}
+
+		private RecordAttributes getAttributes(ByteBuffer element, RecordFields split,
+																					 SingleByteCodec codec) {
+			final RecordAttributes atts = (RecordAttributes) ATTRIBUTES.get();
+			atts.clear();
+			if (this.attributes.length > 0) {
+				addAttributes(this.attributes[0], element, codec, atts);
+				if (this.attributes.length > 1 && this.isSeparatorDefined) {
+					RecordFields fields = split;
+					if (fields == null) {
+						fields = RecordFields.acquire();
+						fields.split(this.node, element, codec);
+						atts.setFields(fields);
+					}
+					addAttributes(fields, codec, atts);
+				}
+			}
+			return atts;
+		}
+
+		private void addAttributes(RecordFields fields, RecordAttributes atts) {
+			final int last = Math.min(fields.size(), this.attributes.length - 1);
+			for (int number = 1; number <= last; number++) {
+				if (this.attributes[number] != null) {
+					addAttributes(this.attributes[number], fields.getCharSource(number),
+												fields.getStart(number), fields.getEnd(number), atts);
+				}
+			}
+		}
+
+		private void addAttributes(RecordFields fields, SingleByteCodec codec, RecordAttributes atts) {
+			final int last = Math.min(fields.size(), this.attributes.length - 1);
+			for (int number = 1; number <= last; number++) {
+				if (this.attributes[number] != null) {
+					addAttributes(this.attributes[number], fields.getByteSource(number),
+												fields.getStart(number), fields.getEnd(number), codec, atts);
+				}
+			}
+		}
+
+		private static void addAttributes(FieldExtractor[] attributes, CharBuffer input,
+																			RecordAttributes atts) {
+			addAttributes(attributes, input, input.position(), input.limit(), atts);
+		}
+
+		private static void addAttributes(FieldExtractor[] attributes, CharBuffer input,
+																			int position, int limit, RecordAttributes atts) {
+			if (attributes != null) {
+				for (int i = 0; i < attributes.length; i++) {
+					attributes[i].extract(input, position, limit, atts);
+				}
+			}
+		}
+
+		private static void addAttributes(FieldExtractor[] attributes, ByteBuffer input,
+																			SingleByteCodec codec, RecordAttributes atts) {
+			addAttributes(attributes, input, input.position(), input.limit(), codec, atts);
+		}
+
+		private static void addAttributes(FieldExtractor[] attributes, ByteBuffer input,
+																			int position, int limit, SingleByteCodec codec,
+																			RecordAttributes atts) {
+			if (attributes != null) {
+				for (int i = 0; i < attributes.length; i++) {
+					attributes[i].extract(input, position, limit, codec, atts);
+				}
+			}
+		}
+
+		/**
+		 * Parses the children of the element.
+		 * 
+		 * @param fields
+		 *          the fields of <code>element</code>, or null if they were not
+		 *          split yet.
+		 */
+		void getElements(CharBuffer element, RecordFields fields, ContentHandler output)
+				throws SAXException, ParseException {
+			if (this.children.length > 0) {
+				if (this.firstMayChangeRecord) {
+					// the record is split after the children of the whole record
+					parseChildren(this.children[0], element, null, output);
+					fields = null;
+				} else {
+					parseChildren(this.children[0], element, fields, output);
+				}
+				if (this.children.length > 1 && this.isSeparatorDefined) {
+					final RecordFields split = (fields == null ? RecordFields.acquire() : null);
+					try {
+						if (split != null) {
+							split.split(this.node, element);
+							fields = split;
+						}
+						final int last = Math.min(fields.size(), this.children.length - 1);
+						for (int number = 1; number <= last; number++) {
+							if (this.children[number] != null) {
+								parseChildren(this.children[number], fields.getChars(number), null, output);
+							}
+						}
+					} finally {
+						release(split);
+					}
+				}
+			}
+			if (this.showText) {
+				final int length = (this.textLength == -1 ? element.length() : this.textLength);
+				output.characters(element.array(), element.arrayOffset() + element.position(), length);
+			}
+		}
+
+		private void getElements(ByteBuffer element, RecordFields fields, SingleByteCodec codec,
+														 ContentHandler output) throws SAXException, ParseException {
+			if (this.children.length > 0) {
+				if (this.firstMayChangeRecord) {
+					parseChildren(this.children[0], element, null, codec, output);
+					fields = null;
+				} else {
+					parseChildren(this.children[0], element, fields, codec, output);
+				}
+				if (this.children.length > 1 && this.isSeparatorDefined) {
+					final RecordFields split = (fields == null ? RecordFields.acquire() : null);
+					try {
+						if (split != null) {
+							split.split(this.node, element, codec);
+							fields = split;
+						}
+						final int last = Math.min(fields.size(), this.children.length - 1);
+						for (int number = 1; number <= last; number++) {
+							if (this.children[number] != null) {
+								parseChildren(this.children[number], fields.getBytes(number), null, codec,
+															output);
+							}
+						}
+					} finally {
+						release(split);
+					}
+				}
+			}
+			if (this.showText) {
+				final ByteBuffer text = element.duplicate();
+				if (this.textLength != -1 && this.textLength < text.remaining()) {
+					text.limit(text.position() + this.textLength);
+				}
+				final char[] chars = codec.toChars(text);
+				output.characters(chars, 0, chars.length);
+			}
+		}
+
+		private static void parseChildren(Step[] children, CharBuffer input, RecordFields split,
+																			ContentHandler output) throws SAXException,
+				ParseException {
+			if (children != null) {
+				for (int i = 0; i < children.length; i++) {
+					children[i].parse(input, split, output);
+				}
+			}
+		}
+
+		private static void parseChildren(Step[] children, ByteBuffer input, RecordFields split,
+																			SingleByteCodec codec, ContentHandler output)
+				throws SAXException, ParseException {
+			if (children != null) {
+				for (int i = 0; i < children.length; i++) {
+					children[i].parse(input, split, codec, output);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A compiled <code>UDDChoose</code>: the value is read from its field, and
+	 * the <code>when</code> element of the value parses the field of its index.
+	 * The record is split only once, for the value and the element.
+	 */
+	private static final class ChooseStep extends Step {
+
+		private final UDDChoose node;
+
+		private final UDDChoose.UDDValue value;
+
+		// the when steps, by their values. The otherwise element is not in it
+		private final ValueTable whens;
+
+		private final WhenStep otherwise;
+
+		private final boolean isSeparatorDefined;
+
+		private final boolean mayChangeRecord;
+
+		ChooseStep(UDDChoose node) {
+			this.node = node;
+			this.value = node.uddValue;
+			this.isSeparatorDefined = node.isSeparatorDefined;
+			final Map whens = new HashMap();
+			WhenStep otherwise = null;
+			boolean mayChangeRecord = false;
+			if (node.elementByValue != null) {
+				for (Iterator it = node.elementByValue.entrySet().iterator(); it.hasNext();) {
+					final Map.Entry entry = (Map.Entry) it.next();
+					final WhenStep when = new WhenStep((UDDChoose.UDDWhen) entry.getValue());
+					mayChangeRecord |= when.step.mayChangeRecord();
+					if (entry.getKey() == null) {
+						otherwise = when;
+					} else {
+						whens.put(entry.getKey(), when);
+					}
+				}
+			}
+			this.whens = new ValueTable(whens);
+			this.otherwise = otherwise;
+			this.mayChangeRecord = mayChangeRecord;
+		}
+
+		boolean mayChangeRecord() {
+			return this.mayChangeRecord;
+		}
+
+		void parse(CharBuffer input, RecordFields split, ContentHandler output)
+				throws SAXException, ParseException {
+			if (input.length() > 0) {
+				input = this.node.getSubstring(input);
+				RecordFields fields = inherit(split, input), owned = null;
+				if (fields == null && this.isSeparatorDefined) {
+					fields = owned = RecordFields.acquire();
+					owned.split(this.node, input);
+				}
+				try {
+					// Finds the value to decide which element to use to parse the input
+					final WhenStep when = getWhen(this.value.find(this.whens, input, fields));
+					if (when == null) {
+						return;
+					} else if (this.node.isCountingSelections()) {
+						when.selections.increment();
+					}
+					if (when.index == 0) {
+						when.step.parse(input, fields, output);
+					}
+					if (fields != null && when.index > 0 && when.index <= fields.size()) {
+						when.step.parse(fields.getChars(when.index), null, output);
+					}
+				} finally {
+					release(owned);
+				}
+			}
+		}
+
+		void parse(ByteBuffer input, RecordFields split, SingleByteCodec codec,
+							 ContentHandler output) throws SAXException, ParseException {
+			if (input.hasRemaining()) {
+				input = this.node.getSubstring(input);
+				RecordFields fields = inherit(split, input), owned = null;
+				if (fields == null && this.isSeparatorDefined) {
+					fields = owned = RecordFields.acquire();
+					owned.split(this.node, input, codec);
+				}
+				try {
+					final WhenStep when = getWhen(this.value.find(this.whens, input, fields, codec));
+					if (when == null) {
+						return;
+					} else if (this.node.isCountingSelections()) {
+						when.selections.increment();
+					}
+					if (when.index == 0) {
+						when.step.parse(input, fields, codec, output);
+					}
+					if (fields != null && when.index > 0 && when.index <= fields.size()) {
+						when.step.parse(fields.getBytes(when.index), null, codec, output);
+					}
+				} finally {
+					release(owned);
+				}
+			}
+		}
+
+		private RecordFields inherit(RecordFields split, Object input) {
+			return (split != null && !this.mayChangeRecord && split.isSplitOf(input, this.node) 
+							? split : null);
+		}
+
+		private WhenStep getWhen(Object when) {
+			if (when == null) {
+				when = this.otherwise;
+				if (when == null) {
+					log.debug("No element for the value, and no otherwise element");
+				}
+			}
+			return (WhenStep) when;
+		}
+	}
+
+	/**
+	 * A <code>when</code> element of a choose, and the field it parses.
+	 */
+	private static final class WhenStep {
+
+		final int index;
+
+		final ElementStep step;
+
+		final StripedCounter selections;
+
+		WhenStep(UDDChoose.UDDWhen when) {
+			this.index = when.getIndex();
+			this.step = new ElementStep(when);
+			this.selections = when.selections;
+		}
+	}
+}
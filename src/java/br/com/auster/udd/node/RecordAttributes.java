@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.node;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import org.xml.sax.Attributes;
+
+/**
+ * The attributes of an element parsed from a record. The values found by the
+ * UDD attributes are kept as ranges of the chars of the record, and are only
+ * copied to strings when <code>getValue()</code> is called. Content handlers
+ * that know this class may get the chars of the values directly, with
+ * <code>getValueChars()</code>, <code>getValueOffset()</code> and
+ * <code>getValueLength()</code>, and then no string is created at all.
+ * <p>
+ * Just like any SAX attributes, the values are only valid during the
+ * <code>startElement()</code> call: after it, the chars of the record may
+ * change. Instances are reused, and must not be shared by threads.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class RecordAttributes implements Attributes {
+
+  private static final String CDATA = "CDATA";
+
+  private String[] uris = new String[16];
+
+  private String[] localNames = new String[16];
+
+  private String[] qNames = new String[16];
+
+  private String[] types = new String[16];
+
+  // the values copied to strings, or null if not copied yet
+  private String[] values = new String[16];
+
+  // the chars of each value
+  private char[][] chars = new char[16][];
+
+  private int[] offsets = new int[16];
+
+  private int[] lengths = new int[16];
+
+  private int count;
+
+  // the chars decoded from the records of single byte charsets. When it is
+  // full, a new array is created, and the values already added keep the old
+  // one
+  private char[] decoded = new char[1024];
+
+  private int decodedLength;
+
+  // true if the chars of the record were changed by the attributes
+  private boolean recordChanged;
+
+  // the fields of the record split to parse the attributes, kept to parse the
+  // children of the element
+  private RecordFields fields;
+
+  /**
+   * Removes all the attributes, keeping the allocated memory.
+   */
+  public void clear() {
+    for (int i = 0; i < this.count; i++) {
+      this.uris[i] = null;
+      this.localNames[i] = null;
+      this.qNames[i] = null;
+      this.types[i] = null;
+      this.values[i] = null;
+      this.chars[i] = null;
+    }
+    this.count = 0;
+    this.decodedLength = 0;
+    this.recordChanged = false;
+    setFields(null);
+  }
+
+  /**
+   * Adds an attribute, just like <code>AttributesImpl.addAttribute()</code>.
+   */
+  public void addAttribute(String uri, String localName, String qName, String type,
+                           String value) {
+    final int i = add(uri, localName, qName, type);
+    this.values[i] = value;
+  }
+
+  /**
+   * Adds an attribute without namespace, whose value is the chars of
+   * <code>chars</code> from <code>offset</code>, with <code>length</code>
+   * chars. The chars are not copied.
+   */
+  void addAttribute(String name, char[] chars, int offset, int length) {
+    final int i = add("", name, name, CDATA);
+    this.chars[i] = chars;
+    this.offsets[i] = offset;
+    this.lengths[i] = length;
+  }
+
+  /**
+   * Converts the bytes of <code>input</code>, from <code>from</code> to
+   * <code>to</code>, to chars with <code>codec</code>. The chars are kept by
+   * this instance until <code>clear()</code> is called, so they may be used by
+   * the values added.
+   * 
+   * @return the offset of the chars in <code>getDecodedChars()</code>.
+   */
+  int decode(ByteBuffer input, int from, int to, SingleByteCodec codec) {
+    final int length = to - from;
+    if (this.decodedLength + length > this.decoded.length) {
+      this.decoded = new char[Math.max(this.decoded.length, length) * 2];
+      this.decodedLength = 0;
+    }
+    final char[] decoded = this.decoded;
+    final int offset = this.decodedLength;
+    if (input.hasArray()) {
+      final byte[] bytes = input.array();
+      final int bytesOffset = input.arrayOffset() + from;
+      for (int i = 0; i < length; i++) {
+        decoded[offset + i] = codec.toChar(bytes[bytesOffset + i]);
+      }
+    } else {
+      for (int i = 0; i < length; i++) {
+        decoded[offset + i] = codec.toChar(input.get(from + i));
+      }
+    }
+    this.decodedLength += length;
+    return offset;
+  }
+
+  /**
+   * @return the array with the chars of the last <code>decode()</code>.
+   */
+  char[] getDecodedChars() {
+    return this.decoded;
+  }
+
+  /**
+   * Tells that the chars of the record were changed by an attribute, so they
+   * must be split again to parse the children.
+   */
+  void setRecordChanged() {
+    this.recordChanged = true;
+  }
+
+  boolean isRecordChanged() {
+    return this.recordChanged;
+  }
+
+  /**
+   * Keeps the fields split to parse the attributes, releasing the ones kept
+   * before.
+   */
+  void setFields(RecordFields fields) {
+    if (this.fields != null && this.fields != fields) {
+      RecordFields.release(this.fields);
+    }
+    this.fields = fields;
+  }
+
+  /**
+   * Gets the fields kept by <code>setFields()</code>. The caller must release
+   * them.
+   */
+  RecordFields takeFields() {
+    final RecordFields fields = this.fields;
+    this.fields = null;
+    return fields;
+  }
+
+  /**
+   * Copies all the values that are ranges of chars to strings, so they are
+   * kept if the chars of the record change.
+   */
+  void copyValues() {
+    for (int i = 0; i < this.count; i++) {
+      if (this.values[i] == null && this.chars[i] != null) {
+        getValue(i);
+        this.chars[i] = null;
+      }
+    }
+  }
+
+  /**
+   * Gets the array with the chars of the value of the attribute
+   * <code>index</code>. The value starts at <code>getValueOffset(index)</code>
+   * and has <code>getValueLength(index)</code> chars. The array must not be
+   * changed.
+   * 
+   * @return the chars of the value, or null if there is no attribute at the
+   *         index.
+   */
+  public char[] getValueChars(int index) {
+    if (index < 0 || index >= this.count) {
+      return null;
+    } else if (this.chars[index] == null) {
+      final String value = this.values[index];
+      this.chars[index] = (value == null ? new char[0] : value.toCharArray());
+      this.offsets[index] = 0;
+      this.lengths[index] = this.chars[index].length;
+    }
+    return this.chars[index];
+  }
+
+  /**
+   * @see #getValueChars(int)
+   */
+  public int getValueOffset(int index) {
+    getValueChars(index);
+    return this.offsets[index];
+  }
+
+  /**
+   * @see #getValueChars(int)
+   */
+  public int getValueLength(int index) {
+    getValueChars(index);
+    return this.lengths[index];
+  }
+
+  /**
+   * Gets the value of the attribute <code>index</code> as a char sequence,
+   * without copying its chars to a string.
+   */
+  public CharSequence getValueSequence(int index) {
+    if (index < 0 || index >= this.count) {
+      return null;
+    } else if (this.values[index] != null) {
+      return this.values[index];
+    }
+    return CharBuffer.wrap(this.chars[index], this.offsets[index], this.lengths[index]);
+  }
+
+  /** ************************************** */
+  /* Start of the Attributes implementation */
+  /** ************************************** */
+  public int getLength() {
+    return this.count;
+  }
+
+  public String getURI(int index) {
+    return (index >= 0 && index < this.count ? this.uris[index] : null);
+  }
+
+  public String getLocalName(int index) {
+    return (index >= 0 && index < this.count ? this.localNames[index] : null);
+  }
+
+  public String getQName(int index) {
+    return (index >= 0 && index < this.count ? this.qNames[index] : null);
+  }
+
+  public String getType(int index) {
+    return (index >= 0 && index < this.count ? this.types[index] : null);
+  }
+
+  public String getValue(int index) {
+    if (index < 0 || index >= this.count) {
+      return null;
+    } else if (this.values[index] == null && this.chars[index] != null) {
+      this.values[index] = new String(this.chars[index], this.offsets[index],
+                                      this.lengths[index]);
+    }
+    return this.values[index];
+  }
+
+  public int getIndex(String uri, String localName) {
+    for (int i = 0; i < this.count; i++) {
+      if (this.uris[i].equals(uri) && this.localNames[i].equals(localName)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public int getIndex(String qName) {
+    for (int i = 0; i < this.count; i++) {
+      if (this.qNames[i].equals(qName)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public String getType(String uri, String localName) {
+    return getType(getIndex(uri, localName));
+  }
+
+  public String getType(String qName) {
+    return getType(getIndex(qName));
+  }
+
+  public String getValue(String uri, String localName) {
+    return getValue(getIndex(uri, localName));
+  }
+
+  public String getValue(String qName) {
+    return getValue(getIndex(qName));
+  }
+
+  /** ************************************ */
+  /* End of the Attributes implementation */
+  /** ************************************ */
+
+  private final int add(String uri, String localName, String qName, String type) {
+    if (this.count == this.uris.length) {
+      final int size = this.count * 2;
+      this.uris = grow(this.uris, size);
+      this.localNames = grow(this.localNames, size);
+      this.qNames = grow(this.qNames, size);
+      this.types = grow(this.types, size);
+      this.values = grow(this.values, size);
+      final char[][] newChars = new char[size][];
+      System.arraycopy(this.chars, 0, newChars, 0, this.count);
+      this.chars = newChars;
+      final int[] newOffsets = new int[size];
+      System.arraycopy(this.offsets, 0, newOffsets, 0, this.count);
+      this.offsets = newOffsets;
+      final int[] newLengths = new int[size];
+      System.arraycopy(this.lengths, 0, newLengths, 0, this.count);
+      this.lengths = newLengths;
+    }
+    final int i = this.count++;
+    this.uris[i] = uri;
+    this.localNames[i] = localName;
+    this.qNames[i] = qName;
+    this.types[i] = type;
+    return i;
+  }
+
+  private static String[] grow(String[] array, int size) {
+    final String[] newArray = new String[size];
+    System.arraycopy(array, 0, newArray, 0, array.length);
+    return newArray;
+  }
+}
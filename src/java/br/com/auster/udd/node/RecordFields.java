@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.node;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.LinkedList;
+
+/**
+ * The fields of a record, split by the separator of an element. The escapes
+ * of the separators found are removed, just like in the original
+ * <code>UDDElement.parse()</code>, and the bounds of each field are kept, so
+ * the views of the fields are only created when they are used.
+ * <p>
+ * The escapes are removed in a single copy of the record, made in one pass
+ * to a scratch array of this instance. The fields before the first escaped
+ * separator are still views of the record itself, as they were when each
+ * escape made a new copy of the record. The chars of the copy are only valid
+ * until the next split.
+ * </p>
+ * <p>
+ * Instances must not be shared by threads: <code>acquire()</code> gets one
+ * that only the current thread uses, until it is given back with
+ * <code>release()</code>.
+ * </p>
+ *
+ * @version $Id$
+ */
+final class RecordFields {
+
+  // the free instances of each thread. Nested elements are split while
+  // their parents' fields are still used
+  private static final ThreadLocal FREE_FIELDS = new ThreadLocal() {
+    protected Object initialValue() {
+      return new LinkedList();
+    }
+  };
+
+  private final TokenScanner scanner = new TokenScanner();
+
+  // the start and end of each field, starting with the field number 1
+  private int[] bounds = new int[32];
+
+  private int count;
+
+  // the positions, in the record, of the escapes of the separators
+  private int[] escapes = new int[8];
+
+  private int escapeCount;
+
+  // the fields before this one are in the record, and the others in the
+  // copy without the escapes
+  private int firstCopied;
+
+  private Object record;
+
+  // the separator and the escape used by the last split
+  private char separator, escape;
+
+  // the copies of the records without the escapes, reused by each split
+  private CharBuffer charCopy;
+
+  private ByteBuffer byteCopy;
+
+  static RecordFields acquire() {
+    final LinkedList free = (LinkedList) FREE_FIELDS.get();
+    return (free.isEmpty() ? new RecordFields() : (RecordFields) free.removeLast());
+  }
+
+  static void release(RecordFields fields) {
+    fields.record = null;
+    fields.count = 0;
+    ((LinkedList) FREE_FIELDS.get()).addLast(fields);
+  }
+
+  /**
+   * @return the number of fields found by the last split.
+   */
+  int size() {
+    return this.count;
+  }
+
+  /**
+   * Splits <code>input</code> with the separator and the escape of
+   * <code>element</code>.
+   */
+  void split(UDDElement element, CharBuffer input) {
+    final int length = input.length();
+    findFields(this.scanner.scan(input, element.separateChar, element.escapeChar), length);
+    setRecord(input, element);
+    if (this.escapeCount == 0) {
+      return;
+    }
+
+    final int copyLength = length - this.escapeCount;
+    if (this.charCopy == null || this.charCopy.capacity() < copyLength) {
+      this.charCopy = CharBuffer.allocate(Math.max(copyLength, 256));
+    }
+    this.charCopy.clear();
+    final CharBuffer chunk = input.duplicate();
+    int from = 0;
+    for (int i = 0; i < this.escapeCount; i++) {
+      chunk.limit(this.escapes[i]).position(from);
+      this.charCopy.put(chunk);
+      from = this.escapes[i] + 1;
+    }
+    chunk.limit(length).position(from);
+    this.charCopy.put(chunk);
+    this.charCopy.flip();
+  }
+
+  /**
+   * The same as <code>split(UDDElement, CharBuffer)</code>, for the bytes of a
+   * single byte charset.
+   */
+  void split(UDDElement element, ByteBuffer input, SingleByteCodec codec) {
+    final int length = input.remaining();
+    findFields(this.scanner.scan(input, 
+                                 codec.toByte(element.separateChar), 
+                                 codec.toByte(element.escapeChar)), 
+               length);
+    setRecord(input, element);
+    if (this.escapeCount == 0) {
+      return;
+    }
+
+    final int copyLength = length - this.escapeCount;
+    if (this.byteCopy == null || this.byteCopy.capacity() < copyLength) {
+      this.byteCopy = ByteBuffer.allocate(Math.max(copyLength, 256));
+    }
+    this.byteCopy.clear();
+    final ByteBuffer chunk = input.duplicate();
+    int from = 0;
+    for (int i = 0; i < this.escapeCount; i++) {
+      chunk.limit(this.escapes[i]).position(from);
+      this.byteCopy.put(chunk);
+      from = this.escapes[i] + 1;
+    }
+    chunk.limit(length).position(from);
+    this.byteCopy.put(chunk);
+    this.byteCopy.flip();
+  }
+
+  /**
+   * Tells if the last split was of <code>input</code>, with the separator
+   * and the escape of <code>element</code>.
+   */
+  boolean isSplitOf(Object input, UDDElement element) {
+    return (input == this.record && element.separateChar == this.separator 
+            && element.escapeChar == this.escape);
+  }
+
+  private void setRecord(Object input, UDDElement element) {
+    this.record = input;
+    this.separator = element.separateChar;
+    this.escape = element.escapeChar;
+  }
+
+  /**
+   * Finds the bounds of the fields with the tokens of the scanner. The
+   * bounds are positions in the record without the escapes of the
+   * separators. An escape is removed when it is preceded by an even number
+   * of escapes, so an escape may also escape another escape.
+   */
+  private void findFields(int tokens, int length) {
+    int index = 0;
+    this.count = 0;
+    this.escapeCount = 0;
+    this.firstCopied = Integer.MAX_VALUE;
+    for (int t = 0; t < tokens; t++) {
+      if (this.scanner.isEscape(t)) {
+        continue;
+      }
+      final int sepIndex = this.scanner.getPosition(t);
+      if (this.scanner.countEscapesBefore(t) % 2 != 0) {
+        // the escape before it is an escape for a separator
+        if (this.escapeCount == 0) {
+          this.firstCopied = this.count;
+        }
+        addEscape(sepIndex - 1);
+        continue;
+      }
+      add(index, sepIndex - this.escapeCount);
+      index = sepIndex + 1 - this.escapeCount;
+    }
+    add(index, length - this.escapeCount);
+  }
+
+  /**
+   * Gets the chars of the field <code>number</code>, starting at 1.
+   */
+  CharBuffer getChars(int number) {
+    final CharBuffer view = getCharSource(number).duplicate();
+    view.position(this.bounds[2 * number - 2]).limit(this.bounds[2 * number - 1]);
+    return view.slice();
+  }
+
+  /**
+   * Gets the bytes of the field <code>number</code>, starting at 1.
+   */
+  ByteBuffer getBytes(int number) {
+    final ByteBuffer view = getByteSource(number).duplicate();
+    view.position(this.bounds[2 * number - 2]).limit(this.bounds[2 * number - 1]);
+    return view.slice();
+  }
+
+  /**
+   * Gets the buffer the field <code>number</code>, starting at 1, was found
+   * in. The field is between <code>getStart(number)</code> and
+   * <code>getEnd(number)</code> of this buffer.
+   */
+  CharBuffer getCharSource(int number) {
+    return (CharBuffer) (number <= this.firstCopied ? this.record : this.charCopy);
+  }
+
+  /**
+   * The same as <code>getCharSource(int)</code>, for the bytes of a single
+   * byte charset.
+   */
+  ByteBuffer getByteSource(int number) {
+    return (ByteBuffer) (number <= this.firstCopied ? this.record : this.byteCopy);
+  }
+
+  int getStart(int number) {
+    return this.bounds[2 * number - 2];
+  }
+
+  int getEnd(int number) {
+    return this.bounds[2 * number - 1];
+  }
+
+  private void addEscape(int position) {
+    if (this.escapeCount == this.escapes.length) {
+      final int[] newEscapes = new int[this.escapes.length * 2];
+      System.arraycopy(this.escapes, 0, newEscapes, 0, this.escapeCount);
+      this.escapes = newEscapes;
+    }
+    this.escapes[this.escapeCount++] = position;
+  }
+
+  private void add(int start, int end) {
+    if (2 * this.count + 2 > this.bounds.length) {
+      final int[] newBounds = new int[this.bounds.length * 2];
+      System.arraycopy(this.bounds, 0, newBounds, 0, 2 * this.count);
+      this.bounds = newBounds;
+    }
+    this.bounds[2 * this.count] = start;
+    this.bounds[2 * this.count + 1] = end;
+    this.count++;
+  }
+}
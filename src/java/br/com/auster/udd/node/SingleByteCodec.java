@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.node;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The chars of a single byte charset, used to parse the records directly from
+ * the input bytes. Each byte is one char, so the positions and sizes given in
+ * the UDD are the same in bytes and in chars, and only the values that are
+ * sent to the output need to be converted to chars.
+ * <p>
+ * It is only available for the charsets where every byte is mapped to a char,
+ * like ISO-8859-1: otherwise, the unmapped bytes would be ignored by the
+ * decoder, and the positions would not match.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class SingleByteCodec {
+
+  /**
+   * Marks the bytes that are not mapped in a decoding table.
+   */
+  public static final char UNMAPPED = '\uFFFF';
+
+  // Map<Charset, SingleByteCodec> - the codecs already created, as each
+  // reader gets the codec of its charset
+  private static final Map CODECS = new HashMap();
+
+  private final Charset charset;
+
+  private final char[] table;
+
+  private SingleByteCodec(Charset charset, char[] table) {
+    this.charset = charset;
+    this.table = table;
+  }
+
+  /**
+   * Gets the codec of <code>charset</code>. The codecs are immutable, so the
+   * codec of each charset is created only once.
+   * 
+   * @return the codec, or null if <code>charset</code> is not a single byte
+   *         charset where every byte is mapped to a char.
+   */
+  public static SingleByteCodec forCharset(Charset charset) {
+    synchronized (CODECS) {
+      if (CODECS.containsKey(charset)) {
+        return (SingleByteCodec) CODECS.get(charset);
+      }
+    }
+    final SingleByteCodec codec = createCodec(charset);
+    synchronized (CODECS) {
+      CODECS.put(charset, codec);
+    }
+    return codec;
+  }
+
+  private static SingleByteCodec createCodec(Charset charset) {
+    final char[] table = getDecodingTable(charset);
+    if (table == null) {
+      return null;
+    }
+    for (int i = 0; i < table.length; i++) {
+      if (table[i] == UNMAPPED) {
+        return null;
+      }
+    }
+    return new SingleByteCodec(charset, table);
+  }
+
+  /**
+   * Builds the table with the char of each byte (0 to 255) of a single byte
+   * charset. The bytes that are not mapped to a single char are
+   * <code>UNMAPPED</code>.
+   * 
+   * @return the table, or null if <code>charset</code> is not a single byte
+   *         charset.
+   */
+  public static char[] getDecodingTable(Charset charset) {
+    if (!charset.canEncode() 
+        || charset.newEncoder().maxBytesPerChar() != 1 
+        || charset.newDecoder().maxCharsPerByte() != 1) {
+      return null;
+    }
+    final CharsetDecoder decoder = charset.newDecoder();
+    decoder.onMalformedInput(CodingErrorAction.REPORT);
+    decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
+    final char[] table = new char[256];
+    for (int b = 0; b < table.length; b++) {
+      try {
+        final CharBuffer decoded = decoder.reset().decode(ByteBuffer.wrap(new byte[] { (byte) b }));
+        table[b] = (decoded.remaining() == 1 ? decoded.get() : UNMAPPED);
+      } catch (CharacterCodingException e) {
+        table[b] = UNMAPPED;
+      }
+    }
+    return table;
+  }
+
+  public Charset getCharset() {
+    return this.charset;
+  }
+
+  /**
+   * Gets the char of a byte.
+   */
+  public char toChar(byte b) {
+    return this.table[b & 0xFF];
+  }
+
+  /**
+   * Gets the byte of a char.
+   * 
+   * @return the byte value (0 to 255), or -1 if <code>c</code> is not in this
+   *         charset.
+   */
+  public int toByte(char c) {
+    if (c < this.table.length && this.table[c] == c) {
+      return c;
+    }
+    for (int b = 0; b < this.table.length; b++) {
+      if (this.table[b] == c) {
+        return b;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Converts the remaining bytes of <code>bytes</code> to chars, without
+   * changing its position.
+   */
+  public char[] toChars(ByteBuffer bytes) {
+    final char[] chars = new char[bytes.remaining()];
+    final int position = bytes.position();
+    if (bytes.hasArray()) {
+      final byte[] array = bytes.array();
+      final int offset = bytes.arrayOffset() + position;
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = this.table[array[offset + i] & 0xFF];
+      }
+    } else {
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = this.table[bytes.get(position + i) & 0xFF];
+      }
+    }
+    return chars;
+  }
+
+  /**
+   * Converts the remaining bytes of <code>bytes</code> to a string, without
+   * changing its position.
+   */
+  public String toString(ByteBuffer bytes) {
+    return new String(toChars(bytes));
+  }
+
+  /**
+   * Finds the first <code>value</code> byte, starting at the position of
+   * <code>buffer</code>.
+   * 
+   * @return the index of the byte, or -1 if it was not found.
+   */
+  public static int findToken(ByteBuffer buffer, int value) {
+    if (value < 0) {
+      return -1;
+    }
+    final byte token = (byte) value;
+    final int limit = buffer.limit();
+    if (buffer.hasArray()) {
+      final byte[] array = buffer.array();
+      final int offset = buffer.arrayOffset();
+      for (int i = buffer.position(); i < limit; i++) {
+        if (array[offset + i] == token) {
+          return i;
+        }
+      }
+    } else {
+      for (int i = buffer.position(); i < limit; i++) {
+        if (buffer.get(i) == token) {
+          return i;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Counts how many <code>value</code> bytes there are in
+   * <code>buffer</code>, going backwards from <code>index</code>.
+   */
+  public static int countAdjacentOccurrencesBackwards(ByteBuffer buffer, int value, int index) {
+    int count = 0;
+    for (int i = index; i >= 0 && (buffer.get(i) & 0xFF) == value; i--) {
+      count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.node;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads may add to at the same time, without
+ * contending for a single value. Each thread adds to one of several cells,
+ * chosen by its id, and the count is the sum of the cells.
+ * <p>
+ * The cells are only allocated by the first <code>add()</code>, so the
+ * counters of the UDD nodes that are never counted cost no memory.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class StripedCounter {
+
+  // the cells are this many longs apart, so each one is in its own cache line
+  private static final int PADDING = 8;
+
+  // a power of two, at least the number of processors
+  private static final int STRIPES = getStripes();
+
+  private volatile AtomicLongArray cells;
+
+  /**
+   * Adds <code>delta</code> to the cell of the current thread.
+   */
+  public void add(long delta) {
+    AtomicLongArray cells = this.cells;
+    if (cells == null) {
+      cells = createCells();
+    }
+    final long id = Thread.currentThread().getId();
+    cells.getAndAdd((int) ((id ^ (id >>> 16)) & (STRIPES - 1)) * PADDING, delta);
+  }
+
+  public void increment() {
+    add(1);
+  }
+
+  /**
+   * Gets the sum of the cells. The additions made while it is summed may or
+   * may not be counted.
+   */
+  public long get() {
+    final AtomicLongArray cells = this.cells;
+    long sum = 0;
+    if (cells != null) {
+      for (int i = 0; i < cells.length(); i += PADDING) {
+        sum += cells.get(i);
+      }
+    }
+    return sum;
+  }
+
+  private synchronized AtomicLongArray createCells() {
+    if (this.cells == null) {
+      this.cells = new AtomicLongArray(STRIPES * PADDING);
+    }
+    return this.cells;
+  }
+
+  private static int getStripes() {
+    final int processors = Math.min(Runtime.getRuntime().availableProcessors(), 64);
+    int stripes = 1;
+    while (stripes < processors) {
+      stripes <<= 1;
+    }
+    return stripes;
+  }
+}
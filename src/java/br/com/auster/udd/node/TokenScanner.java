@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.node;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.LinkedList;
+
+/**
+ * Finds the positions of all the separators and escapes of a buffer in a
+ * single pass. Byte buffers are tested 8 bytes at a time, using bit operations
+ * on a <code>long</code> (SWAR: SIMD within a register), and the bytes left at
+ * the end are tested one by one. Char buffers are tested one char at a time,
+ * directly on their arrays: packing 4 chars in a <code>long</code> costs more
+ * than it saves.
+ * <p>
+ * The positions are absolute indexes of the buffer, in the order they are
+ * found. Instances keep the positions of the last scan, and must not be
+ * shared by threads: <code>acquire()</code> gets one that only the current
+ * thread uses, until it is given back with <code>release()</code>.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class TokenScanner {
+
+  /**
+   * The value of a token that is not used.
+   */
+  public static final int NO_TOKEN = -1;
+
+  private static final long BYTE_ONES = 0x0101010101010101L;
+
+  private static final long BYTE_LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+  // the free scanners of each thread. Nested elements are parsed while
+  // their parents are being parsed, so each one needs its own scanner
+  private static final ThreadLocal FREE_SCANNERS = new ThreadLocal() {
+    protected Object initialValue() {
+      return new LinkedList();
+    }
+  };
+
+  // the positions found: separators as they are, escapes as ~position
+  private int[] tokens;
+
+  private int count;
+
+  public TokenScanner() {
+    this(16);
+  }
+
+  /**
+   * @param expectedTokens
+   *          the number of positions this scanner will be able to hold before
+   *          growing.
+   */
+  public TokenScanner(int expectedTokens) {
+    this.tokens = new int[Math.max(expectedTokens, 4)];
+  }
+
+  /**
+   * Gets a scanner that is not being used by the current thread. It must be
+   * given back with <code>release()</code> when it is not needed anymore.
+   */
+  public static TokenScanner acquire() {
+    final LinkedList free = (LinkedList) FREE_SCANNERS.get();
+    return (free.isEmpty() ? new TokenScanner() : (TokenScanner) free.removeLast());
+  }
+
+  /**
+   * Gives back a scanner got with <code>acquire()</code>, by the same thread.
+   */
+  public static void release(TokenScanner scanner) {
+    ((LinkedList) FREE_SCANNERS.get()).addLast(scanner);
+  }
+
+  /**
+   * @return the number of positions found by the last scan.
+   */
+  public int size() {
+    return this.count;
+  }
+
+  /**
+   * @return the position of the <code>i</code>-th token found.
+   */
+  public int getPosition(int i) {
+    final int token = this.tokens[i];
+    return (token < 0 ? ~token : token);
+  }
+
+  /**
+   * @return true if the <code>i</code>-th token found is an escape.
+   */
+  public boolean isEscape(int i) {
+    return (this.tokens[i] < 0);
+  }
+
+  /**
+   * Counts the escapes right before the <code>i</code>-th token, going back
+   * while they are adjacent to each other.
+   */
+  public int countEscapesBefore(int i) {
+    int expected = getPosition(i) - 1;
+    int escapes = 0;
+    for (int j = i - 1; j >= 0 && this.tokens[j] == ~expected; j--, expected--) {
+      escapes++;
+    }
+    return escapes;
+  }
+
+  /**
+   * Finds all the <code>separator</code> and <code>escape</code> bytes between
+   * the position and the limit of <code>buffer</code>, which is not changed.
+   * 
+   * @param separator
+   *          the separator byte value (0 to 255), or <code>NO_TOKEN</code>.
+   * @param escape
+   *          the escape byte value (0 to 255), or <code>NO_TOKEN</code>.
+   * @return the number of positions found.
+   */
+  public int scan(ByteBuffer buffer, int separator, int escape) {
+    this.count = 0;
+    final int limit = buffer.limit();
+    int i = buffer.position();
+    if (separator == NO_TOKEN && escape == NO_TOKEN) {
+      return 0;
+    }
+    final long separators = (separator == NO_TOKEN ? 0 : (separator & 0xFF) * BYTE_ONES);
+    final long escapes = (escape == NO_TOKEN ? 0 : (escape & 0xFF) * BYTE_ONES);
+    for (; i + 8 <= limit; i += 8) {
+      // big endian: the first byte is the highest one
+      final long word = buffer.getLong(i);
+      long found = 0;
+      if (separator != NO_TOKEN) {
+        found = zeroBytes(word ^ separators);
+      }
+      long escapesFound = 0;
+      if (escape != NO_TOKEN) {
+        escapesFound = zeroBytes(word ^ escapes);
+        found |= escapesFound;
+      }
+      while (found != 0) {
+        final long bit = Long.highestOneBit(found);
+        final int position = i + (Long.numberOfLeadingZeros(bit) >>> 3);
+        add((escapesFound & bit) != 0 ? ~position : position);
+        found ^= bit;
+      }
+    }
+    for (; i < limit; i++) {
+      final int b = buffer.get(i) & 0xFF;
+      if (b == separator) {
+        add(i);
+      } else if (b == escape) {
+        add(~i);
+      }
+    }
+    return this.count;
+  }
+
+  /**
+   * Finds all the <code>separator</code> and <code>escape</code> chars between
+   * the position and the limit of <code>buffer</code>, which is not changed.
+   * 
+   * @param separator
+   *          the separator char, or <code>NO_TOKEN</code>.
+   * @param escape
+   *          the escape char, or <code>NO_TOKEN</code>.
+   * @return the number of positions found.
+   */
+  public int scan(CharBuffer buffer, int separator, int escape) {
+    this.count = 0;
+    final int limit = buffer.limit();
+    int i = buffer.position();
+    if (separator == NO_TOKEN && escape == NO_TOKEN) {
+      return 0;
+    }
+    if (buffer.hasArray()) {
+      final char[] array = buffer.array();
+      final int offset = buffer.arrayOffset();
+      for (; i < limit; i++) {
+        final char c = array[offset + i];
+        if (c == separator) {
+          add(i);
+        } else if (c == escape) {
+          add(~i);
+        }
+      }
+    }
+    for (; i < limit; i++) {
+      final char c = buffer.get(i);
+      if (c == separator) {
+        add(i);
+      } else if (c == escape) {
+        add(~i);
+      }
+    }
+    return this.count;
+  }
+
+  /**
+   * Sets the highest bit of each byte of <code>word</code> that is zero, and
+   * clears all the other bits.
+   */
+  private static long zeroBytes(long word) {
+    return ~(((word & BYTE_LOW_BITS) + BYTE_LOW_BITS) | word | BYTE_LOW_BITS);
+  }
+
+  private void add(int token) {
+    if (this.count == this.tokens.length) {
+      final int[] newTokens = new int[this.tokens.length * 2];
+      System.arraycopy(this.tokens, 0, newTokens, 0, this.count);
+      this.tokens = newTokens;
+    }
+    this.tokens[this.count++] = token;
+  }
+}
@@ -17,6 +17,7 @@
  */
 package br.com.auster.udd.node;
 
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.util.HashMap;
 import java.util.Map;
@@ -112,12 +113,60 @@ public class UDDAttribute extends UDDNode {
 	 * not find a value for this attribute, this method will do nothing.
 	 */
 	public final void parse(CharBuffer input, AttributesImpl atts) {
+		addAttribute(parseValue(input), atts);
+	}
+
+	/**
+	 * The same as <code>parse(CharBuffer, AttributesImpl)</code>, for a record
+	 * of a single byte charset. Only the bytes of this attribute are converted
+	 * to chars.
+	 */
+	public final void parse(ByteBuffer input, SingleByteCodec codec, AttributesImpl atts) {
+		addAttribute(parseValue(input, codec), atts);
+	}
+
+	/**
+	 * Parses the <code>input</code> to define the value for this attribute.
+	 * 
+	 * @return the value, or null if none was found.
+	 */
+	final String parseValue(CharBuffer input) {
 		if (input.length() == 0) {
-			return;
+			return null;
+		}
+
+		return getValue(getSubstring(input));
+	}
+
+	/**
+	 * The same as <code>parseValue(CharBuffer)</code>, for a record of a single
+	 * byte charset.
+	 */
+	final String parseValue(ByteBuffer input, SingleByteCodec codec) {
+		if (!input.hasRemaining()) {
+			return null;
 		}
 
-		CharBuffer buffer = getSubstring(input);
+		return getValue(CharBuffer.wrap(codec.toChars(getSubstring(input))));
+	}
 
+	/**
+	 * Puts <code>value</code>, if not null, in the attribute list.
+	 */
+	private final void addAttribute(String value, AttributesImpl atts) {
+		if (value != null) {
+			String name = this.getName();
+			atts.addAttribute("", name, name, "CDATA", value);
+		}
+	}
+
+	/**
+	 * Gets the value found in <code>buffer</code>. The invalid XML chars of the
+	 * buffer are replaced, if configured.
+	 * 
+	 * @return the value, or null if it is empty.
+	 */
+	final String getValue(CharBuffer buffer) {
 		if (this.replaceMalformed) {
 			// replace invalid XML chars
 			// (code points bellow were extracted from XML 1.0 spec)
@@ -137,13 +186,22 @@ public class UDDAttribute extends UDDNode {
 		}
 		
 		String result = (this.trimElement) ? buffer.toString().trim() : buffer.toString();
-		if (result.length() > 0) {
-			String name = this.getName();
-			if (hasFormatter && this.shouldFormat) {
-				result = (String) this.formater.format(result);
-			}			
-			atts.addAttribute("", name, name, "CDATA", result);
+		if (result.length() == 0) {
+			return null;
 		}
+		if (hasFormatter && this.shouldFormat) {
+			result = (String) this.formater.format(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Tells if this attribute may parse different inputs at the same time, in
+	 * different threads. Formatters are not required to be thread safe, so
+	 * attributes that use them are not.
+	 */
+	public boolean isParallelSafe() {
+		return !this.shouldFormat;
 	}
 
 	/*****************************************************************************
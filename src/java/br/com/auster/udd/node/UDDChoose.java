@@ -17,9 +17,12 @@
  */
 package br.com.auster.udd.node;
 
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.text.ParseException;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -41,7 +44,7 @@ public class UDDChoose extends UDDElement {
   /**
    * Represents the information of how to find the value for this UDDChoose.
    */
-  private static final class UDDValue extends UDDNode {
+  static final class UDDValue extends UDDNode {
 
     private int index;
 
@@ -73,6 +76,120 @@ public class UDDChoose extends UDDElement {
       return getSubstring(input).toString().trim();
     }
 
+    /**
+     * The same as <code>getValue(CharBuffer)</code>, for the input bytes of a
+     * single byte charset.
+     */
+    public CharSequence getValue(ByteBuffer input, SingleByteCodec codec) {
+      if (!input.hasRemaining()) {
+        return null;
+      }
+      return codec.toString(getSubstring(input)).trim();
+    }
+
+    /**
+     * Finds the entry of <code>table</code> for the value of
+     * <code>input</code>, without creating the string of the value. The value
+     * is found just like <code>getValue()</code> does, in the field of
+     * <code>input</code> given by the index of this value.
+     * 
+     * @param fields
+     *          the fields of <code>input</code>, or null if it is not split.
+     * @return the value of the entry, or null if there is no such entry.
+     * @throws NullPointerException
+     *           if there is no value in <code>input</code>.
+     */
+    Object find(ValueTable table, CharBuffer input, RecordFields fields) {
+      final CharBuffer source;
+      final int position, limit;
+      if (this.index == 0) {
+        source = input;
+        position = input.position();
+        limit = input.limit();
+      } else if (fields != null && this.index > 0 && this.index <= fields.size()) {
+        source = fields.getCharSource(this.index);
+        position = fields.getStart(this.index);
+        limit = fields.getEnd(this.index);
+      } else {
+        throw new NullPointerException("No value for the choose");
+      }
+      if (position == limit) {
+        throw new NullPointerException("No value for the choose");
+      } else if (!source.hasArray() || this.start < 0) {
+        final CharBuffer view = source.duplicate();
+        view.position(position).limit(limit);
+        return table.get(getValue(view.slice()).toString());
+      }
+      final int offset = source.arrayOffset();
+      int from = offset + getFrom(position, limit), to = offset + getTo(position, limit);
+      final char[] chars = source.array();
+      while (from < to && chars[from] <= ' ') {
+        from++;
+      }
+      while (to > from && chars[to - 1] <= ' ') {
+        to--;
+      }
+      return table.get(chars, from, to);
+    }
+
+    /**
+     * The same as <code>find(ValueTable, CharBuffer, RecordFields)</code>, for
+     * the input bytes of a single byte charset.
+     */
+    Object find(ValueTable table, ByteBuffer input, RecordFields fields, SingleByteCodec codec) {
+      final ByteBuffer source;
+      final int position, limit;
+      if (this.index == 0) {
+        source = input;
+        position = input.position();
+        limit = input.limit();
+      } else if (fields != null && this.index > 0 && this.index <= fields.size()) {
+        source = fields.getByteSource(this.index);
+        position = fields.getStart(this.index);
+        limit = fields.getEnd(this.index);
+      } else {
+        throw new NullPointerException("No value for the choose");
+      }
+      if (position == limit) {
+        throw new NullPointerException("No value for the choose");
+      } else if (this.start < 0) {
+        final ByteBuffer view = source.duplicate();
+        view.position(position).limit(limit);
+        return table.get(getValue(view.slice(), codec).toString());
+      }
+      int from = getFrom(position, limit), to = getTo(position, limit);
+      while (from < to && codec.toChar(source.get(from)) <= ' ') {
+        from++;
+      }
+      while (to > from && codec.toChar(source.get(to - 1)) <= ' ') {
+        to--;
+      }
+      return table.get(source, from, to, codec);
+    }
+
+    /**
+     * Gets the start of the value, in the field from <code>position</code> to
+     * <code>limit</code>, just like <code>getSubstring()</code>.
+     */
+    private int getFrom(int position, int limit) {
+      return Math.min(position + this.start, limit);
+    }
+
+    /**
+     * Gets the end of the value, in the field from <code>position</code> to
+     * <code>limit</code>, just like <code>getSubstring()</code>.
+     */
+    private int getTo(int position, int limit) {
+      final int length = limit - position;
+      if (this.start == 0 && this.computedLength < 0) {
+        return limit;
+      } else if (length < this.start) {
+        return limit;
+      }
+      final int end = this.start + this.computedLength;
+      return position + ((this.computedLength < 0 || length < end) ? length : end);
+    }
+
     public int getIndex() {
       return this.index;
     }
@@ -82,10 +199,13 @@ public class UDDChoose extends UDDElement {
    * Represents the udd:when element (which is a udd:element subclass with an
    * index).
    */
-  private static final class UDDWhen extends UDDElement {
+  static final class UDDWhen extends UDDElement {
 
     private int index;
 
+    // the times this element was selected
+    final StripedCounter selections = new StripedCounter();
+
     public UDDWhen(final Element config) {
       this(config, null);
     }
@@ -105,78 +225,6 @@ public class UDDChoose extends UDDElement {
     }
   }
 
-  /**
-   * This inner class is used to parse an input char sequence and generate
-   * attributes using them. This is used to process a udd:value element.
-   */
-  private static final class UDDValueCommand implements UDDParseCommand {
-
-    private final UDDValue uddValue;
-
-    private CharSequence value;
-
-    public UDDValueCommand(UDDValue uddValue) {
-      this.uddValue = uddValue;
-    }
-
-    public void startOfParsing(CharBuffer input) {
-      this.value = null;
-    }
-
-    public boolean mayParse(CharBuffer input) {
-      return (this.uddValue.getIndex() > 0);
-    }
-
-    public void parseIndexedSequence(int index, CharBuffer input) {
-      if (index == this.uddValue.getIndex()) {
-        this.value = this.uddValue.getValue(input);
-      }
-    }
-
-    public void endOfParsing(CharBuffer input) {
-    }
-
-    public String getValue() {
-      return this.value.toString();
-    }
-  }
-
-  /**
-   * This inner class is used to parse an input char sequence and generate
-   * elements using them. These elements may generate other elements based on
-   * this input. This is used to process a udd:when element.
-   */
-  private static final class UDDWhenCommand implements UDDParseCommand {
-
-    private final int index;
-
-    private final UDDWhen element;
-
-    private final ContentHandler output;
-
-    public UDDWhenCommand(UDDWhen element, ContentHandler output) {
-      this.index = element.getIndex();
-      this.element = element;
-      this.output = output;
-    }
-
-    public void startOfParsing(CharBuffer input) {
-    }
-
-    public boolean mayParse(CharBuffer input) {
-      return true;
-    }
-
-    public void parseIndexedSequence(int index, CharBuffer input) throws SAXException,
-        ParseException {
-      if (this.index == index)
-        element.parse(input, this.output);
-    }
-
-    public void endOfParsing(CharBuffer input) throws SAXException {
-    }
-  }
-
   // The instance attributes
   protected Map elementByValue;
 
@@ -184,6 +232,13 @@ public class UDDChoose extends UDDElement {
 
   protected boolean canProceed = false;
 
+  // the when elements, by their values. Instances may be used by several
+  // threads, and any of them may build it
+  private volatile ValueTable whenTable;
+
+  // true if the when elements count the times they are selected
+  private volatile boolean isCountingSelections = false;
+
   public UDDChoose(final Element root) {
     this(root, null);
   }
@@ -236,29 +291,174 @@ public class UDDChoose extends UDDElement {
     if (input.length() > 0) {
       input = getSubstring(input);
       
-      // Gets the value to decide which UDDElement to use to parse the
-      // input
-      UDDValueCommand command = new UDDValueCommand(this.uddValue);
-      parse(input, command);
+      // The value and the when element use the same fields: the value
+      // does not change the input, and the fields are only used by the when
+      // elements that are not indexed by 0
+      final RecordFields fields = (this.isSeparatorDefined ? RecordFields.acquire() : null);
+      try {
+        if (fields != null) {
+          fields.split(this, input);
+        }
+
+        // Gets the UDDElement that must be executed for the value found.
+        final UDDWhen element = getWhen(this.uddValue.find(getWhenTable(), input, fields));
+        if (element == null) {
+          return;
+        } else if (this.isCountingSelections) {
+          element.selections.increment();
+        }
+        final int index = element.getIndex();
+        if (index == 0) {
+          element.parse(input, output);
+        } else if (fields != null && index > 0 && index <= fields.size()) {
+          element.parse(fields.getChars(index), output);
+        }
+      } finally {
+        if (fields != null) {
+          RecordFields.release(fields);
+        }
+      }
+    }
+  }
+  
+  /**
+   * The same as <code>parse(CharBuffer, ContentHandler)</code>, for the input
+   * bytes of a single byte charset.
+   */
+  public void parse(ByteBuffer input, SingleByteCodec codec, ContentHandler output)
+      throws ParseException, SAXException {
+    if (input.hasRemaining()) {
+      input = getSubstring(input);
+      
+      final RecordFields fields = (this.isSeparatorDefined ? RecordFields.acquire() : null);
+      try {
+        if (fields != null) {
+          fields.split(this, input, codec);
+        }
+
+        final UDDWhen element = 
+          getWhen(this.uddValue.find(getWhenTable(), input, fields, codec));
+        if (element == null) {
+          return;
+        } else if (this.isCountingSelections) {
+          element.selections.increment();
+        }
+        final int index = element.getIndex();
+        if (index == 0) {
+          element.parse(input, codec, output);
+        } else if (fields != null && index > 0 && index <= fields.size()) {
+          element.parse(fields.getBytes(index), codec, output);
+        }
+      } finally {
+        if (fields != null) {
+          RecordFields.release(fields);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the table of the <code>when</code> elements, found by their values.
+   * It is built by the first parsing, after all the elements were processed.
+   */
+  private ValueTable getWhenTable() {
+    ValueTable table = this.whenTable;
+    if (table == null) {
+      this.whenTable = table = new ValueTable(this.elementByValue);
+    }
+    return table;
+  }
 
-      // Gets the UDDElement that must be executed for the value found.
-      UDDWhen element = (UDDWhen) this.elementByValue.get(command.getValue());
+  /**
+   * Gets the <code>when</code> element found for a value, or the
+   * <code>otherwise</code> element if none was found.
+   */
+  private UDDWhen getWhen(Object element) {
+    if (element == null) {
+      element = this.elementByValue.get(null);
       if (element == null) {
-        log.debug("Element is null");
-        element = (UDDWhen) this.elementByValue.get(null);
+        log.debug("No element for the value, and no otherwise element");
       }
-      if (element == null) {
-        log.debug("Element is null again!");
-        return;
+    }
+    return (UDDWhen) element;
+  }
+
+  /**
+   * Tells if this choose and all its <code>when</code> elements may parse
+   * different inputs at the same time, in different threads.
+   */
+  public boolean isParallelSafe() {
+    if (!super.isParallelSafe()) {
+      return false;
+    }
+    for (Iterator it = this.elementByValue.values().iterator(); it.hasNext();) {
+      if (!((UDDElement) it.next()).isParallelSafe()) {
+        return false;
       }
+    }
+    return true;
+  }
 
-      UDDWhenCommand command2 = new UDDWhenCommand(element, output);
-      parse(input, command2);
-      // element.parse(input, output);
+  /**
+   * Tells if this choose or one of its <code>when</code> elements replaces
+   * the invalid XML chars of the input.
+   */
+  public boolean isReplacingInvalidChars() {
+    if (super.isReplacingInvalidChars()) {
+      return true;
+    }
+    for (Iterator it = this.elementByValue.values().iterator(); it.hasNext();) {
+      if (((UDDElement) it.next()).isReplacingInvalidChars()) {
+        return true;
+      }
     }
+    return false;
   }
-  
+
   public Map getElementsMap() {
   	return this.elementByValue;
   }
+
+  /**
+   * Gets the <code>when</code> elements, after the children of this element.
+   */
+  public List getChildElements() {
+    final List children = super.getChildElements();
+    if (this.elementByValue != null) {
+      children.addAll(this.elementByValue.values());
+    }
+    return children;
+  }
+
+  /**
+   * Gets the times each <code>when</code> element was selected, by their
+   * values. The <code>otherwise</code> element is under the null value. The
+   * selections are only counted after
+   * <code>setCountingSelections(true)</code>.
+   * 
+   * @return a new Map&lt;String, Long&gt;.
+   */
+  public Map getSelectionCounts() {
+    final Map counts = new HashMap();
+    if (this.elementByValue != null) {
+      for (Iterator it = this.elementByValue.entrySet().iterator(); it.hasNext();) {
+        final Map.Entry entry = (Map.Entry) it.next();
+        counts.put(entry.getKey(), Long.valueOf(((UDDWhen) entry.getValue()).selections.get()));
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Tells if this choose counts the times each <code>when</code> element is
+   * selected. It is off by default, and turned on for the layouts of the
+   * readers with metrics.
+   */
+  public boolean isCountingSelections() {
+    return this.isCountingSelections;
+  }
+
+  public void setCountingSelections(boolean counting) {
+    this.isCountingSelections = counting;
+  }
 }
@@ -40,6 +40,7 @@ import br.com.auster.common.io.NIOUtils;
 import br.com.auster.common.util.I18n;
 import br.com.auster.common.xml.DOMUtils;
 import br.com.auster.common.xml.sax.NIOInputSource;
+import br.com.auster.udd.reader.ReaderFactory;
 
 /**
  * Represents a UDD element. It may contains others elements and attributes.
@@ -50,9 +51,10 @@ public class UDDContent extends UDDElement {
 
   private final I18n i18n = I18n.getInstance(UDDContent.class);
 
-  protected static String mode;
+  protected String mode;
 
-  private static final ThreadLocal alreadyDone = new ThreadLocal() {
+  // tells if a content in the "once" mode was already parsed by the thread
+  private final ThreadLocal alreadyDone = new ThreadLocal() {
     protected synchronized Object initialValue() {
       return Boolean.FALSE;
     }
@@ -66,13 +68,9 @@ public class UDDContent extends UDDElement {
 
   protected static final String CLASS_NAME_ATTR = "class-name";
 
-  // holds one xmlReader per Thread - for initialization, see
-  // getXMLReaderInstance()
-  private static final ThreadLocal xmlReader = new ThreadLocal() {
-    protected synchronized Object initialValue() {
-      return null;
-    }
-  };
+  // creates the readers of the xml-reader element, one for each parse, so
+  // the content may be parsed by any thread
+  private ReaderFactory readerFactory;
 
   protected String inputFile;
 
@@ -96,7 +94,7 @@ public class UDDContent extends UDDElement {
 
     if (fName.equals("")) {
       try {
-        xmlReader.set( getXMLReaderInstance(element) );
+        readerFactory = new ReaderFactory(element);
         inputFile = DOMUtils.getAttribute(element, "udd-file", true);
       } catch (Exception e) {
         e.printStackTrace();
@@ -133,6 +131,14 @@ public class UDDContent extends UDDElement {
     }
   }
 
+  /**
+   * Content elements cannot be parsed in parallel: the <code>once</code> mode
+   * is kept per thread.
+   */
+  public boolean isParallelSafe() {
+    return false;
+  }
+
   protected static final XMLReader getXMLReaderInstance(Element config)
       throws ClassNotFoundException, NoSuchMethodException, InstantiationException,
       IllegalAccessException, java.lang.reflect.InvocationTargetException {
@@ -145,18 +151,26 @@ public class UDDContent extends UDDElement {
   public void contentClass(CharSequence input, ContentHandler ch) {
 
     SAXSource source = null;
+    XMLReader reader = null;
     try {
+      reader = (readerFactory == null ? null : readerFactory.acquire());
       ReadableByteChannel file = NIOUtils.openFileForRead(new File(inputFile));
-      source = new SAXSource( (XMLReader) UDDContent.xmlReader.get(), 
-                               new NIOInputSource(file));
+      source = new SAXSource(reader, new NIOInputSource(file));
     } catch (IOException e) {
       log.fatal(i18n.getString("sourceNOTCreated", fName));
       e.printStackTrace();
+    } catch (SAXException e) {
+      log.fatal(i18n.getString("sourceNOTCreated", fName), e);
     }
 
-    SAXResult result = new SAXResult(ch);
-    transform(source, result);
-
+    try {
+      SAXResult result = new SAXResult(ch);
+      transform(source, result);
+    } finally {
+      if (readerFactory != null) {
+        readerFactory.release(reader);
+      }
+    }
   }
 
   public void contentFile(CharSequence input, ContentHandler ch) {
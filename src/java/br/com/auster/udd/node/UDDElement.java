@@ -19,9 +19,11 @@ package br.com.auster.udd.node;
 
 import gnu.trove.TIntObjectHashMap;
 
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -104,28 +106,61 @@ public class UDDElement extends UDDNode {
 
 	}
 
+	/**
+	 * The same as <code>UDDParseCommand</code>, for the records of single byte
+	 * charsets, parsed directly from the input bytes.
+	 */
+	public interface UDDByteParseCommand {
+
+		public void startOfParsing(ByteBuffer input);
+
+		public boolean mayParse(ByteBuffer input);
+
+		public void parseIndexedSequence(int index, ByteBuffer input)
+		    throws SAXException, ParseException;
+
+		public void endOfParsing(ByteBuffer input) throws SAXException;
+
+	}
+
 	/**
 	 * This inner class is used to parse an input char sequence and generate
 	 * attributes using them.
 	 */
-	private static final class UDDAttrCommand implements UDDParseCommand {
+	private static final class UDDAttrCommand implements UDDParseCommand,
+	    UDDByteParseCommand {
 
 		private final AttributesImpl		atts	= new AttributesImpl();
 
 		private final TIntObjectHashMap	attrMap;
 
+		private final SingleByteCodec		codec;
+
 		public UDDAttrCommand(TIntObjectHashMap attrMap) {
+			this(attrMap, null);
+		}
+
+		public UDDAttrCommand(TIntObjectHashMap attrMap, SingleByteCodec codec) {
 			this.attrMap = attrMap;
+			this.codec = codec;
 		}
 
 		public void startOfParsing(CharBuffer input) {
 			this.atts.clear();
 		}
 
+		public void startOfParsing(ByteBuffer input) {
+			this.atts.clear();
+		}
+
 		public boolean mayParse(CharBuffer input) {
 			return (this.attrMap.size() > 0);
 		}
 
+		public boolean mayParse(ByteBuffer input) {
+			return (this.attrMap.size() > 0);
+		}
+
 		public void parseIndexedSequence(int index, CharBuffer input) {
 			final Map attributes = (Map) this.attrMap.get(index);
 			if (attributes != null) {
@@ -135,8 +170,19 @@ public class UDDElement extends UDDNode {
 			}
 		}
 
+		public void parseIndexedSequence(int index, ByteBuffer input) {
+			final Map attributes = (Map) this.attrMap.get(index);
+			if (attributes != null) {
+				for (Iterator it = attributes.values().iterator(); it.hasNext();) {
+					((UDDAttribute) it.next()).parse(input, this.codec, this.atts);
+				}
+			}
+		}
+
 		public void endOfParsing(CharBuffer input) {}
 
+		public void endOfParsing(ByteBuffer input) {}
+
 		public AttributesImpl getAttributes() {
 			return this.atts;
 		}
@@ -147,7 +193,8 @@ public class UDDElement extends UDDNode {
 	 * elements using them. These elements may generate other elements based on
 	 * this input.
 	 */
-	private static final class UDDElementCommand implements UDDParseCommand {
+	private static final class UDDElementCommand implements UDDParseCommand,
+	    UDDByteParseCommand {
 
 		private final TIntObjectHashMap	elementMap;
 
@@ -157,12 +204,20 @@ public class UDDElement extends UDDNode {
 
 		private final int		            len;
 
+		private final SingleByteCodec		codec;
+
 		public UDDElementCommand(TIntObjectHashMap elementMap,
 		    ContentHandler output, boolean showText, int len) {
+			this(elementMap, output, showText, len, null);
+		}
+
+		public UDDElementCommand(TIntObjectHashMap elementMap,
+		    ContentHandler output, boolean showText, int len, SingleByteCodec codec) {
 			this.elementMap = elementMap;
 			this.output = output;
 			this.showText = showText;
 			this.len = len;
+			this.codec = codec;
 		}
 
 		public UDDElementCommand(TIntObjectHashMap elementMap,
@@ -177,10 +232,16 @@ public class UDDElement extends UDDNode {
 
 		public void startOfParsing(CharBuffer input) {}
 
+		public void startOfParsing(ByteBuffer input) {}
+
 		public boolean mayParse(CharBuffer input) {
 			return (this.elementMap.size() > 0);
 		}
 
+		public boolean mayParse(ByteBuffer input) {
+			return (this.elementMap.size() > 0);
+		}
+
 		public void parseIndexedSequence(int index, CharBuffer input)
 		    throws SAXException, ParseException {
 			List elements = (List) this.elementMap.get(index);
@@ -191,6 +252,16 @@ public class UDDElement extends UDDNode {
 			}
 		}
 
+		public void parseIndexedSequence(int index, ByteBuffer input)
+		    throws SAXException, ParseException {
+			List elements = (List) this.elementMap.get(index);
+			if (elements != null) {
+				for (Iterator it = elements.iterator(); it.hasNext();) {
+					((UDDElement) it.next()).parse(input, this.codec, this.output);
+				}
+			}
+		}
+
 		public void endOfParsing(CharBuffer input) throws SAXException {
 			if (this.showText) {
 				//this.output.characters(input.array(), 0, input.length());
@@ -202,6 +273,18 @@ public class UDDElement extends UDDNode {
 			}
 		}
 
+		public void endOfParsing(ByteBuffer input) throws SAXException {
+			if (this.showText) {
+				// only the bytes of the text are converted to chars
+				final ByteBuffer text = input.duplicate();
+				if (this.len != -1 && this.len < text.remaining()) {
+					text.limit(text.position() + this.len);
+				}
+				final char[] chars = this.codec.toChars(text);
+				this.output.characters(chars, 0, chars.length);
+			}
+		}
+
 	}
 
 	/** *********************************** */
@@ -358,6 +441,31 @@ public class UDDElement extends UDDNode {
 		}
 	}
 
+	/**
+	 * The same as <code>parse(CharBuffer, ContentHandler)</code>, for a record
+	 * of a single byte charset. The input is only converted to chars for the
+	 * attribute values and texts sent to the output.
+	 */
+	public void parse(ByteBuffer input, SingleByteCodec codec, ContentHandler output)
+	    throws ParseException, SAXException {
+		if (input.hasRemaining()) {
+			ByteBuffer element = getSubstring(input);
+			
+			final String name = getName();
+			if (name != null && name.length() > 0) {
+				// Starts the tag with the attributes from the input
+				output.startElement("", name, name, getAttributes(element, codec));
+				// Print the children elements
+				getElements(element, codec, output);
+				// Ends the tag
+				output.endElement("", name, name);
+			} else {
+        // Only Print the children elements
+				getElements(element, codec, output);
+			}
+		}
+	}
+
 	/**
 	 * Gets the attributes from input char sequence for this element.
 	 * 
@@ -380,6 +488,27 @@ public class UDDElement extends UDDNode {
 		    this.computedLength));
 	}
 
+	/**
+	 * Gets the attributes from the input bytes, of a single byte charset, for
+	 * this element.
+	 */
+	public AttributesImpl getAttributes(ByteBuffer input, SingleByteCodec codec)
+	    throws SAXException, ParseException {
+		UDDAttrCommand attrCmd = new UDDAttrCommand(this.attrByIndex, codec);
+		parse(input, codec, attrCmd);
+		return attrCmd.getAttributes();
+	}
+
+	/**
+	 * Gets the children elements from the input bytes, of a single byte
+	 * charset, for this element.
+	 */
+	public void getElements(ByteBuffer input, SingleByteCodec codec, ContentHandler output)
+	    throws SAXException, ParseException {
+		parse(input, codec, new UDDElementCommand(this.tagsByIndex, output, this.showText,
+		    this.computedLength, codec));
+	}
+
 	/**
 	 * Parses an input char sequence using a parsing object. This method will
 	 * split the input using the UDD configuration, if index and separator were
@@ -398,48 +527,20 @@ public class UDDElement extends UDDNode {
 		// If we have some elements indexed by field number.
 		if (this.isSeparatorDefined && command.mayParse(input)) {
 
-			CharBuffer toProcess = input;
-			int number = 1, index = 0, escapeOffset = 0;
-
-			// Looks for the separator character in the buffer, 
-			// to split the fields.
+			// Finds all the separator and escape characters in the buffer
+			// at once, to split the fields. The escapes of the separators
+			// are removed in a single copy of the input.
 			// Each field found will be passed to the corresponding 
 			// child.
-			final CharBuffer searchBuffer = input.duplicate();
-			int sepIndex = NIOBufferUtils.findToken(searchBuffer, this.separateChar);
-			
-			while (sepIndex >= 0) {
-
-				if (sepIndex > 0 && searchBuffer.get(sepIndex - 1) == this.escapeChar) {
-          // found an escape
-					final int escapeCount = 
-						NIOBufferUtils.countAdjacentOccurrencesBackwards(searchBuffer, 
-						                                                 this.escapeChar, 
-						                                                 sepIndex - 1);
-					if (escapeCount % 2 != 0) {
-						// means: this one is an escape for a separator
-						toProcess = removeChar(toProcess, sepIndex - 1 - escapeOffset);
-						++escapeOffset;
-						searchBuffer.position(++sepIndex);
-						sepIndex = NIOBufferUtils.findToken(searchBuffer, this.separateChar);
-						continue;
-					}
+			final RecordFields fields = RecordFields.acquire();
+			try {
+				fields.split(this, input);
+				for (int number = 1; number <= fields.size(); number++) {
+					command.parseIndexedSequence(number, fields.getChars(number));
 				}
-				
-				// found a field
-				CharBuffer view = toProcess.duplicate();
-				view.position(index).limit(sepIndex - escapeOffset);
-				command.parseIndexedSequence(number++, view.slice());
-				
-				searchBuffer.position(++sepIndex);
-				index = sepIndex - escapeOffset;
-				sepIndex = NIOBufferUtils.findToken(searchBuffer, this.separateChar);
+			} finally {
+				RecordFields.release(fields);
 			}
-
-			// Process the last field (or the unique one)
-			CharBuffer view = toProcess.duplicate();
-			view.position(index).limit(toProcess.length());
-			command.parseIndexedSequence(number++, view.slice());
 		}
 
 		// Notifies the command that no more char sequences will come
@@ -447,6 +548,55 @@ public class UDDElement extends UDDNode {
 		command.endOfParsing(input);
 	}
 
+	/**
+	 * The same as <code>parse(CharBuffer, UDDParseCommand)</code>, splitting
+	 * the input bytes with the bytes of the separator and escape chars.
+	 */
+	protected void parse(ByteBuffer input, SingleByteCodec codec, UDDByteParseCommand command)
+	    throws SAXException, ParseException {
+		// Tells to the command that the parsing will start for the given input
+		command.startOfParsing(input);
+
+		// Use the elements not indexed to parse the entire input
+		command.parseIndexedSequence(0, input);
+
+		// If we have some elements indexed by field number.
+		if (this.isSeparatorDefined && command.mayParse(input)) {
+
+			final RecordFields fields = RecordFields.acquire();
+			try {
+				fields.split(this, input, codec);
+				for (int number = 1; number <= fields.size(); number++) {
+					command.parseIndexedSequence(number, fields.getBytes(number));
+				}
+			} finally {
+				RecordFields.release(fields);
+			}
+		}
+
+		// Notifies the command that no more byte sequences will come
+		// before calling the startOfParsing again
+		command.endOfParsing(input);
+	}
+
+	/**
+	 * Removes a byte from the buffer, shifting all remaining bytes to the
+	 * left.
+	 * 
+	 * @return a new byte buffer without the byte at <code>position</code>.
+	 */
+	protected final ByteBuffer removeByte(ByteBuffer input, int position) {
+		final ByteBuffer result = ByteBuffer.allocate(input.remaining() - 1);
+		final ByteBuffer head = input.duplicate();
+		head.limit(position);
+		result.put(head);
+		final ByteBuffer tail = input.duplicate();
+		tail.position(position + 1);
+		result.put(tail);
+		result.flip();
+		return result;
+	}
+
 	/**
 	 * Removes a chunk of chars from the buffer, shifting all remaining 
 	 * characters to the left.
@@ -468,13 +618,66 @@ public class UDDElement extends UDDNode {
 		final int endPosition = position + length;
 		result.put(input.array(), offset, position);
 		result.put(input.array(), offset + endPosition, input.limit() - endPosition);
-		return (CharBuffer) result.flip();
+		result.flip();
+		return result;
 	}
 	
 	protected final CharBuffer removeChar(CharBuffer input, int position) {
 		return removeChars(input, position, 1);
 	}
 
+	/**
+	 * Tells if this element may parse different inputs at the same time, in
+	 * different threads. It is true when none of its attributes and children
+	 * elements keep state between two parsings.
+	 */
+	public boolean isParallelSafe() {
+		final Object[] attributes = this.attrByIndex.getValues();
+		for (int i = 0; i < attributes.length; i++) {
+			for (Iterator it = ((Map) attributes[i]).values().iterator(); it.hasNext();) {
+				if (!((UDDAttribute) it.next()).isParallelSafe()) {
+					return false;
+				}
+			}
+		}
+		final Object[] elements = this.tagsByIndex.getValues();
+		for (int i = 0; i < elements.length; i++) {
+			for (Iterator it = ((List) elements[i]).iterator(); it.hasNext();) {
+				if (!((UDDElement) it.next()).isParallelSafe()) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tells if this element, one of its attributes or one of its children
+	 * elements replaces the invalid XML chars of the input.
+	 */
+	public boolean isReplacingInvalidChars() {
+		if (this.replaceMalformed) {
+			return true;
+		}
+		final Object[] attributes = this.attrByIndex.getValues();
+		for (int i = 0; i < attributes.length; i++) {
+			for (Iterator it = ((Map) attributes[i]).values().iterator(); it.hasNext();) {
+				if (((UDDAttribute) it.next()).replaceMalformed) {
+					return true;
+				}
+			}
+		}
+		final Object[] elements = this.tagsByIndex.getValues();
+		for (int i = 0; i < elements.length; i++) {
+			for (Iterator it = ((List) elements[i]).iterator(); it.hasNext();) {
+				if (((UDDElement) it.next()).isReplacingInvalidChars()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	/***
 	 * Returns the information regarding if this Element is Indexed or Not.
 	 * @return
@@ -509,6 +712,21 @@ public class UDDElement extends UDDNode {
   public char getSeparateChar() {
   	return this.separateChar;
   }
+
+  /**
+   * Gets the child elements, in the order of their indexes.
+   * 
+   * @return a new List&lt;UDDElement&gt;.
+   */
+  public List getChildElements() {
+  	final int[] indexes = this.tagsByIndex.keys();
+  	Arrays.sort(indexes);
+  	final List children = new ArrayList();
+  	for (int i = 0; i < indexes.length; i++) {
+  		children.addAll((List) this.tagsByIndex.get(indexes[i]));
+  	}
+  	return children;
+  }
 }
 
 
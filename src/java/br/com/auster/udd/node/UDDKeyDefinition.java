@@ -1,5 +1,6 @@
 package br.com.auster.udd.node;
 
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.text.ParseException;
 
@@ -38,6 +39,11 @@ public class UDDKeyDefinition extends UDDElement {
 		// do nothing
 	}
 
+	public void parse(ByteBuffer input, SingleByteCodec codec, ContentHandler output)
+			throws ParseException, SAXException {
+		// do nothing
+	}
+
 	public String parseKey(CharBuffer input) throws ParseException, SAXException {
 		StringBuffer key = null;
 		if (input.length() > 0) {
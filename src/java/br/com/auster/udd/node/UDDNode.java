@@ -17,6 +17,7 @@
  */
 package br.com.auster.udd.node;
 
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 
 import org.apache.commons.lang.StringEscapeUtils;
@@ -54,6 +55,15 @@ public abstract class UDDNode {
     }
   };
 
+  /**
+   * {@value}
+   */
+  public static final ThreadLocal EMPTY_BB = new ThreadLocal() {
+    protected synchronized Object initialValue() {
+      return ByteBuffer.wrap(new byte[0]);
+    }
+  };
+
   protected static final Logger log = Logger.getLogger(UDDNode.class);
   
   // The instance variables
@@ -149,6 +159,32 @@ public abstract class UDDNode {
     return view.slice();
   }
 
+  /**
+   * Gets the specified bytes of the buffer, using the attributes 'start',
+   * 'end' and 'length'. It is the same as <code>getSubstring(CharBuffer)</code>
+   * for the records of single byte charsets.
+   */
+  protected final ByteBuffer getSubstring(ByteBuffer input) {
+    if (this.start == 0 && this.computedLength < 0) {
+      // indexed attribute - no start/length provided
+      return input;
+    } else if (input.remaining() < this.start) {
+      // content is smaller than attribute start position
+      return (ByteBuffer) EMPTY_BB.get();
+    }
+    
+    // determine end index
+    int endIndex = this.start + this.computedLength;
+    if (this.computedLength < 0 || input.remaining() < endIndex) {
+      endIndex = input.remaining();
+    }
+    
+    ByteBuffer view = input.duplicate();
+    int pos = (this.start < 0)? 0 : this.start;
+    view.position(pos).limit(endIndex);
+    return view.slice();
+  }
+
   /**
    * Gets the value of the attribute <code>name</code>.
    */
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.node;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The entries of a map keyed by strings, found directly by the chars or the
+ * bytes of a record, without creating the string of the key. It is used to
+ * find the <code>when</code> element of the value of a choose, and the
+ * blocks of the keys parsed by <code>ParsePlan.findKey()</code>.
+ * <p>
+ * The keys are kept in an open addressing table, built once: a lookup hashes
+ * the chars of the value and compares them with the few keys of its slot.
+ * Instances may be used by several threads.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class ValueTable {
+
+  private final char[][] keys;
+
+  private final Object[] values;
+
+  private final int mask;
+
+  /**
+   * Creates the table of <code>map</code>. The null key is not in the table.
+   */
+  public ValueTable(Map map) {
+    int size = 0;
+    if (map != null) {
+      for (Iterator it = map.keySet().iterator(); it.hasNext();) {
+        if (it.next() != null) {
+          size++;
+        }
+      }
+    }
+    int capacity = 2;
+    while (capacity < 2 * size) {
+      capacity <<= 1;
+    }
+    this.keys = new char[capacity][];
+    this.values = new Object[capacity];
+    this.mask = capacity - 1;
+    if (map != null) {
+      for (Iterator it = map.entrySet().iterator(); it.hasNext();) {
+        final Map.Entry entry = (Map.Entry) it.next();
+        if (entry.getKey() != null) {
+          final char[] key = entry.getKey().toString().toCharArray();
+          int slot = hash(key, 0, key.length);
+          while (this.keys[slot] != null) {
+            slot = (slot + 1) & this.mask;
+          }
+          this.keys[slot] = key;
+          this.values[slot] = entry.getValue();
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the entry of the chars from <code>from</code> to <code>to</code>.
+   * 
+   * @return the value of the entry, or null if there is no such key.
+   */
+  Object get(char[] chars, int from, int to) {
+    final int length = to - from;
+    for (int slot = hash(chars, from, to); this.keys[slot] != null; 
+         slot = (slot + 1) & this.mask) {
+      final char[] key = this.keys[slot];
+      if (key.length == length) {
+        int i = 0;
+        while (i < length && key[i] == chars[from + i]) {
+          i++;
+        }
+        if (i == length) {
+          return this.values[slot];
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The same as <code>get(char[], int, int)</code>, for the bytes of a single
+   * byte charset, from <code>from</code> to <code>to</code> of
+   * <code>bytes</code>.
+   */
+  Object get(ByteBuffer bytes, int from, int to, SingleByteCodec codec) {
+    final int length = to - from;
+    int hash = 0;
+    for (int i = from; i < to; i++) {
+      hash = 31 * hash + codec.toChar(bytes.get(i));
+    }
+    for (int slot = mix(hash); this.keys[slot] != null; slot = (slot + 1) & this.mask) {
+      final char[] key = this.keys[slot];
+      if (key.length == length) {
+        int i = 0;
+        while (i < length && key[i] == codec.toChar(bytes.get(from + i))) {
+          i++;
+        }
+        if (i == length) {
+          return this.values[slot];
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the entry of the values of <code>atts</code>, joined by
+   * <code>joinChar</code>, like the keys of <code>UDDKeyDefinition</code>.
+   */
+  Object get(RecordAttributes atts, String joinChar) {
+    final int count = atts.getLength();
+    final int joinLength = (joinChar == null ? 0 : joinChar.length());
+    int hash = 0, length = 0;
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        for (int j = 0; j < joinLength; j++) {
+          hash = 31 * hash + joinChar.charAt(j);
+        }
+        length += joinLength;
+      }
+      final char[] chars = atts.getValueChars(i);
+      final int offset = atts.getValueOffset(i), end = offset + atts.getValueLength(i);
+      for (int j = offset; j < end; j++) {
+        hash = 31 * hash + chars[j];
+      }
+      length += end - offset;
+    }
+    for (int slot = mix(hash); this.keys[slot] != null; slot = (slot + 1) & this.mask) {
+      final char[] key = this.keys[slot];
+      if (key.length == length && matches(key, atts, joinChar)) {
+        return this.values[slot];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Tells if <code>key</code> has the values of <code>atts</code>, joined by
+   * <code>joinChar</code>. The lengths are already known to be the same.
+   */
+  private static boolean matches(char[] key, RecordAttributes atts, String joinChar) {
+    int k = 0;
+    for (int i = 0; i < atts.getLength(); i++) {
+      if (i > 0 && joinChar != null) {
+        for (int j = 0; j < joinChar.length(); j++) {
+          if (key[k++] != joinChar.charAt(j)) {
+            return false;
+          }
+        }
+      }
+      final char[] chars = atts.getValueChars(i);
+      final int offset = atts.getValueOffset(i), end = offset + atts.getValueLength(i);
+      for (int j = offset; j < end; j++) {
+        if (key[k++] != chars[j]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the entry of <code>key</code>.
+   * 
+   * @return the value of the entry, or null if there is no such key.
+   */
+  public Object get(String key) {
+    final char[] chars = key.toCharArray();
+    return get(chars, 0, chars.length);
+  }
+
+  /**
+   * Hashes the chars like <code>String.hashCode()</code>, and gets the slot of
+   * the hash.
+   */
+  private int hash(char[] chars, int from, int to) {
+    int hash = 0;
+    for (int i = from; i < to; i++) {
+      hash = 31 * hash + chars[i];
+    }
+    return mix(hash);
+  }
+
+  private int mix(int hash) {
+    return (hash ^ (hash >>> 16)) & this.mask;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * The state of a parsing at the end of a record, kept in a small properties
+ * file next to the output, so a parsing that fails may be resumed from it
+ * instead of from the start of the input. The reader writes the offset of
+ * the next record in the input and the number of records parsed; its
+ * subclass and the content handler add what they need to continue the
+ * document.
+ *
+ * @version $Id$
+ */
+public final class Checkpoint {
+
+  public static final String INPUT_OFFSET = "input.offset";
+
+  public static final String RECORDS = "records";
+
+  private final Properties properties = new Properties();
+
+  /**
+   * Reads the checkpoint written to <code>file</code>.
+   * 
+   * @return the checkpoint, or null if there is no such file.
+   */
+  public static Checkpoint read(File file) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+    final Checkpoint checkpoint = new Checkpoint();
+    final InputStream input = new FileInputStream(file);
+    try {
+      checkpoint.properties.load(input);
+    } finally {
+      input.close();
+    }
+    return checkpoint;
+  }
+
+  /**
+   * Writes this checkpoint to <code>file</code>. It is written to a
+   * temporary file first, and synced to the disk, so the last checkpoint is
+   * kept whole if the process dies while writing.
+   */
+  public void write(File file) throws IOException {
+    final File temp = new File(file.getPath() + ".tmp");
+    final FileOutputStream output = new FileOutputStream(temp);
+    try {
+      this.properties.store(output, "UDD checkpoint");
+      output.getFD().sync();
+    } finally {
+      output.close();
+    }
+    if (!temp.renameTo(file) && (!file.delete() || !temp.renameTo(file))) {
+      throw new IOException("Could not replace " + file);
+    }
+  }
+
+  /**
+   * @return the value of <code>key</code>, or null if it was not set.
+   */
+  public String get(String key) {
+    return this.properties.getProperty(key);
+  }
+
+  /**
+   * @throws IllegalArgumentException
+   *           if <code>key</code> was not set, or is not a number.
+   */
+  public long getLong(String key) {
+    final String value = get(key);
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid checkpoint " + key + ": " + value);
+    }
+  }
+
+  public void set(String key, String value) {
+    this.properties.setProperty(key, value);
+  }
+
+  public void set(String key, long value) {
+    set(key, String.valueOf(value));
+  }
+}
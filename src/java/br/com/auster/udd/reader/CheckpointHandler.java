@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * A content handler whose output may be checkpointed by the readers, and
+ * continued later from a checkpoint, after the events of the records parsed
+ * before it.
+ *
+ * @version $Id$
+ */
+public interface CheckpointHandler extends ContentHandler {
+
+  /**
+   * The number of bytes of the output written until the checkpoint. The
+   * output must be cut at this position before it is resumed.
+   */
+  public static final String OUTPUT_POSITION = "output.position";
+
+  /**
+   * Tells if the output can be forced to the disk at each checkpoint, so the
+   * <code>OUTPUT_POSITION</code> saved is never ahead of the bytes on disk.
+   * The readers only take checkpoints when it is true.
+   */
+  public boolean canCheckpoint();
+
+  /**
+   * Writes all the events received so far to the output, forcing them to the
+   * disk before the checkpoint file is written, and adds the state
+   * needed to continue the document to <code>checkpoint</code>, including
+   * the <code>OUTPUT_POSITION</code>.
+   */
+  public void checkpoint(Checkpoint checkpoint) throws SAXException;
+
+  /**
+   * Continues the document written until <code>checkpoint</code>. It is
+   * called instead of <code>startDocument()</code>, and the next events are
+   * appended to the output.
+   */
+  public void resume(Checkpoint checkpoint) throws SAXException;
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import br.com.auster.udd.node.SingleByteCodec;
+
+/**
+ * Decoders for the charsets most used in the input files, that convert the
+ * bytes with plain loops instead of the general charset decoders:
+ * <ul>
+ * <li>ISO-8859-1 and US-ASCII: each byte is widened to a char;</li>
+ * <li>other single byte charsets: each byte is converted with the table of
+ * <code>SingleByteCodec</code>;</li>
+ * <li>UTF-8: runs of ASCII bytes are widened, and only the other bytes are
+ * given to the UTF-8 decoder.</li>
+ * </ul>
+ * Just like the decoders created by <code>FlatNIOReader</code>, malformed and
+ * unmappable bytes are ignored.
+ *
+ * @version $Id$
+ */
+public abstract class FastCharsetDecoder extends CharsetDecoder {
+
+  // the bytes of direct buffers are copied to a scratch array before decoding
+  private static final int SCRATCH_SIZE = 4096;
+
+  private byte[] scratch;
+
+  private char[] charScratch;
+
+  protected FastCharsetDecoder(Charset charset, float averageCharsPerByte,
+                               float maxCharsPerByte) {
+    super(charset, averageCharsPerByte, maxCharsPerByte);
+  }
+
+  /**
+   * Creates a fast decoder for <code>charset</code>.
+   *
+   * @return the decoder, or null if there is no fast decoder for this charset.
+   */
+  public static final CharsetDecoder forCharset(Charset charset) {
+    final String name = charset.name();
+    if ("ISO-8859-1".equals(name)) {
+      return new WideningDecoder(charset, 0xFF);
+    } else if ("US-ASCII".equals(name)) {
+      return new WideningDecoder(charset, 0x7F);
+    } else if ("UTF-8".equals(name)) {
+      return new UTF8Decoder(charset);
+    }
+    final char[] table = SingleByteCodec.getDecodingTable(charset);
+    return (table == null ? null : new TableDecoder(charset, table));
+  }
+
+  /**
+   * Gets the scratch array, used to copy the bytes of buffers that are not
+   * backed by an array.
+   */
+  protected final byte[] getScratch() {
+    if (this.scratch == null) {
+      this.scratch = new byte[SCRATCH_SIZE];
+    }
+    return this.scratch;
+  }
+
+  /**
+   * Gets the scratch array, used to write to buffers that are not backed by
+   * an array.
+   */
+  protected final char[] getCharScratch() {
+    if (this.charScratch == null) {
+      this.charScratch = new char[SCRATCH_SIZE];
+    }
+    return this.charScratch;
+  }
+
+  /**
+   * Converts each byte to a char using a table. A single byte becomes a single
+   * char, so the decoding is limited only by the room left in the buffers.
+   */
+  private abstract static class SingleByteDecoder extends FastCharsetDecoder {
+
+    protected SingleByteDecoder(Charset charset) {
+      super(charset, 1, 1);
+    }
+
+    /**
+     * Converts <code>length</code> bytes of <code>in</code>, starting at
+     * <code>inOffset</code>, to the chars of <code>out</code>.
+     *
+     * @return the number of chars written.
+     */
+    protected abstract int convert(byte[] in, int inOffset, int length, char[] out, int outOffset);
+
+    protected final CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
+      while (in.hasRemaining()) {
+        if (!out.hasRemaining()) {
+          return CoderResult.OVERFLOW;
+        }
+        int length = Math.min(in.remaining(), out.remaining());
+        final byte[] bytes;
+        final int bytesOffset;
+        if (in.hasArray()) {
+          bytes = in.array();
+          bytesOffset = in.arrayOffset() + in.position();
+        } else {
+          bytes = getScratch();
+          bytesOffset = 0;
+          length = Math.min(length, bytes.length);
+          in.duplicate().get(bytes, 0, length);
+        }
+        final int written;
+        if (out.hasArray()) {
+          written = convert(bytes, bytesOffset, length, out.array(),
+                            out.arrayOffset() + out.position());
+          out.position(out.position() + written);
+        } else {
+          final char[] chars = getCharScratch();
+          length = Math.min(length, chars.length);
+          written = convert(bytes, bytesOffset, length, chars, 0);
+          out.put(chars, 0, written);
+        }
+        in.position(in.position() + length);
+      }
+      return CoderResult.UNDERFLOW;
+    }
+  }
+
+  /**
+   * Widens each byte to a char. Bytes above <code>maxByte</code> are not
+   * mapped, and are ignored.
+   */
+  private static final class WideningDecoder extends SingleByteDecoder {
+
+    private final int maxByte;
+
+    public WideningDecoder(Charset charset, int maxByte) {
+      super(charset);
+      this.maxByte = maxByte;
+    }
+
+    protected int convert(byte[] in, int inOffset, int length, char[] out, int outOffset) {
+      final int start = outOffset;
+      final int end = inOffset + length;
+      if (this.maxByte == 0xFF) {
+        for (int i = inOffset; i < end; i++) {
+          out[outOffset++] = (char) (in[i] & 0xFF);
+        }
+      } else {
+        for (int i = inOffset; i < end; i++) {
+          final int b = in[i] & 0xFF;
+          if (b <= this.maxByte) {
+            out[outOffset++] = (char) b;
+          }
+        }
+      }
+      return outOffset - start;
+    }
+  }
+
+  /**
+   * Converts each byte with a table built from the charset decoder.
+   */
+  private static final class TableDecoder extends SingleByteDecoder {
+
+    private final char[] table;
+
+    private final boolean hasUnmapped;
+
+    public TableDecoder(Charset charset, char[] table) {
+      super(charset);
+      this.table = table;
+      boolean unmapped = false;
+      for (int b = 0; b < table.length; b++) {
+        unmapped |= (table[b] == SingleByteCodec.UNMAPPED);
+      }
+      this.hasUnmapped = unmapped;
+    }
+
+    protected int convert(byte[] in, int inOffset, int length, char[] out, int outOffset) {
+      final int start = outOffset;
+      final int end = inOffset + length;
+      if (!this.hasUnmapped) {
+        for (int i = inOffset; i < end; i++) {
+          out[outOffset++] = this.table[in[i] & 0xFF];
+        }
+      } else {
+        for (int i = inOffset; i < end; i++) {
+          final char c = this.table[in[i] & 0xFF];
+          if (c != SingleByteCodec.UNMAPPED) {
+            out[outOffset++] = c;
+          }
+        }
+      }
+      return outOffset - start;
+    }
+  }
+
+  /**
+   * Copies the runs of ASCII bytes directly, and decodes the other bytes with
+   * the UTF-8 decoder.
+   */
+  private static final class UTF8Decoder extends FastCharsetDecoder {
+
+    private final CharsetDecoder decoder;
+
+    public UTF8Decoder(Charset charset) {
+      super(charset, 1, 1);
+      this.decoder = charset.newDecoder();
+      this.decoder.onMalformedInput(CodingErrorAction.IGNORE);
+      this.decoder.onUnmappableCharacter(CodingErrorAction.IGNORE);
+    }
+
+    protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
+      while (in.hasRemaining()) {
+        if (!out.hasRemaining()) {
+          return CoderResult.OVERFLOW;
+        }
+        copyASCII(in, out);
+        if (!in.hasRemaining() || !out.hasRemaining()) {
+          continue;
+        }
+
+        // decodes the non ASCII bytes up to the next ASCII byte, including
+        // it, so incomplete sequences followed by it are found as malformed
+        int end = in.position();
+        while (end < in.limit() && in.get(end) < 0) {
+          end++;
+        }
+        final ByteBuffer sequence = in.duplicate();
+        sequence.limit(Math.min(end + 1, in.limit()));
+        final CoderResult result = this.decoder.decode(sequence, out, false);
+        in.position(sequence.position());
+        if (result.isOverflow()) {
+          return result;
+        } else if (sequence.hasRemaining()) {
+          // an incomplete sequence at the end of the input
+          return CoderResult.UNDERFLOW;
+        }
+      }
+      return CoderResult.UNDERFLOW;
+    }
+
+    /**
+     * Copies the ASCII bytes at the start of <code>in</code>.
+     */
+    private final void copyASCII(ByteBuffer in, CharBuffer out) {
+      final int length = Math.min(in.remaining(), out.remaining());
+      if (in.hasArray() && out.hasArray()) {
+        final byte[] bytes = in.array();
+        final char[] chars = out.array();
+        final int start = in.arrayOffset() + in.position();
+        final int end = start + length;
+        int charOffset = out.arrayOffset() + out.position();
+        int i = start;
+        for (; i < end && bytes[i] >= 0; i++) {
+          chars[charOffset++] = (char) bytes[i];
+        }
+        in.position(in.position() + (i - start));
+        out.position(out.position() + (i - start));
+      } else {
+        final int start = in.position();
+        final int end = start + length;
+        int i = start;
+        for (byte b; i < end && (b = in.get(i)) >= 0; i++) {
+          out.put((char) b);
+        }
+        in.position(i);
+      }
+    }
+
+    protected void implReset() {
+      this.decoder.reset();
+    }
+  }
+}
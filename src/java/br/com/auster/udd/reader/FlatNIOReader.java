@@ -17,16 +17,30 @@
  */
 package br.com.auster.udd.reader;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
 import java.security.GeneralSecurityException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -43,22 +57,109 @@ import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.XMLReader;
 
-import br.com.auster.common.io.NIOBufferUtils;
 import br.com.auster.common.io.NIOUtils;
 import br.com.auster.common.util.I18n;
 import br.com.auster.common.xml.DOMUtils;
 import br.com.auster.common.xml.sax.NIOInputSource;
+import br.com.auster.udd.node.SingleByteCodec;
+import br.com.auster.udd.node.TokenScanner;
 
 /**
  * This class is used to read data from input and send SAX events related to
  * these data to the content handler. It will separate records read by a
  * separator or by a fixed record length. The abstract method
  * <code>processRecord</code> will process the records found.
+ * <p>
+ * When the <code>memory-mapped</code> attribute of the <code>xml-reader</code>
+ * element is set to true and the input is a file, the input will be mapped
+ * into memory in windows of <code>map-window-size</code> bytes (64MB by
+ * default), which are decoded directly instead of being copied to the read
+ * buffer.
+ * </p>
+ * <p>
+ * Subclasses that can process records in any thread (see
+ * <code>isParallelCapable()</code>) may also parse files in parallel, when
+ * the <code>parallel-workers</code> attribute of the <code>xml-reader</code>
+ * element is greater than one. The file is cut in chunks of about
+ * <code>parallel-chunk-size</code> bytes (4MB by default), always right after
+ * a separator that is not escaped or, for fixed length records in single byte
+ * charsets, at a multiple of the record length. Each chunk is read with
+ * positional reads and parsed by one of the workers. The SAX events of each
+ * chunk are sent to the content handler in the file order, and at most
+ * <code>parallel-window</code> chunks (twice the number of workers by
+ * default) are kept in memory at any time.
+ * </p>
+ * <p>
+ * For single byte charsets where every byte is a char, like ISO-8859-1,
+ * subclasses that support it (see <code>isByteCapable()</code>) parse the
+ * records directly from the input bytes: the records are not decoded nor
+ * copied, and only the values sent to the content handler are converted to
+ * chars. It may be turned off with <code>byte-engine="false"</code> in the
+ * <code>xml-reader</code> element.
+ * </p>
+ * <p>
+ * The layouts parsed from the <code>udd-path</code> files are kept in the
+ * <code>LayoutCache</code> by the subclasses that support it (see
+ * <code>getLayout()</code>), so the next readers of the same file do not
+ * parse it again.
+ * </p>
+ * <p>
+ * With <code>udd-snapshot="true"</code> in the <code>xml-reader</code>
+ * element, the elements of the UDD file are also written to a binary
+ * <code>LayoutSnapshot</code> next to it. The readers of the next processes
+ * load the snapshot instead of parsing the XML, as long as the UDD file does
+ * not change. Encrypted UDD files have no snapshots.
+ * </p>
+ * <p>
+ * With <code>metrics="true"</code>, the readers count the bytes read and
+ * decoded, the records and the buffer refills in the
+ * <code>ReaderMetrics</code> of their UDD file, published by JMX. With
+ * <code>metrics-file</code>, the counters are also written to that file every
+ * <code>metrics-interval</code> seconds (60 by default).
+ * </p>
+ * <p>
+ * Inputs compressed with gzip, or zip files, are inflated by a producer
+ * thread while the records are parsed (see <code>InflatingChannel</code>).
+ * The <code>compression</code> attribute may be <code>gzip</code>,
+ * <code>zip</code>, <code>none</code> or <code>auto</code> (the default),
+ * which finds the compression of files by their first bytes; other channels
+ * are only inflated if the compression is given. The first file of a zip is
+ * read, unless another one is given by <code>zip-entry</code>. Compressed
+ * inputs are never mapped into memory nor parsed in parallel.
+ * </p>
+ * <p>
+ * With <code>pipelined="true"</code>, and a single parallel worker, a single
+ * input is parsed by a pipeline of threads: the input is read ahead by one,
+ * decoded and split in records by another, the records are processed by a
+ * third one, and their SAX events are sent to the content handler by the
+ * thread that called <code>parse()</code>. The stages hand reused buffers to
+ * each other through lock-free rings of <code>pipeline-depth</code> buffers
+ * (4 by default), so the memory is bounded and the events keep the file
+ * order.
+ * </p>
+ * <p>
+ * With <code>checkpoint-file</code>, the state of the parsing is written to
+ * that file every <code>checkpoint-records</code> records (100000 by
+ * default) or <code>checkpoint-bytes</code> bytes of input, whichever comes
+ * first (see <code>Checkpoint</code>). A reader with the
+ * <code>RESUME_FEATURE</code> set continues the next document from the last
+ * checkpoint, seeking the input to the record after it, and deletes the
+ * checkpoint when the document ends. Checkpoints are only taken when the input
+ * is an uncompressed file in a single byte charset, so the record boundaries
+ * are input offsets, and the content handler is a
+ * <code>CheckpointHandler</code>; such inputs are always parsed sequentially.
+ * </p>
  * 
  * @version $Id: FlatNIOReader.java 44 2006-09-18 19:54:56Z rbarone $
  */
 public abstract class FlatNIOReader implements XMLReader {
 
+  /**
+   * The feature that makes the reader continue the documents from their last
+   * checkpoint, when there is one.
+   */
+  public static final String RESUME_FEATURE = "http://www.auster.com.br/udd/features/resume";
+
   protected static final String UDD_PATH_ATTR = "udd-path";
 
   protected static final String ENCRYPTED_ATTR = "encrypted";
@@ -75,8 +176,68 @@ public abstract class FlatNIOReader implements XMLReader {
 
   protected static final String LENGTH_CHAR_ATTR = "record-length";
 
+  protected static final String MEMORY_MAPPED_ATTR = "memory-mapped";
+
+  protected static final String MAP_WINDOW_SIZE_ATTR = "map-window-size";
+
+  protected static final String PARALLEL_WORKERS_ATTR = "parallel-workers";
+
+  protected static final String PARALLEL_CHUNK_SIZE_ATTR = "parallel-chunk-size";
+
+  protected static final String PARALLEL_WINDOW_ATTR = "parallel-window";
+
+  protected static final String BYTE_ENGINE_ATTR = "byte-engine";
+
+  protected static final String UDD_SNAPSHOT_ATTR = "udd-snapshot";
+
+  protected static final String METRICS_ATTR = "metrics";
+
+  protected static final String METRICS_FILE_ATTR = "metrics-file";
+
+  protected static final String METRICS_INTERVAL_ATTR = "metrics-interval";
+
+  protected static final String COMPRESSION_ATTR = "compression";
+
+  protected static final String ZIP_ENTRY_ATTR = "zip-entry";
+
+  protected static final String INFLATE_BUFFERS_ATTR = "inflate-buffers";
+
+  protected static final String PIPELINED_ATTR = "pipelined";
+
+  protected static final String PIPELINE_DEPTH_ATTR = "pipeline-depth";
+
+  protected static final String CHECKPOINT_FILE_ATTR = "checkpoint-file";
+
+  protected static final String CHECKPOINT_RECORDS_ATTR = "checkpoint-records";
+
+  protected static final String CHECKPOINT_BYTES_ATTR = "checkpoint-bytes";
+
   protected static final int END_OF_BUFFER = -1;
 
+  protected static final int DEFAULT_MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  // smaller windows would not be able to hold a few multi-byte chars
+  private static final int MIN_MAP_WINDOW_SIZE = 1024;
+
+  protected static final int DEFAULT_PARALLEL_CHUNK_SIZE = 4 * 1024 * 1024;
+
+  // bytes read at a time while looking for the end of a chunk
+  private static final int CHUNK_SCAN_SIZE = 8192;
+
+  // seconds an idle worker waits for a new task
+  private static final long WORKER_KEEP_ALIVE = 30;
+
+  // the batches of records and of SAX events in each stage of the pipeline
+  protected static final int DEFAULT_PIPELINE_DEPTH = 4;
+
+  // sent by each stage of the pipeline after its last batch
+  private static final Object END_OF_PIPELINE = new Object();
+
+  // seconds between the snapshots of the metrics
+  protected static final int DEFAULT_METRICS_INTERVAL = 60;
+
+  protected static final int DEFAULT_CHECKPOINT_RECORDS = 100000;
+
   // Instance variables
   protected ContentHandler handler;
 
@@ -86,17 +247,75 @@ public abstract class FlatNIOReader implements XMLReader {
 
   protected ErrorHandler errorHandler;
 
+  protected final Charset charset;
+
   protected final CharsetDecoder decoder;
 
   protected final ByteBuffer bb;
 
   protected final CharBuffer cbRecord, cbToProcess;
 
+  // the byte engine codec and the bytes of the incomplete record, or null if
+  // the records are decoded before being processed
+  protected final SingleByteCodec codec;
+
+  protected final ByteBuffer bbToProcess;
+
+  // the largest record, in bytes for the chunks parsed in parallel
+  private final int maxRecordSize;
+
   protected char separateChar, escapeChar;
   
   private final boolean isEscapeDefined;
 
   protected int length;
+
+  protected final boolean isMemoryMapped;
+
+  protected final int mapWindowSize;
+
+  protected final int parallelWorkers, parallelChunkSize, parallelWindow;
+
+  // the separator and escape chars as they appear in the input bytes,
+  // or -1 if they cannot be searched for without decoding the input
+  private final int separatorByte, escapeByte;
+
+  // true if every char is encoded as exactly one byte
+  private final boolean isSingleByteCharset;
+
+  // the counters of the readers of the same UDD, or null if not counting
+  protected final ReaderMetrics metrics;
+
+  // the compression of the inputs and the zip entry to read from them
+  private final String compression, zipEntry;
+
+  // the buffers inflated ahead of the parsing
+  private final int inflateBuffers;
+
+  protected final boolean isPipelined;
+
+  protected final int pipelineDepth;
+
+  // while parsing in a pipeline, the stages the records found are sent to
+  private Pipeline pipeline;
+
+  // the file the checkpoints are written to, or null if not checkpointing
+  private final File checkpointFile;
+
+  // the records and the bytes between two checkpoints, or 0 if not counted
+  private final int checkpointRecords;
+
+  private final long checkpointBytes;
+
+  // true if the documents are continued from their last checkpoints
+  private boolean isResuming;
+
+  // while taking checkpoints, the content handler that saves its state
+  private CheckpointHandler checkpointHandler;
+
+  // the input offset of the next record and the records parsed, now and at
+  // the last checkpoint
+  private long nextRecordOffset, recordCount, lastCheckpointOffset, lastCheckpointRecords;
   
   private boolean lastOneWasEscape = false;
 
@@ -106,13 +325,64 @@ public abstract class FlatNIOReader implements XMLReader {
 
   public FlatNIOReader(Element config) throws ParserConfigurationException, SAXException,
       IOException {
-    // Creates the UDD DOM tree
+    // Input mode is defined by the xml-reader element, not by the UDD file
+    this.isMemoryMapped = DOMUtils.getBooleanAttribute(config, MEMORY_MAPPED_ATTR);
+    this.mapWindowSize = Math.max(getIntAttribute(config, 
+                                                  MAP_WINDOW_SIZE_ATTR, 
+                                                  DEFAULT_MAP_WINDOW_SIZE),
+                                  MIN_MAP_WINDOW_SIZE);
+    this.parallelWorkers = getIntAttribute(config, PARALLEL_WORKERS_ATTR, 1);
+    this.parallelChunkSize = Math.max(getIntAttribute(config, 
+                                                      PARALLEL_CHUNK_SIZE_ATTR,
+                                                      DEFAULT_PARALLEL_CHUNK_SIZE),
+                                      CHUNK_SCAN_SIZE);
+    this.parallelWindow = Math.max(getIntAttribute(config, 
+                                                   PARALLEL_WINDOW_ATTR, 
+                                                   2 * this.parallelWorkers),
+                                   this.parallelWorkers);
+    final boolean isByteEngineAllowed = 
+      !"false".equalsIgnoreCase(config.getAttribute(BYTE_ENGINE_ATTR));
+    final boolean isSnapshotWritten = DOMUtils.getBooleanAttribute(config, UDD_SNAPSHOT_ATTR);
+    this.metrics = createMetrics(config);
+    this.compression = (config.getAttribute(COMPRESSION_ATTR).length() > 0 
+                        ? config.getAttribute(COMPRESSION_ATTR).toLowerCase() 
+                        : InflatingChannel.AUTO);
+    this.zipEntry = (config.getAttribute(ZIP_ENTRY_ATTR).length() > 0 
+                     ? config.getAttribute(ZIP_ENTRY_ATTR) : null);
+    this.inflateBuffers = getIntAttribute(config, INFLATE_BUFFERS_ATTR, 
+                                          ReadAheadChannel.DEFAULT_BUFFERS);
+    // the parallel parsing, when possible, already uses all the workers
+    this.isPipelined = (DOMUtils.getBooleanAttribute(config, PIPELINED_ATTR) 
+                        && this.parallelWorkers <= 1);
+    this.pipelineDepth = Math.max(getIntAttribute(config, 
+                                                  PIPELINE_DEPTH_ATTR, 
+                                                  DEFAULT_PIPELINE_DEPTH), 
+                                  2);
+    this.checkpointFile = (config.getAttribute(CHECKPOINT_FILE_ATTR).length() > 0 
+                           ? new File(config.getAttribute(CHECKPOINT_FILE_ATTR)) : null);
+    this.checkpointRecords = getIntAttribute(config, 
+                                             CHECKPOINT_RECORDS_ATTR, 
+                                             DEFAULT_CHECKPOINT_RECORDS);
+    this.checkpointBytes = (config.getAttribute(CHECKPOINT_BYTES_ATTR).length() > 0 
+                            ? Long.parseLong(config.getAttribute(CHECKPOINT_BYTES_ATTR)) : 0);
+
+    // Creates the UDD DOM tree, unless its layout was already parsed by
+    // another reader of this class
     String uddFileName = null;
+    boolean isEncrypted = false, isUDDOpened = false, isLayoutRejected = false;
+    LayoutCache.Entry cached = null;
     try {
       uddFileName = DOMUtils.getAttribute(config, UDD_PATH_ATTR, true);
-      final boolean isEncrypted = 
-        DOMUtils.getBooleanAttribute(config, ENCRYPTED_ATTR, true);
-      config = DOMUtils.openDocument(uddFileName, isEncrypted);
+      isEncrypted = DOMUtils.getBooleanAttribute(config, ENCRYPTED_ATTR, true);
+      cached = LayoutCache.getInstance().get(this.getClass(), uddFileName, isEncrypted);
+      if (cached != null && !this.setLayout(cached.getLayout())) {
+        // the cache only keeps the attributes of the UDD, so it is opened again
+        cached = null;
+        isLayoutRejected = true;
+      }
+      config = (cached != null ? cached.getSettings() 
+                               : openUDD(uddFileName, isEncrypted, isSnapshotWritten));
+      isUDDOpened = true;
     } catch (IllegalArgumentException e) {
       log.warn(i18n.getString("usingNoUDDFile"));
     } catch (GeneralSecurityException ge) {
@@ -121,22 +391,23 @@ public abstract class FlatNIOReader implements XMLReader {
 
     log.debug("Loading " + this.getClass() + " configuration.");
     // Charset conversion
-    final Charset charset = Charset
-        .forName(DOMUtils.getAttribute(config, ENCODING_FROM_ATTR, true));
+    charset = Charset.forName(DOMUtils.getAttribute(config, ENCODING_FROM_ATTR, true));
+    isSingleByteCharset = isSingleByte(charset);
     
     // Create a decoder from it
-    decoder = charset.newDecoder();
-    decoder.onMalformedInput(CodingErrorAction.IGNORE);
-    decoder.onUnmappableCharacter(CodingErrorAction.IGNORE);
-
-    // Buffer to hold bytes
-    bb = ByteBuffer.allocateDirect(DOMUtils.getIntAttribute(config, BUFFER_SIZE_ATTR, true));
+    decoder = newDecoder();
+    codec = (isByteEngineAllowed ? SingleByteCodec.forCharset(charset) : null);
+
+    // Buffer to hold bytes (the byte engine reads them from the array)
+    final int bufferSize = DOMUtils.getIntAttribute(config, BUFFER_SIZE_ATTR, true);
+    bb = (codec == null ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize));
+    maxRecordSize = DOMUtils.getIntAttribute(config, MAX_LINE_SIZE_ATTR, true);
+    bbToProcess = (codec == null ? null : ByteBuffer.allocate(maxRecordSize));
     // Buffer to hold characters
     final int averageCharsPerByte = Math.round(decoder.averageCharsPerByte()) + 1;
     cbRecord = CharBuffer.allocate(DOMUtils.getIntAttribute(config, BUFFER_SIZE_ATTR, true)
                                    * averageCharsPerByte);
-    cbToProcess = CharBuffer.allocate(DOMUtils.getIntAttribute(config, MAX_LINE_SIZE_ATTR, true)
-                                      * averageCharsPerByte);
+    cbToProcess = CharBuffer.allocate(maxRecordSize * averageCharsPerByte);
 
     final String separator = config.getAttribute(SEPARATOR_CHAR_ATTR);
     final String length = config.getAttribute(LENGTH_CHAR_ATTR);
@@ -156,10 +427,78 @@ public abstract class FlatNIOReader implements XMLReader {
     } else {
     	this.isEscapeDefined = false;
     }
+    this.separatorByte = toSingleByte(this.separateChar);
+    this.escapeByte = toSingleByte(this.escapeChar);
 
     // Parses the config
-    log.debug("Parsing the UDD configuration from file " + uddFileName);
-    this.parseUDD(config, uddFileName);
+    if (cached != null) {
+      log.debug("Using the UDD layout already parsed from file " + uddFileName);
+    } else {
+      log.debug("Parsing the UDD configuration from file " + uddFileName);
+      this.parseUDD(config, uddFileName);
+      final Object layout = (isUDDOpened && !isLayoutRejected ? this.getLayout() : null);
+      if (layout != null) {
+        LayoutCache.getInstance().put(this.getClass(), uddFileName, isEncrypted, config, layout);
+      }
+    }
+    if (this.metrics != null) {
+      this.metrics.setSource(this.getMetricsSource());
+    }
+  }
+
+  /**
+   * Gets the metrics of the readers of the same UDD file, if they are turned
+   * on by the <code>xml-reader</code> element, and starts writing their
+   * snapshots if a file is given.
+   * 
+   * @return the metrics, or null if the reader does not count.
+   */
+  private ReaderMetrics createMetrics(Element config) {
+    if (!DOMUtils.getBooleanAttribute(config, METRICS_ATTR)) {
+      return null;
+    }
+    final String uddPath = config.getAttribute(UDD_PATH_ATTR);
+    final ReaderMetrics metrics = 
+      ReaderMetrics.getInstance(uddPath.length() > 0 ? uddPath : this.getClass().getName());
+    final String file = config.getAttribute(METRICS_FILE_ATTR);
+    if (file.length() > 0) {
+      final int interval = getIntAttribute(config, METRICS_INTERVAL_ATTR, DEFAULT_METRICS_INTERVAL);
+      metrics.startSnapshots(new File(file), Math.max(interval, 1) * 1000L);
+    }
+    return metrics;
+  }
+
+  /**
+   * Gets the counters of the layout parsed by <code>parseUDD()</code>, added
+   * to the metrics of the reader.
+   * 
+   * @return null, so no counters are added. Subclasses may override it.
+   */
+  protected ReaderMetrics.Source getMetricsSource() {
+    return null;
+  }
+
+  /**
+   * Opens the UDD file, from its snapshot if there is an up to date one.
+   * 
+   * @param isSnapshotWritten
+   *          true if the snapshot is written when the UDD file is parsed.
+   */
+  private Element openUDD(String uddFileName, boolean isEncrypted, boolean isSnapshotWritten)
+      throws ParserConfigurationException, SAXException, IOException,
+      GeneralSecurityException {
+    if (!isEncrypted) {
+      final Element uddConf = LayoutSnapshot.load(uddFileName);
+      if (uddConf != null) {
+        log.debug("Using the UDD snapshot of file " + uddFileName);
+        return uddConf;
+      }
+    }
+    final Element uddConf = DOMUtils.openDocument(uddFileName, isEncrypted);
+    if (!isEncrypted && isSnapshotWritten) {
+      LayoutSnapshot.write(uddFileName, uddConf);
+    }
+    return uddConf;
   }
 
   /**
@@ -173,6 +512,33 @@ public abstract class FlatNIOReader implements XMLReader {
    */
   protected abstract void parseUDD(Element uddConf, String uddFileName) throws SAXException;
 
+  /**
+   * Gets the layout parsed by <code>parseUDD()</code>, to be kept in the
+   * <code>LayoutCache</code>. The next readers of this class created for the
+   * same UDD file use it with <code>setLayout()</code>, instead of parsing
+   * the file again. The layout must be immutable, and may be used by several
+   * readers at the same time.
+   * 
+   * @return null, so the layouts are not cached. Subclasses must override it
+   *         to cache them.
+   */
+  protected Object getLayout() {
+    return null;
+  }
+
+  /**
+   * Uses a layout returned by <code>getLayout()</code>, instead of calling
+   * <code>parseUDD()</code>. Only called if <code>getLayout()</code> returns
+   * the layouts.
+   * 
+   * @return true if the layout is used. The default is false, so the UDD is
+   *         parsed by <code>parseUDD()</code>: subclasses that override
+   *         <code>getLayout()</code> must override it too.
+   */
+  protected boolean setLayout(Object layout) {
+    return false;
+  }
+
   /**
    * Process a record found.
    * 
@@ -183,6 +549,87 @@ public abstract class FlatNIOReader implements XMLReader {
    */
   protected abstract void processRecord(ContentHandler handler, CharBuffer cb) throws SAXException;
 
+  /**
+   * Calls <code>processRecord()</code>, counting the record in the metrics.
+   */
+  private final void dispatchRecord(ContentHandler handler, CharBuffer record)
+      throws SAXException {
+    if (this.metrics != null && record.hasRemaining()) {
+      this.metrics.addRecord();
+    }
+    if (this.pipeline != null) {
+      this.pipeline.add(record);
+    } else if (this.checkpointHandler != null) {
+      final int size = record.remaining();
+      processRecord(handler, record);
+      countCheckpoint(size);
+    } else {
+      processRecord(handler, record);
+    }
+  }
+
+  /**
+   * The same as <code>dispatchRecord(ContentHandler, CharBuffer)</code>, for
+   * the bytes of a record.
+   */
+  private final void dispatchRecord(ContentHandler handler, ByteBuffer record)
+      throws SAXException {
+    if (this.metrics != null && record.hasRemaining()) {
+      this.metrics.addRecord();
+    }
+    if (this.pipeline != null) {
+      this.pipeline.add(record);
+    } else if (this.checkpointHandler != null) {
+      final int size = record.remaining();
+      processRecord(handler, record);
+      countCheckpoint(size);
+    } else {
+      processRecord(handler, record);
+    }
+  }
+
+  /**
+   * Counts a record of <code>size</code> chars, which are also its bytes, and
+   * takes a checkpoint after it if the records or the bytes since the last
+   * one reached their limits.
+   */
+  private final void countCheckpoint(int size) throws SAXException {
+    this.nextRecordOffset += (this.separateChar != '\0' ? size + 1 : size);
+    this.recordCount++;
+    if ((this.checkpointRecords > 0 
+         && this.recordCount - this.lastCheckpointRecords >= this.checkpointRecords)
+        || (this.checkpointBytes > 0 
+            && this.nextRecordOffset - this.lastCheckpointOffset >= this.checkpointBytes)) {
+      final Checkpoint checkpoint = new Checkpoint();
+      checkpoint.set(Checkpoint.INPUT_OFFSET, this.nextRecordOffset);
+      checkpoint.set(Checkpoint.RECORDS, this.recordCount);
+      this.saveCheckpoint(checkpoint);
+      this.checkpointHandler.checkpoint(checkpoint);
+      try {
+        checkpoint.write(this.checkpointFile);
+      } catch (IOException e) {
+        throw new SAXException(e);
+      }
+      this.lastCheckpointOffset = this.nextRecordOffset;
+      this.lastCheckpointRecords = this.recordCount;
+    }
+  }
+
+  /**
+   * Process a record found by the byte engine. Only called when
+   * <code>isByteCapable()</code> is true. The default implementation decodes
+   * the record and calls <code>processRecord(ContentHandler, CharBuffer)</code>.
+   * 
+   * @param handler
+   *          the content handler used to output the SAX events.
+   * @param record
+   *          the bytes of the record, starting at position 0. It is valid only
+   *          during this call.
+   */
+  protected void processRecord(ContentHandler handler, ByteBuffer record) throws SAXException {
+    this.processRecord(handler, CharBuffer.wrap(this.codec.toChars(record)));
+  }
+
   /**
    * Method called at the beginning of the document, after a call to
    * <code>handler.startDocument()</code>.
@@ -201,6 +648,75 @@ public abstract class FlatNIOReader implements XMLReader {
    */
   protected abstract void endDocument(ContentHandler handler) throws SAXException;
 
+  /**
+   * Method called when the parsing of the document fails, before
+   * <code>endDocument()</code> was called, so the resources taken by
+   * <code>startDocument()</code> are released. It may also be called when
+   * <code>startDocument()</code> was not. The default implementation does
+   * nothing.
+   */
+  protected void abortDocument() {
+  }
+
+  /**
+   * Adds the state kept by this reader between records to
+   * <code>checkpoint</code>, which is taken right after a record was
+   * processed. The default implementation adds nothing.
+   */
+  protected void saveCheckpoint(Checkpoint checkpoint) throws SAXException {
+  }
+
+  /**
+   * Method called instead of <code>startDocument()</code> when the document
+   * is continued from <code>checkpoint</code>, after a call to
+   * <code>handler.resume()</code>. It restores the state saved by
+   * <code>saveCheckpoint()</code>. The default implementation does nothing.
+   * 
+   * @param handler
+   *          the content handler used to output the SAX events.
+   */
+  protected void resumeDocument(ContentHandler handler, Checkpoint checkpoint)
+      throws SAXException {
+  }
+
+  /**
+   * Tells if the state of this reader between records may be saved in
+   * checkpoints. The default is true.
+   */
+  protected boolean isCheckpointCapable() {
+    return true;
+  }
+
+  /**
+   * Tells if <code>processRecord()</code> may be called by several threads at
+   * the same time, each one with its own content handler. Only readers that
+   * keep no state between records should return true.
+   * 
+   * @return false. Subclasses must override it to allow parallel parsing.
+   */
+  protected boolean isParallelCapable() {
+    return false;
+  }
+
+  /**
+   * Tells if this reader processes the records of single byte charsets
+   * directly from the input bytes, with
+   * <code>processRecord(ContentHandler, ByteBuffer)</code>. The default is
+   * false.
+   */
+  protected boolean isByteCapable() {
+    return false;
+  }
+
+  /**
+   * Tells if the records are processed by the byte engine.
+   */
+  private final boolean isByteEngine() {
+    return (this.codec != null && isByteCapable()
+            && (this.separateChar == '\0' 
+                || (this.separatorByte >= 0 && (!this.isEscapeDefined || this.escapeByte >= 0))));
+  }
+
   /**
    * Runs the parser itself
    */
@@ -209,28 +725,190 @@ public abstract class FlatNIOReader implements XMLReader {
     decoder.reset();
     bb.clear();
     cbToProcess.clear();
+    if (bbToProcess != null) {
+      bbToProcess.clear();
+    }
     this.lastOneWasEscape = false;
 
-    // Get an efficient reader for the file
-    final ReadableByteChannel input = ((NIOInputSource) inputSource).getReadableByteChannel();
-
     // Read the file and display it's contents.
     if (handler == null) {
       throw new SAXException(i18n.getString("noCH"));
     }
 
-    // Note: We're ignoring setDocumentLocator(), as well
-    handler.startDocument();
-    this.startDocument(this.handler);
+    // Get an efficient reader for the file, inflating it if compressed
+    final ReadableByteChannel source = ((NIOInputSource) inputSource).getReadableByteChannel();
+    final ReadableByteChannel input = openInput(source);
+    final long start = (this.metrics == null ? 0 : this.metrics.startParse());
+    boolean isEnding = false;
+    try {
+      final boolean isCheckpointed = canTakeCheckpoints(input);
+      final Checkpoint resumed = (this.isResuming ? resume(input, isCheckpointed) : null);
+      if (resumed == null) {
+        // Note: We're ignoring setDocumentLocator(), as well
+        handler.startDocument();
+        this.startDocument(this.handler);
+      }
 
-    if (this.separateChar != '\0') {
-      this.separateUsingSeparator(input);
-    } else if (this.length > 0) {
-      this.separateUsingSubstring(input);
+      if (this.separateChar == '\0' && this.length <= 0) {
+        throw new SAXException(i18n.getString("noRecordLS"));
+      } else if (isCheckpointed) {
+        this.separateWithCheckpoints((FileChannel) input, resumed);
+      } else if (canParseInParallel(input)) {
+        this.separateInParallel((FileChannel) input);
+      } else if (this.isPipelined) {
+        this.separateInPipeline(input);
+      } else {
+        this.separate(input);
+      }
+
+      isEnding = true;
+      this.endDocument(this.handler);
+      this.handler.endDocument();
+      if (isCheckpointed && this.checkpointFile.exists() && !this.checkpointFile.delete()) {
+        log.warn("Could not delete the checkpoint " + this.checkpointFile);
+      }
+    } finally {
+      if (!isEnding) {
+        this.abortDocument();
+      }
+      if (this.metrics != null) {
+        this.metrics.endParse(start);
+      }
+      if (input != source) {
+        input.close();
+      }
+    }
+  }
+
+  /**
+   * Finds all the records of <code>input</code>, in the current thread, and
+   * sends them to <code>dispatchRecord()</code>.
+   */
+  private final void separate(ReadableByteChannel input) throws IOException, SAXException {
+    if (isByteEngine()) {
+      if (this.isMemoryMapped && input instanceof FileChannel) {
+        this.separateBytesUsingMappedWindows((FileChannel) input);
+      } else {
+        for (int read; (read = NIOUtils.read(input, this.bb)) > 0;) {
+          countRead(read);
+          splitBytes(this.handler, this.bb, this.bbToProcess);
+          this.bb.clear();
+        }
+      }
+      // the last record has no separator, so there is no checkpoint after it
+      this.checkpointHandler = null;
+      this.bbToProcess.flip();
+      this.dispatchRecord(this.handler, this.bbToProcess);
     } else {
-      throw new SAXException(i18n.getString("noRecordLS"));
+      if (this.isMemoryMapped && input instanceof FileChannel) {
+        this.separateUsingMappedWindows((FileChannel) input);
+      } else if (this.separateChar != '\0') {
+        this.separateUsingSeparator(input);
+      } else {
+        this.separateUsingSubstring(input);
+      }
+      this.checkpointHandler = null;
+      this.processLastRecord();
     }
+  }
 
+  /**
+   * The same as <code>separate()</code>, taking checkpoints after the records
+   * found, starting at the current position of <code>input</code>.
+   * 
+   * @param resumed
+   *          the checkpoint the document was continued from, or null if it
+   *          was started now.
+   */
+  private final void separateWithCheckpoints(FileChannel input, Checkpoint resumed)
+      throws IOException, SAXException {
+    this.nextRecordOffset = input.position();
+    this.recordCount = (resumed == null ? 0 : resumed.getLong(Checkpoint.RECORDS));
+    this.lastCheckpointOffset = this.nextRecordOffset;
+    this.lastCheckpointRecords = this.recordCount;
+    this.checkpointHandler = (CheckpointHandler) this.handler;
+    try {
+      this.separate(input);
+    } finally {
+      this.checkpointHandler = null;
+    }
+  }
+
+  /**
+   * Tells if checkpoints may be taken while parsing <code>input</code>: the
+   * offset of each record is only known in uncompressed files of single byte
+   * charsets, and parsed sequentially.
+   */
+  private final boolean canTakeCheckpoints(ReadableByteChannel input) {
+    if (this.checkpointFile == null) {
+      return false;
+    } else if (!(input instanceof FileChannel)) {
+      log.warn("No checkpoints for inputs that are not uncompressed files");
+    } else if (SingleByteCodec.forCharset(this.charset) == null) {
+      log.warn("No checkpoints for the charset " + this.charset.name());
+    } else if (!(this.handler instanceof CheckpointHandler) 
+               || !((CheckpointHandler) this.handler).canCheckpoint()) {
+      log.warn("No checkpoints for the content handler " + this.handler.getClass().getName());
+    } else if (!isCheckpointCapable()) {
+      log.warn("No checkpoints for the configuration of " + this.getClass().getName());
+    } else {
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Continues the document from the last checkpoint, seeking
+   * <code>input</code> to the record after it.
+   * 
+   * @return the checkpoint, or null if there is none and the document must be
+   *         started.
+   */
+  private final Checkpoint resume(ReadableByteChannel input, boolean isCheckpointed)
+      throws IOException, SAXException {
+    if (!isCheckpointed) {
+      throw new SAXException("Cannot resume a document without checkpoints");
+    }
+    final Checkpoint checkpoint = Checkpoint.read(this.checkpointFile);
+    if (checkpoint == null) {
+      log.info("No checkpoint in " + this.checkpointFile + ". Starting the document.");
+      return null;
+    }
+    final long offset = checkpoint.getLong(Checkpoint.INPUT_OFFSET);
+    log.info("Resuming the document at the input offset " + offset);
+    ((FileChannel) input).position(offset);
+    ((CheckpointHandler) this.handler).resume(checkpoint);
+    this.resumeDocument(this.handler, checkpoint);
+    return checkpoint;
+  }
+
+  /**
+   * Wraps <code>input</code> in an <code>InflatingChannel</code> if it is
+   * compressed.
+   * 
+   * @return the channel to read the records from, which must be closed by
+   *         <code>parse()</code> if it is not <code>input</code>.
+   */
+  private ReadableByteChannel openInput(ReadableByteChannel input) throws IOException {
+    String compression = this.compression;
+    if (InflatingChannel.AUTO.equals(compression)) {
+      compression = (input instanceof FileChannel ? InflatingChannel.detect((FileChannel) input)
+                                                  : InflatingChannel.NONE);
+    }
+    if (InflatingChannel.NONE.equals(compression)) {
+      return input;
+    }
+    log.debug("Inflating the " + compression + " input");
+    return new InflatingChannel(input, compression, this.zipEntry, this.inflateBuffers,
+                                this.bb.capacity());
+  }
+
+  /**
+   * Decodes the bytes left in <code>bb</code> and processes the last
+   * record, which is not followed by a separator (or has less chars than the
+   * record length).
+   */
+  private final void processLastRecord() throws CharacterCodingException, SAXException {
     // finishes the decoding operation.
     // according to the CharsetDecoder documentation, this should
     // be done always (even if there is nothing else to be read)
@@ -255,10 +933,7 @@ public abstract class FlatNIOReader implements XMLReader {
     // Finishes the handler
     cbToProcess.flip();
     
-    this.processRecord(this.handler, cbToProcess);
-
-    this.endDocument(this.handler);
-    this.handler.endDocument();
+    this.dispatchRecord(this.handler, cbToProcess);
   }
 
   /**
@@ -276,42 +951,92 @@ public abstract class FlatNIOReader implements XMLReader {
   protected final void separateUsingSeparator(ReadableByteChannel input) throws IOException,
       CharacterCodingException, SAXException {
   	
-    while (NIOUtils.read(input, this.bb) > 0) {
+    for (int read; (read = NIOUtils.read(input, this.bb)) > 0;) {
+      countRead(read);
       decode(this.bb, this.cbRecord, false);
+      splitUsingSeparator(this.handler, this.cbRecord, this.cbToProcess);
+    }
+  }
 
-      int i = NIOBufferUtils.findToken(this.cbRecord, this.separateChar);      
-      while (i >= 0) {
-      	final CharBuffer buffer = this.cbRecord.duplicate();
-      	if (this.isEscapeDefined && i > 0 && this.cbRecord.get(i - 1) == this.escapeChar) {
-      		final int count = NIOBufferUtils.countAdjacentOccurrencesBackwards(this.cbRecord, 
-      		      						                                                 this.escapeChar, 
-      		      						                                                 i - 1);
-      		if (count % 2 != 0) {
-      			buffer.limit(i + 1);
-      			this.cbToProcess.put(buffer);
-      			this.cbRecord.position(i + 1);
-      			i = NIOBufferUtils.findToken(this.cbRecord, this.separateChar);
-      			continue;
-      		}
-      	}
+  /**
+   * Processes all the records delimited by the separator inside
+   * <code>cbRecord</code>. The chars after the last separator found are kept
+   * in <code>cbToProcess</code>, to be completed by the next decoded chars.
+   * <p>
+   * All the separators and escapes of <code>cbRecord</code> are found at once
+   * by a <code>TokenScanner</code>, instead of searching the separator again
+   * after each record.
+   * </p>
+   */
+  private final void splitUsingSeparator(ContentHandler handler, 
+                                         CharBuffer cbRecord, 
+                                         CharBuffer cbToProcess) throws SAXException {
+    final TokenScanner scanner = TokenScanner.acquire();
+    try {
+      final int start = cbRecord.position();
+      final int tokens = scanner.scan(cbRecord, 
+                                      this.separateChar, 
+                                      this.isEscapeDefined ? this.escapeChar : TokenScanner.NO_TOKEN);
+      for (int t = 0; t < tokens; t++) {
+        if (scanner.isEscape(t)) {
+          continue;
+        }
+        final int i = scanner.getPosition(t);
+        final CharBuffer buffer = cbRecord.duplicate();
+        if (this.isEscapeDefined && isEscaped(scanner, t, start, cbToProcess)) {
+          buffer.limit(i + 1);
+          cbToProcess.put(buffer);
+          cbRecord.position(i + 1);
+          continue;
+        }
         buffer.limit(i);
-        if (this.cbToProcess.position() > 0) {
+        if (cbToProcess.position() > 0) {
           // there is some data in cbToProcess, so we need to use it
-          this.cbToProcess.put(buffer);
-          this.cbToProcess.flip();
-          processRecord(this.handler, this.cbToProcess);
-          this.cbToProcess.clear();
+          cbToProcess.put(buffer);
+          cbToProcess.flip();
+          dispatchRecord(handler, cbToProcess);
+          cbToProcess.clear();
         } else {
           // no data left in cbToProcess, so let's send a view of
           // the original buffer in order to gain performance
-          processRecord(this.handler, buffer.slice());
+          dispatchRecord(handler, buffer.slice());
         }
-        this.cbRecord.position(i + 1);
-        i = NIOBufferUtils.findToken(this.cbRecord, this.separateChar);
+        cbRecord.position(i + 1);
       }
+    } finally {
+      TokenScanner.release(scanner);
+    }
 
-      this.cbToProcess.put(this.cbRecord);
+    cbToProcess.put(cbRecord);
+  }
+
+  /**
+   * Checks if the separator found by <code>scanner</code> as its token
+   * <code>t</code> is escaped, that is, if it is preceded by an odd number of
+   * escape chars. If all the chars scanned before the separator, starting at
+   * <code>start</code>, are escapes, the ones at the end of
+   * <code>toProcess</code> are counted too, since they came with the previous
+   * buffer (or window).
+   */
+  private final boolean isEscaped(TokenScanner scanner, int t, int start, Buffer toProcess) {
+    int count = scanner.countEscapesBefore(t);
+    if (count == scanner.getPosition(t) - start) {
+      for (int i = toProcess.position() - 1; i >= 0 && isEscapeAt(toProcess, i); i--) {
+        count++;
+      }
     }
+    return (count % 2 != 0);
+  }
+
+  /**
+   * Tells if the char, or the byte, at <code>index</code> of
+   * <code>buffer</code> is the escape char.
+   */
+  private final boolean isEscapeAt(Buffer buffer, int index) {
+    if (buffer instanceof ByteBuffer) {
+      return ((((ByteBuffer) buffer).get(index) & 0xFF) == this.escapeByte);
+    }
+    return (((CharBuffer) buffer).get(index) == this.escapeChar);
   }
 
   /**
@@ -319,26 +1044,758 @@ public abstract class FlatNIOReader implements XMLReader {
    */
   protected final void separateUsingSubstring(ReadableByteChannel input) throws IOException,
       CharacterCodingException, SAXException {
-    int recordSize = 0;
-    while (NIOUtils.read(input, bb) > 0) {
+    for (int read; (read = NIOUtils.read(input, bb)) > 0;) {
+      countRead(read);
       decode(bb, cbRecord, false); // Decode bytes into characters
+      splitUsingSubstring(this.handler, this.cbRecord, this.cbToProcess);
+    }
+  }
+
+  /**
+   * Processes all the fixed size records inside <code>cbRecord</code>. The
+   * chars of an incomplete record are kept in <code>cbToProcess</code>, to be
+   * completed by the next decoded chars.
+   */
+  private final void splitUsingSubstring(ContentHandler handler, 
+                                         CharBuffer cbRecord, 
+                                         CharBuffer cbToProcess) throws SAXException {
+    while ((cbToProcess.position() + cbRecord.remaining()) > this.length) {
+      final int lengthToProcess = this.length - cbToProcess.position();
+      final CharBuffer buffer = cbRecord.duplicate();
+      buffer.limit(buffer.position() + lengthToProcess);
+      cbToProcess.put(buffer);
+      cbToProcess.flip();
+
+      this.dispatchRecord(handler, cbToProcess);
+      cbToProcess.clear();
+      cbRecord.position(cbRecord.position() + lengthToProcess);
+    }
+    cbToProcess.put(cbRecord);
+  }
+
+  /**
+   * Maps the file into memory, one window at a time, and decodes each mapped
+   * window directly, without copying it to the read buffer. Records that
+   * straddle two windows are completed in <code>cbToProcess</code>, just like
+   * the ones that straddle two reads. Bytes of an incomplete char at the end
+   * of a window are mapped again at the start of the next one.
+   * 
+   * @param input
+   *          The file from which the records will be searched, starting at its
+   *          current position.
+   */
+  protected final void separateUsingMappedWindows(FileChannel input) throws IOException,
+      CharacterCodingException, SAXException {
+    final long size = input.size();
+    long position = input.position();
+    while (position < size) {
+      final long windowSize = Math.min(this.mapWindowSize, size - position);
+      final boolean isLastWindow = (position + windowSize == size);
+      final MappedByteBuffer window = input.map(FileChannel.MapMode.READ_ONLY, 
+                                                position, 
+                                                windowSize);
+      countRead(windowSize);
+      CoderResult result = null;
+      do {
+        this.cbRecord.clear();
+        result = this.decoder.decode(window, this.cbRecord, false);
+        this.cbRecord.flip();
+        if (result.isError()) {
+          result.throwException();
+        }
+        if (this.separateChar != '\0') {
+          splitUsingSeparator(this.handler, this.cbRecord, this.cbToProcess);
+        } else {
+          splitUsingSubstring(this.handler, this.cbRecord, this.cbToProcess);
+        }
+      } while (result.isOverflow());
+
+      countDecoded(window.position());
+      position += window.position();
+      if (isLastWindow) {
+        // leaves the incomplete bytes to the final decoding in parse()
+        this.bb.put(window);
+        break;
+      }
+    }
+    input.position(size);
+  }
+
+  /**
+   * Maps the file into memory, one window at a time, and splits the records of
+   * each window with the byte engine. Records that straddle two windows are
+   * completed in <code>bbToProcess</code>.
+   */
+  protected final void separateBytesUsingMappedWindows(FileChannel input) throws IOException,
+      SAXException {
+    final long size = input.size();
+    long position = input.position();
+    while (position < size) {
+      final long windowSize = Math.min(this.mapWindowSize, size - position);
+      countRead(windowSize);
+      splitBytes(this.handler, 
+                 input.map(FileChannel.MapMode.READ_ONLY, position, windowSize), 
+                 this.bbToProcess);
+      position += windowSize;
+    }
+    input.position(size);
+  }
+
+  /**
+   * Processes all the records inside <code>bytes</code>, using the separator
+   * or the record length. The bytes of the incomplete record at the end are
+   * kept in <code>toProcess</code>, to be completed by the next bytes.
+   */
+  private final void splitBytes(ContentHandler handler, ByteBuffer bytes, ByteBuffer toProcess)
+      throws SAXException {
+    if (this.separateChar != '\0') {
+      splitBytesUsingSeparator(handler, bytes, toProcess);
+    } else {
+      splitBytesUsingSubstring(handler, bytes, toProcess);
+    }
+  }
+
+  /**
+   * The same as <code>splitUsingSeparator()</code>, for the byte engine.
+   */
+  private final void splitBytesUsingSeparator(ContentHandler handler, 
+                                              ByteBuffer bytes, 
+                                              ByteBuffer toProcess) throws SAXException {
+    final TokenScanner scanner = TokenScanner.acquire();
+    try {
+      final int start = bytes.position();
+      final int tokens = scanner.scan(bytes, 
+                                      this.separatorByte, 
+                                      this.isEscapeDefined ? this.escapeByte : TokenScanner.NO_TOKEN);
+      for (int t = 0; t < tokens; t++) {
+        if (scanner.isEscape(t)) {
+          continue;
+        }
+        final int i = scanner.getPosition(t);
+        final ByteBuffer buffer = bytes.duplicate();
+        if (this.isEscapeDefined && isEscaped(scanner, t, start, toProcess)) {
+          buffer.limit(i + 1);
+          toProcess.put(buffer);
+          bytes.position(i + 1);
+          continue;
+        }
+        buffer.limit(i);
+        if (toProcess.position() > 0) {
+          toProcess.put(buffer);
+          toProcess.flip();
+          dispatchRecord(handler, toProcess);
+          toProcess.clear();
+        } else {
+          dispatchRecord(handler, buffer.slice());
+        }
+        bytes.position(i + 1);
+      }
+    } finally {
+      TokenScanner.release(scanner);
+    }
+
+    toProcess.put(bytes);
+  }
+
+  /**
+   * The same as <code>splitUsingSubstring()</code>, for the byte engine. The
+   * records that are all inside <code>bytes</code> are not copied.
+   */
+  private final void splitBytesUsingSubstring(ContentHandler handler, 
+                                              ByteBuffer bytes, 
+                                              ByteBuffer toProcess) throws SAXException {
+    while ((toProcess.position() + bytes.remaining()) > this.length) {
+      final int lengthToProcess = this.length - toProcess.position();
+      final ByteBuffer buffer = bytes.duplicate();
+      buffer.limit(buffer.position() + lengthToProcess);
+      if (toProcess.position() > 0) {
+        toProcess.put(buffer);
+        toProcess.flip();
+        this.dispatchRecord(handler, toProcess);
+        toProcess.clear();
+      } else {
+        this.dispatchRecord(handler, buffer.slice());
+      }
+      bytes.position(bytes.position() + lengthToProcess);
+    }
+    toProcess.put(bytes);
+  }
+
+  /**
+   * Tells if the input can be parsed by <code>separateInParallel()</code>.
+   */
+  private final boolean canParseInParallel(ReadableByteChannel input) throws IOException {
+    if (this.parallelWorkers <= 1 || !(input instanceof FileChannel) || !isParallelCapable()) {
+      return false;
+    } else if (this.separateChar != '\0' && (this.separatorByte < 0 
+                                            || (this.isEscapeDefined && this.escapeByte < 0))) {
+      log.debug("Record separator cannot be found in the input bytes. Parsing sequentially.");
+      return false;
+    } else if (this.separateChar == '\0' && SingleByteCodec.forCharset(this.charset) == null) {
+      // every byte must be decoded to one char, or the records would not
+      // start at a multiple of the record length in the chunks
+      log.debug("Record length cannot be computed in bytes. Parsing sequentially.");
+      return false;
+    }
+    final FileChannel file = (FileChannel) input;
+    return (file.size() - file.position() > this.parallelChunkSize);
+  }
+
+  /**
+   * Cuts the file in chunks and parses each chunk with a pool of
+   * <code>parallelWorkers</code> threads. The SAX events produced by each
+   * chunk are sent to the content handler in the file order.
+   * 
+   * @param input
+   *          The file from which the records will be searched, starting at its
+   *          current position.
+   */
+  protected final void separateInParallel(FileChannel input) throws IOException, SAXException {
+    final long size = input.size();
+    final ExecutorService workers = createWorkers();
+    // List<Future<SAXEventBuffer>>, in the file order
+    final LinkedList pending = new LinkedList();
+    try {
+      long from = input.position();
+      while (from < size || !pending.isEmpty()) {
+        while (from < size && pending.size() < this.parallelWindow) {
+          final long to = findChunkEnd(input, from, size);
+          pending.addLast(workers.submit(new ChunkParser(input, from, to, to == size)));
+          from = to;
+        }
+        ((SAXEventBuffer) waitFor((Future) pending.removeFirst())).replay(this.handler);
+      }
+      input.position(size);
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * Finds where the chunk starting at <code>from</code> ends. For separated
+   * records, it is right after the first separator that is not escaped, at
+   * least <code>parallelChunkSize</code> bytes after <code>from</code>. For
+   * fixed length records, it is after as many whole records as fit in
+   * <code>parallelChunkSize</code> bytes.
+   * <p>
+   * The record that ends a chunk may not be longer than
+   * <code>max-record-size</code>, so no chunk has more than
+   * <code>parallelChunkSize + max-record-size</code> bytes.
+   * </p>
+   * 
+   * @return the position of the first byte after the chunk.
+   * @throws SAXException
+   *           if there is no separator in the <code>max-record-size</code>
+   *           bytes after <code>parallelChunkSize</code>.
+   */
+  private final long findChunkEnd(FileChannel input, long from, long size) 
+      throws IOException, SAXException {
+    if (this.separateChar == '\0') {
+      final long records = Math.max(this.parallelChunkSize / this.length, 1);
+      return Math.min(from + records * this.length, size);
+    }
+    final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SCAN_SIZE);
+    final long start = from + this.parallelChunkSize;
+    final long limit = Math.min(start + this.maxRecordSize, size);
+    int escapes = (this.isEscapeDefined ? countEscapes(input, from, start, buffer) : 0);
+    long position = start;
+    while (position < limit) {
+      buffer.clear();
+      buffer.limit((int) Math.min(CHUNK_SCAN_SIZE, limit - position));
+      final int read = input.read(buffer, position);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        final int b = buffer.get(i) & 0xFF;
+        if (b == this.separatorByte && escapes % 2 == 0) {
+          return position + i + 1;
+        }
+        escapes = (this.isEscapeDefined && b == this.escapeByte ? escapes + 1 : 0);
+      }
+      position += read;
+    }
+    if (limit < size) {
+      throw new SAXException(i18n.getString("recordTooLong", String.valueOf(this.maxRecordSize), 
+                                            String.valueOf(start)));
+    }
+    return size;
+  }
+
+  /**
+   * Counts the escape bytes right before <code>position</code>, down to
+   * <code>from</code>, reading the file backwards into <code>buffer</code>.
+   */
+  private final int countEscapes(FileChannel input, long from, long position, ByteBuffer buffer)
+      throws IOException {
+    int count = 0;
+    while (position > from) {
+      buffer.clear();
+      buffer.limit((int) Math.min(buffer.capacity(), position - from));
+      final long blockStart = position - buffer.limit();
+      while (buffer.hasRemaining()) {
+        if (input.read(buffer, blockStart + buffer.position()) < 0) {
+          return count;
+        }
+      }
+      for (int i = buffer.limit() - 1; i >= 0; i--) {
+        if ((buffer.get(i) & 0xFF) != this.escapeByte) {
+          return count;
+        }
+        count++;
+      }
+      position = blockStart;
+    }
+    return count;
+  }
+
+  /**
+   * Creates a pool of <code>parallelWorkers</code> daemon threads, to parse
+   * parts of the input. Idle threads end by themselves, so a pool that is not
+   * shut down because of a parsing error does not keep them forever.
+   */
+  protected final ExecutorService createWorkers() {
+    final ThreadPoolExecutor workers = new ThreadPoolExecutor(this.parallelWorkers, 
+                                                              this.parallelWorkers,
+                                                              WORKER_KEEP_ALIVE, 
+                                                              TimeUnit.SECONDS,
+                                                              new LinkedBlockingQueue(),
+                                                              new WorkerFactory());
+    workers.allowCoreThreadTimeOut(true);
+    return workers;
+  }
+
+  /**
+   * Waits for a task submitted to the workers to finish, rethrowing any
+   * exception raised by it.
+   * 
+   * @return the task result.
+   */
+  protected static final Object waitFor(Future task) throws IOException, SAXException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SAXException(e);
+    } catch (ExecutionException e) {
+      rethrow(e.getCause());
+      return null;
+    }
+  }
+
+  /**
+   * Throws <code>cause</code>, wrapped in a <code>SAXException</code> if it
+   * is not thrown by the parsing methods.
+   */
+  private static final void rethrow(Throwable cause) throws IOException, SAXException {
+    if (cause instanceof SAXException) {
+      throw (SAXException) cause;
+    } else if (cause instanceof IOException) {
+      throw (IOException) cause;
+    } else if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    } else if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    throw new SAXException((Exception) cause);
+  }
+
+  /**
+   * Parses one chunk of the input file, recording the SAX events produced.
+   * Each chunk is read with positional reads and decoded with its own
+   * decoder, so many chunks of the same file may be parsed at once.
+   */
+  private final class ChunkParser implements Callable {
+
+    private final FileChannel input;
+
+    private final long from, to;
+
+    private final boolean isLastChunk;
+
+    public ChunkParser(FileChannel input, long from, long to, boolean isLastChunk) {
+      this.input = input;
+      this.from = from;
+      this.to = to;
+      this.isLastChunk = isLastChunk;
+    }
+
+    public Object call() throws IOException, SAXException {
+      final ByteBuffer bytes = ByteBuffer.allocate((int) (this.to - this.from));
+      int read = 0;
+      while (bytes.hasRemaining() && read >= 0) {
+        read = this.input.read(bytes, this.from + bytes.position());
+      }
+      bytes.flip();
+      countRead(bytes.remaining());
+
+      final SAXEventBuffer events = new SAXEventBuffer();
+      if (isByteEngine()) {
+        final ByteBuffer toProcess = ByteBuffer.allocate(bbToProcess.capacity());
+        splitBytes(events, bytes, toProcess);
+        if (this.isLastChunk || toProcess.position() > 0) {
+          toProcess.flip();
+          dispatchRecord(events, toProcess);
+        }
+        return events;
+      }
+
+      final CharsetDecoder chunkDecoder = newDecoder();
+      final CharBuffer chars = 
+        CharBuffer.allocate((int) (bytes.remaining() * chunkDecoder.maxCharsPerByte()) + 1);
+      CoderResult result = chunkDecoder.decode(bytes, chars, true);
+      countDecoded(bytes.position());
+      if (!result.isError()) {
+        result = chunkDecoder.flush(chars);
+      }
+      if (result.isError()) {
+        result.throwException();
+      }
+      chars.flip();
+
+      final CharBuffer toProcess = CharBuffer.allocate(cbToProcess.capacity());
+      if (separateChar != '\0') {
+        splitUsingSeparator(events, chars, toProcess);
+      } else {
+        splitUsingSubstring(events, chars, toProcess);
+      }
+      // the last chunk ends with the last record, as in processLastRecord(); 
+      // the others may end with a whole fixed length record
+      if (this.isLastChunk || toProcess.position() > 0) {
+        toProcess.flip();
+        dispatchRecord(events, toProcess);
+      }
+      return events;
+    }
+  }
+
+  /**
+   * Parses the input in a pipeline of threads. A read ahead thread reads the
+   * input (unless it is mapped into memory, or already read ahead), the
+   * splitter thread decodes it and finds the records, the evaluator thread
+   * processes the records, recording their SAX events, and the current
+   * thread sends the events to the content handler. The stages hand chunks of
+   * records and buffers of events to each other through bounded rings, and
+   * the buffers are reused, so at most <code>pipelineDepth</code> of each are
+   * kept in memory. The records are processed, and the events sent, in the
+   * file order.
+   */
+  protected final void separateInPipeline(ReadableByteChannel input) throws IOException,
+      SAXException {
+    final boolean isMapped = (this.isMemoryMapped && input instanceof FileChannel);
+    final ReadableByteChannel source = (isMapped || input instanceof ReadAheadChannel ? input
+        : new ReadAheadChannel(input, this.pipelineDepth, this.bb.capacity()));
+    final Pipeline pipeline = new Pipeline(source, isByteEngine());
+    this.pipeline = pipeline;
+    try {
+      pipeline.start();
+      for (SAXEventBuffer events; (events = pipeline.nextEvents()) != null;) {
+        events.replay(this.handler);
+        pipeline.recycle(events);
+      }
+    } finally {
+      // the splitter must be stopped before the records go to the handler
+      pipeline.stop();
+      this.pipeline = null;
+      if (source != input) {
+        source.close();
+      }
+    }
+  }
+
+  /**
+   * The stages of <code>separateInPipeline()</code>. The records found by the
+   * splitter are sent to <code>add()</code>, by
+   * <code>dispatchRecord()</code>.
+   */
+  private final class Pipeline {
+
+    private final ReadableByteChannel input;
+
+    private final boolean isByteEngine;
+
+    // the chunks of records, free and found by the splitter, and the buffers
+    // of events, free and recorded by the evaluator
+    private final RingBuffer freeChunks, chunks, freeEvents, events;
+
+    private final Thread splitter, evaluator;
+
+    // the chunk being filled by the splitter
+    private RecordChunk chunk;
+
+    // the first error of a stage, which stops all of them
+    private volatile Throwable failure;
+
+    public Pipeline(ReadableByteChannel input, boolean isByteEngine) {
+      this.input = input;
+      this.isByteEngine = isByteEngine;
+      this.freeChunks = new RingBuffer(pipelineDepth);
+      this.chunks = new RingBuffer(pipelineDepth + 1);
+      this.freeEvents = new RingBuffer(pipelineDepth);
+      this.events = new RingBuffer(pipelineDepth + 1);
+      for (int i = 0; i < pipelineDepth; i++) {
+        this.freeChunks.put(new RecordChunk(bb.capacity(), isByteEngine));
+        this.freeEvents.put(new SAXEventBuffer());
+      }
+      this.splitter = new Thread(new Runnable() {
+        public void run() {
+          split();
+        }
+      }, "udd-splitter");
+      this.evaluator = new Thread(new Runnable() {
+        public void run() {
+          evaluate();
+        }
+      }, "udd-evaluator");
+      this.splitter.setDaemon(true);
+      this.evaluator.setDaemon(true);
+    }
+
+    public void start() {
+      this.splitter.start();
+      this.evaluator.start();
+    }
+
+    /**
+     * The splitter stage: finds the records and fills the chunks with them.
+     */
+    private void split() {
+      try {
+        this.chunk = takeChunk();
+        separate(this.input);
+        if (!this.chunks.put(this.chunk) || !this.chunks.put(END_OF_PIPELINE)) {
+          return;
+        }
+        this.chunk = null;
+      } catch (Throwable t) {
+        fail(t);
+      }
+    }
+
+    /**
+     * The evaluator stage: processes the records of each chunk, recording
+     * their SAX events.
+     */
+    private void evaluate() {
+      try {
+        for (Object next; (next = this.chunks.take()) != null;) {
+          if (next == END_OF_PIPELINE) {
+            this.events.put(END_OF_PIPELINE);
+            return;
+          }
+          final SAXEventBuffer buffer = (SAXEventBuffer) this.freeEvents.take();
+          if (buffer == null) {
+            return;
+          }
+          final RecordChunk records = (RecordChunk) next;
+          for (int i = 0; i < records.size(); i++) {
+            if (this.isByteEngine) {
+              processRecord(buffer, records.getBytes(i));
+            } else {
+              processRecord(buffer, records.getChars(i));
+            }
+          }
+          records.clear();
+          if (!this.freeChunks.put(records) || !this.events.put(buffer)) {
+            return;
+          }
+        }
+      } catch (Throwable t) {
+        fail(t);
+      }
+    }
+
+    /**
+     * Copies a record found by the splitter to the current chunk, sending
+     * the chunk to the evaluator when it is full.
+     */
+    public void add(CharBuffer record) throws SAXException {
+      if (!this.chunk.add(record)) {
+        sendChunk();
+        this.chunk.add(record);
+      }
+    }
+
+    /**
+     * The same as <code>add(CharBuffer)</code>, for the byte engine.
+     */
+    public void add(ByteBuffer record) throws SAXException {
+      if (!this.chunk.add(record)) {
+        sendChunk();
+        this.chunk.add(record);
+      }
+    }
+
+    private void sendChunk() throws SAXException {
+      if (!this.chunks.put(this.chunk)) {
+        throw new SAXException("The pipeline was stopped");
+      }
+      this.chunk = takeChunk();
+    }
+
+    private RecordChunk takeChunk() throws SAXException {
+      final RecordChunk free = (RecordChunk) this.freeChunks.take();
+      if (free == null) {
+        throw new SAXException("The pipeline was stopped");
+      }
+      return free;
+    }
+
+    /**
+     * Gets the events of the next chunk, in the file order.
+     * 
+     * @return the events, or null after the last chunk.
+     */
+    public SAXEventBuffer nextEvents() throws IOException, SAXException {
+      final Object next = this.events.take();
+      if (next == END_OF_PIPELINE) {
+        return null;
+      } else if (next == null) {
+        rethrow(this.failure != null ? this.failure 
+                                     : new SAXException("The pipeline was stopped"));
+      }
+      return (SAXEventBuffer) next;
+    }
+
+    /**
+     * Gives back the events already sent to the content handler.
+     */
+    public void recycle(SAXEventBuffer buffer) {
+      buffer.clear();
+      this.freeEvents.put(buffer);
+    }
+
+    private synchronized void fail(Throwable t) {
+      if (this.failure == null) {
+        this.failure = t;
+      }
+      abort();
+    }
+
+    private void abort() {
+      this.freeChunks.abort();
+      this.chunks.abort();
+      this.freeEvents.abort();
+      this.events.abort();
+    }
+
+    /**
+     * Stops the stages, waiting for their threads to end.
+     */
+    public void stop() {
+      abort();
+      try {
+        this.splitter.join();
+        this.evaluator.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * The records copied from the buffers of the reader by the splitter of a
+   * pipeline, all in the same array, since the buffers are reused for the
+   * next records.
+   */
+  private static final class RecordChunk {
+
+    private char[] chars;
+
+    private byte[] bytes;
+
+    private int length;
 
-      if ((recordSize + cbRecord.remaining()) > this.length) {
-      	
-      	final int lengthToProcess = this.length - recordSize;
-        cbToProcess.put(cbRecord.array(), 0, lengthToProcess);
-        cbToProcess.flip();
-        
-        this.processRecord(this.handler, cbToProcess);
-        cbToProcess.clear();
-        cbToProcess.put(cbRecord.array(), 
-                        lengthToProcess, 
-                        cbRecord.remaining() - lengthToProcess);
-        recordSize = cbRecord.remaining() - lengthToProcess;
+    // start and end of each record
+    private int[] bounds = new int[256];
+
+    private int count;
+
+    public RecordChunk(int capacity, boolean isByteEngine) {
+      if (isByteEngine) {
+        this.bytes = new byte[capacity];
       } else {
-        cbToProcess.put(cbRecord);
-        recordSize += cbRecord.remaining();
+        this.chars = new char[capacity];
+      }
+    }
+
+    /**
+     * Copies a record to this chunk. An empty chunk grows to hold any record.
+     * 
+     * @return false if the record does not fit, and was not copied.
+     */
+    public boolean add(CharBuffer record) {
+      final int size = record.remaining();
+      if (this.length + size > this.chars.length) {
+        if (this.count > 0) {
+          return false;
+        }
+        this.chars = new char[size];
       }
+      record.duplicate().get(this.chars, this.length, size);
+      addBounds(size);
+      return true;
+    }
+
+    /**
+     * The same as <code>add(CharBuffer)</code>, for the byte engine.
+     */
+    public boolean add(ByteBuffer record) {
+      final int size = record.remaining();
+      if (this.length + size > this.bytes.length) {
+        if (this.count > 0) {
+          return false;
+        }
+        this.bytes = new byte[size];
+      }
+      record.duplicate().get(this.bytes, this.length, size);
+      addBounds(size);
+      return true;
+    }
+
+    private void addBounds(int size) {
+      if (2 * this.count + 2 > this.bounds.length) {
+        final int[] newBounds = new int[this.bounds.length * 2];
+        System.arraycopy(this.bounds, 0, newBounds, 0, 2 * this.count);
+        this.bounds = newBounds;
+      }
+      this.bounds[2 * this.count] = this.length;
+      this.length += size;
+      this.bounds[2 * this.count + 1] = this.length;
+      this.count++;
+    }
+
+    public int size() {
+      return this.count;
+    }
+
+    public CharBuffer getChars(int index) {
+      final int start = this.bounds[2 * index];
+      return CharBuffer.wrap(this.chars, start, this.bounds[2 * index + 1] - start).slice();
+    }
+
+    public ByteBuffer getBytes(int index) {
+      final int start = this.bounds[2 * index];
+      return ByteBuffer.wrap(this.bytes, start, this.bounds[2 * index + 1] - start).slice();
+    }
+
+    public void clear() {
+      this.length = 0;
+      this.count = 0;
+    }
+  }
+
+  /**
+   * Creates the daemon threads used to parse the chunks.
+   */
+  private static final class WorkerFactory implements ThreadFactory {
+
+    private int count = 0;
+
+    public Thread newThread(Runnable task) {
+      final Thread worker = new Thread(task, "udd-parser-" + (++count));
+      worker.setDaemon(true);
+      return worker;
     }
   }
 
@@ -378,7 +1835,7 @@ public abstract class FlatNIOReader implements XMLReader {
   }
 
   public boolean getFeature(String str) throws SAXNotRecognizedException, SAXNotSupportedException {
-    return false;
+    return (RESUME_FEATURE.equals(str) && this.isResuming);
   }
 
   public Object getProperty(String str) throws SAXNotRecognizedException, SAXNotSupportedException {
@@ -391,6 +1848,9 @@ public abstract class FlatNIOReader implements XMLReader {
 
   public void setFeature(String str, boolean param) throws SAXNotRecognizedException,
       SAXNotSupportedException {
+    if (RESUME_FEATURE.equals(str)) {
+      this.isResuming = param;
+    }
   }
 
   public void setProperty(String str, Object obj) throws SAXNotRecognizedException,
@@ -401,6 +1861,70 @@ public abstract class FlatNIOReader implements XMLReader {
   /* End of the XMLReader implementation */
   /** ************************************ */
 
+  /**
+   * Creates a new decoder for the input charset. Malformed and unmappable
+   * bytes are ignored. Single byte charsets and UTF-8 use a
+   * <code>FastCharsetDecoder</code>.
+   */
+  protected final CharsetDecoder newDecoder() {
+    CharsetDecoder charsetDecoder = FastCharsetDecoder.forCharset(this.charset);
+    if (charsetDecoder == null) {
+      charsetDecoder = this.charset.newDecoder();
+    }
+    charsetDecoder.onMalformedInput(CodingErrorAction.IGNORE);
+    charsetDecoder.onUnmappableCharacter(CodingErrorAction.IGNORE);
+    return charsetDecoder;
+  }
+
+  /**
+   * Tells if each char of the charset is encoded as exactly one byte.
+   */
+  private static final boolean isSingleByte(Charset charset) {
+    return (charset.canEncode() 
+            && charset.newEncoder().maxBytesPerChar() == 1 
+            && charset.newDecoder().maxCharsPerByte() == 1);
+  }
+
+  /**
+   * Finds the only byte that encodes <code>c</code> in the input charset,
+   * when that byte can be searched for in the input without decoding it: in
+   * single byte charsets, or in UTF-8 for ASCII chars.
+   * 
+   * @return the byte value (0 to 255), or -1 if there is no such byte.
+   */
+  private final int toSingleByte(char c) {
+    if (!this.isSingleByteCharset && !("UTF-8".equals(this.charset.name()) && c < 0x80)) {
+      return -1;
+    }
+    try {
+      final CharsetEncoder encoder = this.charset.newEncoder();
+      final ByteBuffer encoded = encoder.encode(CharBuffer.wrap(new char[] { c }));
+      return (encoded.remaining() == 1 ? (encoded.get() & 0xFF) : -1);
+    } catch (CharacterCodingException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Gets an optional integer attribute.
+   */
+  private static final int getIntAttribute(Element config, String name, int defaultValue) {
+    final String value = config.getAttribute(name);
+    return (value.length() > 0 ? Integer.parseInt(value) : defaultValue);
+  }
+
+  private final void countRead(long bytes) {
+    if (this.metrics != null) {
+      this.metrics.addRead(bytes);
+    }
+  }
+
+  private final void countDecoded(long bytes) {
+    if (this.metrics != null) {
+      this.metrics.addDecoded(bytes);
+    }
+  }
+
   /**
    * Decodes the byte buffer into char buffer using the decoder. This method
    * also tries to decide if there is a escape character at the end of the
@@ -416,9 +1940,15 @@ public abstract class FlatNIOReader implements XMLReader {
   private final void decode(ByteBuffer bb, CharBuffer cb, boolean endOfInput)
       throws CharacterCodingException {
     cb.clear();
+    final int start = bb.position();
     CoderResult result = decoder.decode(bb, cb, endOfInput);
+    countDecoded(bb.position() - start);
     cb.flip();
-    bb.compact();
+    if (bb.hasRemaining()) {
+      bb.compact();
+    } else {
+      bb.clear();
+    }
     if (result.isError()) {
       // handle malformed-input or an unmappable-character here...
       result.throwException();
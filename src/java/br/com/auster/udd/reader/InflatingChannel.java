@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A channel with the bytes inflated from a gzip file or from an entry of a
+ * zip file. The compressed bytes are read and inflated by the producer
+ * thread of <code>ReadAheadChannel</code>, which fills a ring of buffers
+ * while the reader decodes the buffers already filled, so the decompression
+ * and the parsing run at the same time.
+ * <p>
+ * The compressed channel is not closed by <code>close()</code>: it belongs
+ * to whoever opened it. Closing this channel stops the producer thread and
+ * frees the inflater.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class InflatingChannel extends ReadAheadChannel {
+
+  public static final String NONE = "none";
+
+  public static final String GZIP = "gzip";
+
+  public static final String ZIP = "zip";
+
+  public static final String AUTO = "auto";
+
+  // the size of the buffer of the inflater for the compressed bytes
+  private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+  private static final Logger log = Logger.getLogger(InflatingChannel.class);
+
+  private final InputStream inflater;
+
+  /**
+   * Opens the compressed bytes of <code>input</code>, starting at its current
+   * position. They are inflated by the first <code>read()</code>.
+   * 
+   * @param compression
+   *          <code>GZIP</code> or <code>ZIP</code>.
+   * @param entryName
+   *          the zip entry to inflate, or null to inflate the first file of
+   *          the zip.
+   * @param buffers
+   *          the number of buffers of the ring, with <code>bufferSize</code>
+   *          bytes each.
+   */
+  public InflatingChannel(ReadableByteChannel input, String compression, String entryName,
+                          int buffers, int bufferSize) throws IOException {
+    super(null, buffers, bufferSize, "udd-inflater");
+    final InputStream compressed = new FilterInputStream(Channels.newInputStream(input)) {
+      public void close() {
+        // the input channel is closed by its owner
+      }
+    };
+    if (GZIP.equals(compression)) {
+      this.inflater = new GZIPInputStream(compressed, INPUT_BUFFER_SIZE);
+    } else if (ZIP.equals(compression)) {
+      this.inflater = openEntry(new ZipInputStream(compressed), entryName);
+    } else {
+      throw new IllegalArgumentException("Unknown compression: " + compression);
+    }
+  }
+
+  /**
+   * Finds the compression of the file <code>input</code> by its first bytes,
+   * without changing its position.
+   * 
+   * @return <code>GZIP</code>, <code>ZIP</code> or <code>NONE</code>.
+   */
+  public static String detect(FileChannel input) throws IOException {
+    final ByteBuffer magic = ByteBuffer.allocate(4);
+    final long position = input.position();
+    while (magic.hasRemaining() && input.read(magic, position + magic.position()) > 0) {
+      // reads until the magic bytes are complete or the file ends
+    }
+    magic.flip();
+    if (magic.remaining() >= 2 && (magic.get(0) & 0xff) == 0x1f && (magic.get(1) & 0xff) == 0x8b) {
+      return GZIP;
+    } else if (magic.remaining() == 4 && magic.getInt(0) == 0x504b0304) {
+      return ZIP;
+    }
+    return NONE;
+  }
+
+  private static InputStream openEntry(ZipInputStream zip, String entryName) throws IOException {
+    for (ZipEntry entry; (entry = zip.getNextEntry()) != null;) {
+      if (entryName == null ? !entry.isDirectory() : entryName.equals(entry.getName())) {
+        log.debug("Inflating the zip entry " + entry.getName());
+        return zip;
+      }
+    }
+    zip.close();
+    throw new IOException("Zip entry not found: " + (entryName == null ? "(any file)" : entryName));
+  }
+
+  /**
+   * Fills the buffer with the inflated bytes.
+   */
+  protected boolean fill(ByteBuffer buffer) throws IOException {
+    final byte[] bytes = buffer.array();
+    while (buffer.hasRemaining()) {
+      final int read = this.inflater.read(bytes, buffer.position(), buffer.remaining());
+      if (read < 0) {
+        return false;
+      }
+      buffer.position(buffer.position() + read);
+    }
+    return true;
+  }
+
+  /**
+   * Frees the inflater.
+   */
+  protected void closeInput() throws IOException {
+    this.inflater.close();
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+
+/**
+ * The UDD layouts already parsed by the readers, shared by all the readers of
+ * the process. A reader created for a UDD file that was already parsed by
+ * another reader of the same class uses its layout, instead of opening,
+ * decrypting and parsing the file again.
+ * <p>
+ * The layouts are found by the reader class, the UDD path and whether it is
+ * encrypted. Each time a layout is used, the modification time and the size
+ * of the file are checked: if they changed, the MD5 hash of its contents is
+ * compared with the one of the cached layout, and the layout is parsed again
+ * only if the contents changed. Only UDD paths that are files are cached.
+ * </p>
+ * <p>
+ * At most <code>getMaxSize()</code> layouts (64 by default) are kept. The
+ * least recently used ones are removed first. The layouts must be immutable,
+ * since they are used by several readers, possibly at the same time.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class LayoutCache {
+
+  /**
+   * The default number of layouts kept by the cache: {@value}
+   */
+  public static final int DEFAULT_MAX_SIZE = 64;
+
+  private static final Logger log = Logger.getLogger(LayoutCache.class);
+
+  private static final LayoutCache INSTANCE = new LayoutCache(DEFAULT_MAX_SIZE);
+
+  /**
+   * A parsed UDD layout.
+   */
+  public static final class Entry {
+
+    private final File file;
+
+    private long lastModified, length;
+
+    private final byte[] hash;
+
+    private final Element settings;
+
+    private final Object layout;
+
+    private Entry(File file, long lastModified, long length, byte[] hash, Element settings,
+                  Object layout) {
+      this.file = file;
+      this.lastModified = lastModified;
+      this.length = length;
+      this.hash = hash;
+      this.settings = settings;
+      this.layout = layout;
+    }
+
+    /**
+     * Gets a copy of the root element of the UDD, with its attributes only.
+     * It must not be changed.
+     */
+    public Element getSettings() {
+      return this.settings;
+    }
+
+    /**
+     * Gets the layout parsed by the reader.
+     */
+    public Object getLayout() {
+      return this.layout;
+    }
+  }
+
+  // Map<String(key), Entry>, in the access order
+  private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry eldest) {
+      return size() > LayoutCache.this.maxSize;
+    }
+  };
+
+  private int maxSize;
+
+  private LayoutCache(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Gets the cache shared by the readers.
+   */
+  public static LayoutCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Gets the layout of a UDD file, parsed by a reader of the class
+   * <code>type</code>.
+   * 
+   * @return the layout, or null if it was not parsed yet, or if the file has
+   *         changed.
+   */
+  public Entry get(Class type, String uddPath, boolean isEncrypted) {
+    final String key = getKey(type, uddPath, isEncrypted);
+    final Entry entry;
+    synchronized (this) {
+      entry = (Entry) this.entries.get(key);
+    }
+    if (entry == null) {
+      return null;
+    }
+    synchronized (entry) {
+      final long lastModified = entry.file.lastModified(), length = entry.file.length();
+      if (lastModified == entry.lastModified && length == entry.length) {
+        return entry;
+      }
+      try {
+        if (Arrays.equals(hash(entry.file), entry.hash)) {
+          // only touched
+          entry.lastModified = lastModified;
+          entry.length = length;
+          return entry;
+        }
+      } catch (IOException e) {
+        log.warn("Could not read the UDD file " + uddPath, e);
+      }
+    }
+    synchronized (this) {
+      if (this.entries.get(key) == entry) {
+        this.entries.remove(key);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Keeps the layout of a UDD file, parsed by a reader of the class
+   * <code>type</code>. Nothing is kept if the UDD path is not a file.
+   * 
+   * @param uddConf
+   *          the root element of the UDD. Only its attributes are kept.
+   * @param layout
+   *          the layout parsed by the reader. It must be immutable.
+   */
+  public void put(Class type, String uddPath, boolean isEncrypted, Element uddConf, Object layout) {
+    final File file = new File(uddPath);
+    if (!file.isFile()) {
+      return;
+    }
+    final Entry entry;
+    try {
+      // the file is checked before being read, so a change made while reading
+      // it is found the next time
+      final long lastModified = file.lastModified(), length = file.length();
+      entry = new Entry(file, lastModified, length, hash(file), copySettings(uddConf), layout);
+    } catch (IOException e) {
+      log.warn("Could not read the UDD file " + uddPath, e);
+      return;
+    } catch (ParserConfigurationException e) {
+      log.warn("Could not keep the UDD layout of " + uddPath, e);
+      return;
+    }
+    synchronized (this) {
+      this.entries.put(getKey(type, uddPath, isEncrypted), entry);
+    }
+  }
+
+  /**
+   * Removes all the layouts.
+   */
+  public synchronized void clear() {
+    this.entries.clear();
+  }
+
+  /**
+   * Gets the number of layouts kept.
+   */
+  public synchronized int size() {
+    return this.entries.size();
+  }
+
+  public synchronized int getMaxSize() {
+    return this.maxSize;
+  }
+
+  /**
+   * Sets the maximum number of layouts kept. The least recently used layouts
+   * above this number are removed.
+   */
+  public synchronized void setMaxSize(int maxSize) {
+    this.maxSize = Math.max(maxSize, 0);
+    while (this.entries.size() > this.maxSize) {
+      this.entries.remove(this.entries.keySet().iterator().next());
+    }
+  }
+
+  private static String getKey(Class type, String uddPath, boolean isEncrypted) {
+    return type.getName() + (isEncrypted ? "|encrypted|" : "|") + uddPath;
+  }
+
+  /**
+   * Copies the attributes of the UDD root element to an element of a new
+   * document, which may be read by several threads at the same time.
+   */
+  private static Element copySettings(Element uddConf) throws ParserConfigurationException {
+    final Document document = 
+      DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    final Element settings = (uddConf.getNamespaceURI() == null 
+                              ? document.createElement(uddConf.getTagName())
+                              : document.createElementNS(uddConf.getNamespaceURI(),
+                                                         uddConf.getTagName()));
+    final NamedNodeMap attributes = uddConf.getAttributes();
+    for (int i = 0; i < attributes.getLength(); i++) {
+      final Attr attribute = (Attr) attributes.item(i);
+      if (attribute.getNamespaceURI() == null) {
+        settings.setAttribute(attribute.getName(), attribute.getValue());
+      } else {
+        settings.setAttributeNS(attribute.getNamespaceURI(), attribute.getName(), 
+                                attribute.getValue());
+      }
+    }
+    document.appendChild(settings);
+    return settings;
+  }
+
+  /**
+   * Gets the MD5 hash of the contents of <code>file</code>.
+   */
+  private static byte[] hash(File file) throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e.getMessage());
+    }
+    final InputStream input = new FileInputStream(file);
+    try {
+      final byte[] buffer = new byte[8192];
+      for (int read; (read = input.read(buffer)) > 0;) {
+        digest.update(buffer, 0, read);
+      }
+    } finally {
+      input.close();
+    }
+    return digest.digest();
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Attr;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * A compact binary copy of the elements of a UDD file, kept next to it in
+ * <code>&lt;udd-path&gt;.snapshot</code>. Loading a snapshot memory-maps it
+ * and creates the DOM elements directly, without parsing the XML, so the
+ * readers created by short-lived processes start faster.
+ * <p>
+ * A snapshot keeps the names, the namespaces and the attributes of the
+ * elements of the UDD, which is all the UDD nodes read. The text, comments
+ * and processing instructions are not kept. The strings are written only
+ * once, in a table at the start of the snapshot, and the elements refer to
+ * them by their indexes.
+ * </p>
+ * <p>
+ * A snapshot is only used if it is not older than its UDD file, and if the
+ * modification time and the size of the UDD file are the ones it was written
+ * from. Otherwise, the UDD file is parsed as usual. The encrypted UDD files
+ * have no snapshots, since they would keep the decrypted layout in the clear.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class LayoutSnapshot {
+
+  /**
+   * The suffix added to the UDD path to get the path of its snapshot: {@value}
+   */
+  public static final String SUFFIX = ".snapshot";
+
+  // "UDDS" and the version of the format
+  private static final int MAGIC = 0x55444453;
+
+  private static final int VERSION = 1;
+
+  // the index of the null strings
+  private static final int NO_STRING = -1;
+
+  private static final Logger log = Logger.getLogger(LayoutSnapshot.class);
+
+  // the implementation that creates the documents, found only once since
+  // looking for the factory is slower than loading most snapshots
+  private static DOMImplementation implementation;
+
+  private LayoutSnapshot() {
+  }
+
+  /**
+   * Gets the file of the snapshot of a UDD file.
+   */
+  public static File getFile(String uddPath) {
+    return new File(uddPath + SUFFIX);
+  }
+
+  /**
+   * Loads the snapshot of the UDD file <code>uddPath</code>.
+   * 
+   * @return the root element of the UDD, or null if there is no snapshot or
+   *         if it is older than the UDD file.
+   */
+  public static Element load(String uddPath) {
+    final File uddFile = new File(uddPath), file = getFile(uddPath);
+    if (!uddFile.isFile() || !file.isFile() || file.lastModified() < uddFile.lastModified()) {
+      return null;
+    }
+    try {
+      final ByteBuffer buffer;
+      final FileInputStream input = new FileInputStream(file);
+      try {
+        final FileChannel channel = input.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+        input.close();
+      }
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+          || buffer.getLong() != uddFile.lastModified() || buffer.getLong() != uddFile.length()) {
+        log.debug("The UDD snapshot " + file + " is out of date");
+        return null;
+      }
+      final String[] strings = new String[buffer.getInt()];
+      for (int i = 0; i < strings.length; i++) {
+        final char[] chars = new char[buffer.getInt()];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + 2 * chars.length);
+        strings[i] = new String(chars);
+      }
+      final Document document = getImplementation().createDocument(null, null, null);
+      final Element root = readElement(buffer, strings, document);
+      document.appendChild(root);
+      return root;
+    } catch (IOException e) {
+      log.warn("Could not read the UDD snapshot " + file, e);
+    } catch (BufferUnderflowException e) {
+      log.warn("The UDD snapshot " + file + " is truncated");
+    } catch (IndexOutOfBoundsException e) {
+      log.warn("The UDD snapshot " + file + " is corrupted");
+    } catch (ParserConfigurationException e) {
+      log.warn("Could not create the document of the UDD snapshot " + file, e);
+    }
+    return null;
+  }
+
+  /**
+   * Writes the snapshot of the UDD file <code>uddPath</code>, whose root
+   * element is <code>uddConf</code>. The snapshot is written to a temporary
+   * file of its own first, so the readers never load half of it, even when
+   * several processes write it at the same time. Nothing is written if the
+   * UDD path is not a file.
+   * 
+   * @return true if the snapshot was written.
+   */
+  public static boolean write(String uddPath, Element uddConf) {
+    final File uddFile = new File(uddPath), file = getFile(uddPath);
+    if (!uddFile.isFile()) {
+      return false;
+    }
+    File temp = null;
+    try {
+      // the file is checked before the elements are written, so a change made
+      // after it was parsed is found by load()
+      final long lastModified = uddFile.lastModified(), length = uddFile.length();
+      final List strings = new ArrayList();
+      final Map indexes = new HashMap();
+      collectStrings(uddConf, strings, indexes);
+
+      temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+      final DataOutputStream output = 
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+      try {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeLong(lastModified);
+        output.writeLong(length);
+        output.writeInt(strings.size());
+        for (int i = 0; i < strings.size(); i++) {
+          final String string = (String) strings.get(i);
+          output.writeInt(string.length());
+          output.writeChars(string);
+        }
+        writeElement(uddConf, indexes, output);
+      } finally {
+        output.close();
+      }
+      // another process may have replaced it since, with a snapshot just as
+      // complete as this one
+      if (!temp.renameTo(file) && (!file.delete() || !temp.renameTo(file))) {
+        log.warn("Could not replace the UDD snapshot " + file);
+        temp.delete();
+        return false;
+      }
+      log.debug("Wrote the UDD snapshot " + file);
+      return true;
+    } catch (IOException e) {
+      log.warn("Could not write the UDD snapshot " + file, e);
+      if (temp != null) {
+        temp.delete();
+      }
+      return false;
+    }
+  }
+
+  private static synchronized DOMImplementation getImplementation()
+      throws ParserConfigurationException {
+    if (implementation == null) {
+      implementation = 
+        DocumentBuilderFactory.newInstance().newDocumentBuilder().getDOMImplementation();
+    }
+    return implementation;
+  }
+
+  private static Element readElement(ByteBuffer buffer, String[] strings, Document document) {
+    // the elements are created with their namespaces, even when there is
+    // none, so they have local names just like the ones of a parsed UDD
+    final String namespace = getString(strings, buffer.getInt());
+    final Element element = document.createElementNS(namespace, strings[buffer.getInt()]);
+    for (int i = buffer.getInt(); i > 0; i--) {
+      final String attNamespace = getString(strings, buffer.getInt());
+      final String name = strings[buffer.getInt()];
+      element.setAttributeNS(attNamespace, name, strings[buffer.getInt()]);
+    }
+    for (int i = buffer.getInt(); i > 0; i--) {
+      element.appendChild(readElement(buffer, strings, document));
+    }
+    return element;
+  }
+
+  private static void writeElement(Element element, Map indexes, DataOutputStream output)
+      throws IOException {
+    output.writeInt(getIndex(indexes, element.getNamespaceURI()));
+    output.writeInt(getIndex(indexes, element.getTagName()));
+    final NamedNodeMap attributes = element.getAttributes();
+    output.writeInt(attributes.getLength());
+    for (int i = 0; i < attributes.getLength(); i++) {
+      final Attr attribute = (Attr) attributes.item(i);
+      output.writeInt(getIndex(indexes, attribute.getNamespaceURI()));
+      output.writeInt(getIndex(indexes, attribute.getName()));
+      output.writeInt(getIndex(indexes, attribute.getValue()));
+    }
+    int children = 0;
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        children++;
+      }
+    }
+    output.writeInt(children);
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        writeElement((Element) child, indexes, output);
+      }
+    }
+  }
+
+  /**
+   * Adds the strings of <code>element</code> and of its children to the
+   * table, each one only once.
+   */
+  private static void collectStrings(Element element, List strings, Map indexes) {
+    addString(element.getNamespaceURI(), strings, indexes);
+    addString(element.getTagName(), strings, indexes);
+    final NamedNodeMap attributes = element.getAttributes();
+    for (int i = 0; i < attributes.getLength(); i++) {
+      final Attr attribute = (Attr) attributes.item(i);
+      addString(attribute.getNamespaceURI(), strings, indexes);
+      addString(attribute.getName(), strings, indexes);
+      addString(attribute.getValue(), strings, indexes);
+    }
+    for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNodeType() == Node.ELEMENT_NODE) {
+        collectStrings((Element) child, strings, indexes);
+      }
+    }
+  }
+
+  private static void addString(String string, List strings, Map indexes) {
+    if (string != null && !indexes.containsKey(string)) {
+      indexes.put(string, Integer.valueOf(strings.size()));
+      strings.add(string);
+    }
+  }
+
+  private static int getIndex(Map indexes, String string) {
+    return (string == null ? NO_STRING : ((Integer) indexes.get(string)).intValue());
+  }
+
+  private static String getString(String[] strings, int index) {
+    return (index == NO_STRING ? null : strings[index]);
+  }
+}
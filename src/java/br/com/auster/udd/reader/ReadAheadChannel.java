@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A channel that reads another one ahead, in a producer thread. The thread
+ * fills a ring of buffers while the reader of this channel consumes the
+ * buffers already filled, so the reads of the input do not wait for the
+ * parsing, and the other way round.
+ * <p>
+ * The producer thread is started by the first <code>read()</code>. The
+ * source channel is not closed by <code>close()</code>: it belongs to
+ * whoever opened it. Closing this channel stops the producer, after the read
+ * it may be blocked in.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class ReadAheadChannel implements ReadableByteChannel {
+
+  public static final int DEFAULT_BUFFERS = 4;
+
+  // tells the reader that there are no more buffers
+  private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+  private final ReadableByteChannel source;
+
+  // the empty buffers, and the ones filled by the producer, in order
+  private final RingBuffer free, filled;
+
+  private final String threadName;
+
+  private Thread producer;
+
+  // the buffer being read, or null if a new one must be taken
+  private ByteBuffer current;
+
+  private boolean isEnded;
+
+  private volatile boolean isClosed;
+
+  // the error that stopped the producer
+  private volatile IOException error;
+
+  /**
+   * @param source
+   *          the channel read by the producer thread.
+   * @param buffers
+   *          the number of buffers of the ring, with <code>bufferSize</code>
+   *          bytes each.
+   */
+  public ReadAheadChannel(ReadableByteChannel source, int buffers, int bufferSize) {
+    this(source, buffers, bufferSize, "udd-read-ahead");
+  }
+
+  protected ReadAheadChannel(ReadableByteChannel source, int buffers, int bufferSize,
+                             String threadName) {
+    this.source = source;
+    this.threadName = threadName;
+    buffers = Math.max(buffers, 2);
+    this.free = new RingBuffer(buffers);
+    // there is always room for the end, after all the buffers
+    this.filled = new RingBuffer(buffers + 1);
+    for (int i = 0; i < buffers; i++) {
+      this.free.put(ByteBuffer.allocate(bufferSize));
+    }
+  }
+
+  /**
+   * Fills <code>buffer</code> with the next bytes of the input, until it is
+   * full or the input ends. Called by the producer thread.
+   * 
+   * @return false if the input ended.
+   */
+  protected boolean fill(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (this.source.read(buffer) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Called by <code>close()</code> after the producer stops, to release
+   * what the subclasses use to fill the buffers. Does nothing by default.
+   */
+  protected void closeInput() throws IOException {
+  }
+
+  /**
+   * The producer loop: fills the free buffers, until the end of the input,
+   * an error or <code>close()</code>.
+   */
+  private void produce() {
+    try {
+      boolean hasMore = true;
+      while (hasMore) {
+        final ByteBuffer buffer = (ByteBuffer) this.free.take();
+        if (buffer == null) {
+          return;
+        }
+        buffer.clear();
+        hasMore = fill(buffer);
+        buffer.flip();
+        if (!this.filled.put(buffer)) {
+          return;
+        }
+      }
+    } catch (IOException e) {
+      this.error = e;
+    } catch (RuntimeException e) {
+      final IOException error = new IOException("Read ahead failed: " + e);
+      error.initCause(e);
+      this.error = error;
+    } finally {
+      this.filled.put(END);
+    }
+  }
+
+  public int read(ByteBuffer dst) throws IOException {
+    if (this.isClosed) {
+      throw new ClosedChannelException();
+    } else if (this.producer == null) {
+      this.producer = new Thread(new Runnable() {
+        public void run() {
+          produce();
+        }
+      }, this.threadName);
+      this.producer.setDaemon(true);
+      this.producer.start();
+    }
+    while (this.current == null || !this.current.hasRemaining()) {
+      if (this.isEnded) {
+        return -1;
+      } else if (this.current != null) {
+        this.free.put(this.current);
+        this.current = null;
+      }
+      final ByteBuffer next = (ByteBuffer) this.filled.take();
+      if (next == null) {
+        throw new AsynchronousCloseException();
+      } else if (next == END) {
+        this.isEnded = true;
+        if (this.error != null) {
+          throw this.error;
+        }
+        return -1;
+      }
+      this.current = next;
+    }
+
+    final int count = Math.min(dst.remaining(), this.current.remaining());
+    if (count == this.current.remaining()) {
+      dst.put(this.current);
+    } else {
+      final int limit = this.current.limit();
+      this.current.limit(this.current.position() + count);
+      dst.put(this.current);
+      this.current.limit(limit);
+    }
+    return count;
+  }
+
+  public boolean isOpen() {
+    return !this.isClosed;
+  }
+
+  /**
+   * Stops the producer. It is not interrupted, since interrupting a thread
+   * blocked in a file read closes the file: it stops when it sees the rings
+   * aborted.
+   */
+  public void close() throws IOException {
+    if (this.isClosed) {
+      return;
+    }
+    this.isClosed = true;
+    this.free.abort();
+    this.filled.abort();
+    try {
+      if (this.producer != null) {
+        this.producer.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      this.current = null;
+      closeInput();
+    }
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.LinkedList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+
+import br.com.auster.common.xml.DOMUtils;
+
+/**
+ * Creates and reuses the readers of an <code>xml-reader</code> element. A
+ * factory may be shared by any number of threads: each thread gets a reader
+ * of its own with <code>acquire()</code>, parses its input with it, and gives
+ * it back with <code>release()</code>, so the next parse reuses the buffers
+ * of the reader instead of allocating them again.
+ * <p>
+ * The readers only keep the state of a parse, and are cheap to create: the
+ * layouts of their UDD files are shared by the <code>LayoutCache</code>.
+ * At most <code>getMaxIdle()</code> readers (8 by default) are kept while no
+ * thread uses them. A reader must not be used after it is released.
+ * </p>
+ * <p>
+ * The readers of an element with a <code>checkpoint-file</code> are never
+ * kept: they would all write their checkpoints to the same file, and the
+ * next parse could resume from the checkpoint of another one. For the same
+ * reason, <code>acquire()</code> refuses to give a second one until the
+ * first is released.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class ReaderFactory {
+
+  /**
+   * The default number of idle readers kept by a factory: {@value}
+   */
+  public static final int DEFAULT_MAX_IDLE = 8;
+
+  private static final String CLASS_NAME_ATTR = "class-name";
+
+  private static final String CHECKPOINT_FILE_ATTR = "checkpoint-file";
+
+  // a copy of the xml-reader element, only read while holding its lock
+  private final Element config;
+
+  private final Constructor constructor;
+
+  // false if the readers write checkpoints, and are not kept
+  private final boolean isPooled;
+
+  // true while a reader that writes the checkpoints is acquired
+  private boolean isCheckpointing;
+
+  private XMLReader checkpointReader;
+
+  // the readers released and not acquired again
+  private final LinkedList idle = new LinkedList();
+
+  private int maxIdle = DEFAULT_MAX_IDLE;
+
+  /**
+   * Creates a factory for the readers of the <code>xml-reader</code> element
+   * <code>config</code>. The element is copied, so it may change later.
+   * 
+   * @throws IllegalArgumentException
+   *           if the class of the readers is not an <code>XMLReader</code>.
+   */
+  public ReaderFactory(Element config) throws ClassNotFoundException, NoSuchMethodException,
+      ParserConfigurationException {
+    final Class type = Class.forName(DOMUtils.getAttribute(config, CLASS_NAME_ATTR, true));
+    if (!XMLReader.class.isAssignableFrom(type)) {
+      throw new IllegalArgumentException(type.getName() + " is not an XMLReader");
+    }
+    this.constructor = type.getConstructor(new Class[] { Element.class });
+    this.isPooled = (config.getAttribute(CHECKPOINT_FILE_ATTR).length() == 0);
+    final Document document = 
+      DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    this.config = (Element) document.importNode(config, true);
+    document.appendChild(this.config);
+  }
+
+  /**
+   * Gets a reader that only the current thread uses, until it is given back
+   * with <code>release()</code>.
+   * 
+   * @throws SAXException
+   *           if the readers write checkpoints and another one was acquired
+   *           and not released.
+   */
+  public XMLReader acquire() throws SAXException {
+    if (!this.isPooled) {
+      return acquireCheckpointReader();
+    }
+    synchronized (this) {
+      if (!this.idle.isEmpty()) {
+        return (XMLReader) this.idle.removeLast();
+      }
+    }
+    return newReader();
+  }
+
+  /**
+   * Creates the only reader that may write the checkpoints.
+   */
+  private XMLReader acquireCheckpointReader() throws SAXException {
+    synchronized (this) {
+      if (this.isCheckpointing) {
+        throw new SAXException("Another reader is writing the checkpoints to " 
+                               + this.config.getAttribute(CHECKPOINT_FILE_ATTR));
+      }
+      // taken before the reader is created, so no other thread gets one
+      this.isCheckpointing = true;
+    }
+    XMLReader reader = null;
+    try {
+      reader = newReader();
+      return reader;
+    } finally {
+      synchronized (this) {
+        this.checkpointReader = reader;
+        this.isCheckpointing = (reader != null);
+      }
+    }
+  }
+
+  /**
+   * Gives back a reader got with <code>acquire()</code>. Its handlers are
+   * removed and its features are reset, and it is kept for the next
+   * <code>acquire()</code>, unless there are already <code>getMaxIdle()</code>
+   * idle readers or the readers write checkpoints.
+   */
+  public void release(XMLReader reader) {
+    if (!this.isPooled) {
+      synchronized (this) {
+        if (reader != null && reader == this.checkpointReader) {
+          this.checkpointReader = null;
+          this.isCheckpointing = false;
+        }
+      }
+      return;
+    } else if (reader == null || reader.getClass() != this.constructor.getDeclaringClass()) {
+      return;
+    }
+    reader.setContentHandler(null);
+    reader.setDTDHandler(null);
+    reader.setEntityResolver(null);
+    reader.setErrorHandler(null);
+    try {
+      // a new reader does not resume the documents
+      reader.setFeature(FlatNIOReader.RESUME_FEATURE, false);
+    } catch (SAXNotRecognizedException e) {
+      // no such feature, nothing to reset
+    } catch (SAXNotSupportedException e) {
+      // no such feature, nothing to reset
+    }
+    synchronized (this) {
+      if (this.idle.size() < this.maxIdle) {
+        this.idle.addLast(reader);
+      }
+    }
+  }
+
+  /**
+   * Creates a new reader, which is not kept by the factory.
+   */
+  public XMLReader newReader() throws SAXException {
+    try {
+      // the config is a DOM tree, which is not safe to read by several
+      // threads at the same time
+      synchronized (this.config) {
+        return (XMLReader) this.constructor.newInstance(new Object[] { this.config });
+      }
+    } catch (InvocationTargetException e) {
+      final Throwable cause = e.getTargetException();
+      if (cause instanceof SAXException) {
+        throw (SAXException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new SAXException((Exception) cause);
+    } catch (InstantiationException e) {
+      throw new SAXException(e);
+    } catch (IllegalAccessException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  public synchronized int getMaxIdle() {
+    return this.maxIdle;
+  }
+
+  /**
+   * Sets the maximum number of idle readers kept. The idle readers above
+   * this number are dropped.
+   */
+  public synchronized void setMaxIdle(int maxIdle) {
+    this.maxIdle = Math.max(maxIdle, 0);
+    while (this.idle.size() > this.maxIdle) {
+      this.idle.removeFirst();
+    }
+  }
+
+  /**
+   * Gets the number of idle readers kept.
+   */
+  public synchronized int getIdleCount() {
+    return this.idle.size();
+  }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import br.com.auster.udd.node.StripedCounter;
+import br.com.auster.udd.node.UDDChoose;
+import br.com.auster.udd.node.UDDElement;
+
+/**
+ * The counters of the readers of a UDD file, published as the JMX MBean
+ * <code>br.com.auster.udd:type=ReaderMetrics,name="&lt;udd path&gt;"</code>.
+ * The readers only count when <code>metrics="true"</code> is set in their
+ * <code>xml-reader</code> element.
+ * <p>
+ * The counters are <code>StripedCounter</code>s, so the readers and their
+ * workers add to them at the same time without contention. Besides the
+ * bytes and records, each reader adds the counters of its layout, like the
+ * keys found by the blocks of a <code>TaggedFileReader</code> and the
+ * selections of the <code>when</code> elements of the chooses.
+ * </p>
+ * <p>
+ * The selections of the chooses are only counted by the layouts of the
+ * readers with metrics (see <code>Source.setCounting()</code>), so the other
+ * readers do not pay for them.
+ * </p>
+ * <p>
+ * The counters may also be written to a file every few seconds, with
+ * <code>startSnapshots()</code>. The metrics are registered until
+ * <code>unregister()</code> is called, which also stops the snapshots.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class ReaderMetrics implements ReaderMetricsMBean {
+
+  public static final String DOMAIN = "br.com.auster.udd";
+
+  private static final Logger log = Logger.getLogger(ReaderMetrics.class);
+
+  // Map<String(name), ReaderMetrics>
+  private static final Map INSTANCES = new HashMap();
+
+  /**
+   * Adds the counters of a layout to a map of counters.
+   */
+  public interface Source {
+
+    /**
+     * Adds the counters, by their names, to <code>counts</code>.
+     * 
+     * @param counts
+     *          a Map&lt;String, Long&gt;.
+     */
+    public void addCounts(Map counts);
+
+    /**
+     * Turns on or off the counters of the layout that cost time while parsing
+     * and are off by default, like the selections of the chooses.
+     */
+    public void setCounting(boolean counting);
+  }
+
+  private final String name;
+
+  private final StripedCounter bytesRead = new StripedCounter();
+
+  private final StripedCounter bytesDecoded = new StripedCounter();
+
+  private final StripedCounter records = new StripedCounter();
+
+  private final StripedCounter refills = new StripedCounter();
+
+  private final StripedCounter parses = new StripedCounter();
+
+  // the time of the parses finished, and the parses running with the sum of
+  // their start times, so the time they have spent so far is counted too
+  private long parseNanos;
+
+  private int activeParses;
+
+  private long activeStarts;
+
+  // the source of the last reader created
+  private volatile Source source;
+
+  private Timer timer;
+
+  private ReaderMetrics(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Gets the metrics of the readers of <code>name</code>, registering them
+   * in the platform MBean server when they are created.
+   */
+  public static ReaderMetrics getInstance(String name) {
+    synchronized (INSTANCES) {
+      ReaderMetrics metrics = (ReaderMetrics) INSTANCES.get(name);
+      if (metrics == null) {
+        metrics = new ReaderMetrics(name);
+        INSTANCES.put(name, metrics);
+        try {
+          ManagementFactory.getPlatformMBeanServer()
+                           .registerMBean(metrics, metrics.getObjectName());
+        } catch (JMException e) {
+          log.warn("Could not register the metrics of " + name, e);
+        }
+      }
+      return metrics;
+    }
+  }
+
+  public ObjectName getObjectName() throws JMException {
+    return new ObjectName(DOMAIN + ":type=ReaderMetrics,name=" + ObjectName.quote(this.name));
+  }
+
+  /**
+   * Counts the bytes read by a buffer refill.
+   */
+  public void addRead(long bytes) {
+    this.bytesRead.add(bytes);
+    this.refills.increment();
+  }
+
+  public void addDecoded(long bytes) {
+    this.bytesDecoded.add(bytes);
+  }
+
+  public void addRecord() {
+    this.records.increment();
+  }
+
+  /**
+   * Starts timing a parse, that must be ended with <code>endParse()</code>,
+   * even if it fails.
+   * 
+   * @return the start time of the parse.
+   */
+  public synchronized long startParse() {
+    final long start = System.nanoTime();
+    this.activeParses++;
+    this.activeStarts += start;
+    return start;
+  }
+
+  /**
+   * Counts a parse started at <code>start</code>, that finished or failed.
+   */
+  public synchronized void endParse(long start) {
+    this.activeParses--;
+    this.activeStarts -= start;
+    this.parses.increment();
+    this.parseNanos += System.nanoTime() - start;
+  }
+
+  /**
+   * Gets the time of the parses finished and of the running ones.
+   */
+  private synchronized long getParseNanos() {
+    return this.parseNanos + (this.activeParses * System.nanoTime() - this.activeStarts);
+  }
+
+  /**
+   * Sets the source of the counters of the layout, and turns its counting on.
+   */
+  public void setSource(Source source) {
+    if (source != null) {
+      source.setCounting(true);
+    }
+    this.source = source;
+  }
+
+  /**
+   * Removes these metrics from the platform MBean server, stops the
+   * snapshots and turns off the counting of the last source. The readers
+   * that still have these metrics keep counting in them, but the next
+   * <code>getInstance()</code> creates new ones.
+   */
+  public void unregister() {
+    synchronized (INSTANCES) {
+      if (INSTANCES.get(this.name) == this) {
+        INSTANCES.remove(this.name);
+        try {
+          ManagementFactory.getPlatformMBeanServer().unregisterMBean(getObjectName());
+        } catch (JMException e) {
+          log.warn("Could not unregister the metrics of " + this.name, e);
+        }
+      }
+    }
+    stopSnapshots();
+    final Source source = this.source;
+    if (source != null) {
+      source.setCounting(false);
+    }
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  public long getBytesRead() {
+    return this.bytesRead.get();
+  }
+
+  public long getBytesDecoded() {
+    return this.bytesDecoded.get();
+  }
+
+  public long getRecords() {
+    return this.records.get();
+  }
+
+  public long getBufferRefills() {
+    return this.refills.get();
+  }
+
+  public long getParses() {
+    return this.parses.get();
+  }
+
+  public synchronized int getActiveParses() {
+    return this.activeParses;
+  }
+
+  public long getParseMillis() {
+    return getParseNanos() / 1000000;
+  }
+
+  public double getRecordsPerSecond() {
+    final long nanos = getParseNanos();
+    return (nanos == 0 ? 0 : this.records.get() * 1e9 / nanos);
+  }
+
+  public Map getCounts() {
+    final Map counts = new TreeMap();
+    counts.put("bytesRead", Long.valueOf(getBytesRead()));
+    counts.put("bytesDecoded", Long.valueOf(getBytesDecoded()));
+    counts.put("records", Long.valueOf(getRecords()));
+    counts.put("bufferRefills", Long.valueOf(getBufferRefills()));
+    counts.put("parses", Long.valueOf(getParses()));
+    counts.put("activeParses", Long.valueOf(getActiveParses()));
+    counts.put("parseMillis", Long.valueOf(getParseMillis()));
+    final Source source = this.source;
+    if (source != null) {
+      source.addCounts(counts);
+    }
+    return counts;
+  }
+
+  /**
+   * Writes all the counters to <code>file</code>, one
+   * <code>name=value</code> per line. The counters are written to a
+   * temporary file first, so the file is always complete.
+   */
+  public void writeSnapshot(File file) throws IOException {
+    final File temp = new File(file.getPath() + ".tmp");
+    final PrintWriter writer = new PrintWriter(new FileWriter(temp));
+    try {
+      writer.println("# " + this.name + " at " + new Date());
+      for (Iterator it = getCounts().entrySet().iterator(); it.hasNext();) {
+        final Map.Entry entry = (Map.Entry) it.next();
+        writer.println(entry.getKey() + "=" + entry.getValue());
+      }
+      writer.println("recordsPerSecond=" + Math.round(getRecordsPerSecond()));
+    } finally {
+      writer.close();
+    }
+    if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+      throw new IOException("Could not replace " + file);
+    }
+  }
+
+  /**
+   * Writes the counters to <code>file</code> every <code>period</code>
+   * milliseconds, in a daemon thread. Only the first call starts writing.
+   */
+  public synchronized void startSnapshots(final File file, long period) {
+    if (this.timer != null) {
+      return;
+    }
+    this.timer = new Timer("UDD metrics " + file.getName(), true);
+    this.timer.schedule(new TimerTask() {
+      public void run() {
+        try {
+          writeSnapshot(file);
+        } catch (IOException e) {
+          log.warn("Could not write the metrics of " + ReaderMetrics.this.name + " to " + file, 
+                   e);
+        }
+      }
+    }, period, period);
+  }
+
+  /**
+   * Stops writing the counters started by <code>startSnapshots()</code>.
+   */
+  public synchronized void stopSnapshots() {
+    if (this.timer != null) {
+      this.timer.cancel();
+      this.timer = null;
+    }
+  }
+
+  /**
+   * Turns on or off the counting of the selections of the chooses in
+   * <code>element</code> and in its children.
+   */
+  public static void setCountingSelections(UDDElement element, boolean counting) {
+    if (element instanceof UDDChoose) {
+      ((UDDChoose) element).setCountingSelections(counting);
+    }
+    final List children = element.getChildElements();
+    for (int i = 0; i < children.size(); i++) {
+      setCountingSelections((UDDElement) children.get(i), counting);
+    }
+  }
+
+  /**
+   * Adds the selections of the chooses in <code>element</code> and in its
+   * children, as <code>&lt;prefix&gt;&lt;choose name&gt;[&lt;value&gt;]</code>.
+   * The <code>otherwise</code> elements have no value.
+   */
+  public static void addChooseCounts(String prefix, UDDElement element, Map counts) {
+    if (element instanceof UDDChoose) {
+      final Map selections = ((UDDChoose) element).getSelectionCounts();
+      for (Iterator it = selections.entrySet().iterator(); it.hasNext();) {
+        final Map.Entry entry = (Map.Entry) it.next();
+        final String value = (entry.getKey() == null ? "" : (String) entry.getKey());
+        addCount(counts, prefix + element.getName() + "[" + value + "]", 
+                 ((Long) entry.getValue()).longValue());
+      }
+    }
+    final List children = element.getChildElements();
+    for (int i = 0; i < children.size(); i++) {
+      addChooseCounts(prefix, (UDDElement) children.get(i), counts);
+    }
+  }
+
+  /**
+   * Adds <code>count</code> to the counter <code>name</code> of
+   * <code>counts</code>.
+   */
+  public static void addCount(Map counts, String name, long count) {
+    final Long old = (Long) counts.get(name);
+    counts.put(name, Long.valueOf(old == null ? count : old.longValue() + count));
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import java.util.Map;
+
+/**
+ * The JMX interface of <code>ReaderMetrics</code>.
+ *
+ * @version $Id$
+ */
+public interface ReaderMetricsMBean {
+
+  /**
+   * Gets the UDD path of the readers, or the class of the readers if they
+   * have no UDD file.
+   */
+  public String getName();
+
+  public long getBytesRead();
+
+  /**
+   * Gets the bytes decoded to chars. The records parsed by the byte engine
+   * are not decoded.
+   */
+  public long getBytesDecoded();
+
+  public long getRecords();
+
+  public long getBufferRefills();
+
+  /**
+   * Gets the parses finished, including the ones that failed.
+   */
+  public long getParses();
+
+  /**
+   * Gets the parses running now.
+   */
+  public int getActiveParses();
+
+  /**
+   * Gets the time spent by all the parses, in milliseconds, including the
+   * time spent so far by the ones running. The parses made at the same time
+   * are added.
+   */
+  public long getParseMillis();
+
+  /**
+   * Gets the records parsed per second of parsing.
+   */
+  public double getRecordsPerSecond();
+
+  /**
+   * Gets all the counters, by their names, including the ones of the
+   * layout of the readers.
+   * 
+   * @return a Map&lt;String, Long&gt; sorted by the names.
+   */
+  public Map getCounts();
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded ring that hands objects from one thread to another without
+ * locks. Exactly one thread may put objects in the ring, and exactly one
+ * other thread may take them, so the only shared state is the count of
+ * objects put and taken, each one written by a single thread.
+ * <p>
+ * A thread that finds the ring full, or empty, spins for a while, then
+ * yields and then parks for short periods, until the other thread catches
+ * up. <code>abort()</code> wakes both threads, which then give up.
+ * </p>
+ *
+ * @version $Id$
+ */
+final class RingBuffer {
+
+  // the waits that only spin, and then only yield, before parking
+  private static final int SPINS = 64, YIELDS = 128;
+
+  private static final long PARK_NANOS = 50 * 1000;
+
+  private final Object[] slots;
+
+  private final int mask;
+
+  // the number of objects taken, written only by the consumer
+  private volatile long head;
+
+  // the number of objects put, written only by the producer
+  private volatile long tail;
+
+  private volatile boolean isAborted;
+
+  /**
+   * @param capacity
+   *          the objects the ring holds at the same time, rounded up to a
+   *          power of two.
+   */
+  RingBuffer(int capacity) {
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.slots = new Object[size];
+    this.mask = size - 1;
+  }
+
+  /**
+   * Puts an object in the ring, waiting while it is full. Only called by the
+   * producer thread.
+   * 
+   * @return false if the ring was aborted, and the object was not put.
+   */
+  boolean put(Object value) {
+    final long tail = this.tail;
+    for (int waits = 0; tail - this.head >= this.slots.length; waits++) {
+      if (this.isAborted) {
+        return false;
+      }
+      backOff(waits);
+    }
+    this.slots[(int) tail & this.mask] = value;
+    // the volatile write publishes the slot to the consumer
+    this.tail = tail + 1;
+    return true;
+  }
+
+  /**
+   * Takes the oldest object of the ring, waiting while it is empty. Only
+   * called by the consumer thread.
+   * 
+   * @return the object, or null if the ring is empty and was aborted.
+   */
+  Object take() {
+    final long head = this.head;
+    for (int waits = 0; head >= this.tail; waits++) {
+      if (this.isAborted) {
+        return null;
+      }
+      backOff(waits);
+    }
+    final int index = (int) head & this.mask;
+    final Object value = this.slots[index];
+    this.slots[index] = null;
+    this.head = head + 1;
+    return value;
+  }
+
+  /**
+   * Makes the threads waiting, and the next ones that would wait, give up.
+   */
+  void abort() {
+    this.isAborted = true;
+  }
+
+  boolean isAborted() {
+    return this.isAborted;
+  }
+
+  private static void backOff(int waits) {
+    if (waits < SPINS) {
+      return;
+    } else if (waits < SPINS + YIELDS) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(PARK_NANOS);
+    }
+  }
+}
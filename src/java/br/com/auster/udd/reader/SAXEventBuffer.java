@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * A content handler that records the SAX events it receives, so they can be
+ * sent later, in the same order, to another content handler. It is used to
+ * parse parts of the input in other threads while keeping the output order.
+ * <p>
+ * Only the events that happen inside the document are recorded:
+ * <code>startDocument</code>, <code>endDocument</code> and
+ * <code>setDocumentLocator</code> are ignored.
+ * </p>
+ *
+ * @version $Id$
+ */
+public final class SAXEventBuffer implements ContentHandler {
+
+  private static final int START_ELEMENT = 0;
+
+  private static final int END_ELEMENT = 1;
+
+  private static final int CHARACTERS = 2;
+
+  private static final int IGNORABLE_WHITESPACE = 3;
+
+  private static final int PROCESSING_INSTRUCTION = 4;
+
+  private static final int START_PREFIX_MAPPING = 5;
+
+  private static final int END_PREFIX_MAPPING = 6;
+
+  private static final int SKIPPED_ENTITY = 7;
+
+  // one entry per event
+  private int[] types;
+
+  private int eventCount;
+
+  // the strings and attributes of the events, in order
+  private Object[] objects;
+
+  private int objectCount;
+
+  // the chars of the characters events, in order
+  private char[] chars;
+
+  private int charCount;
+
+  public SAXEventBuffer() {
+    this(1024);
+  }
+
+  /**
+   * @param expectedEvents
+   *          the number of events this buffer will be able to hold before
+   *          growing.
+   */
+  public SAXEventBuffer(int expectedEvents) {
+    this.types = new int[Math.max(expectedEvents, 16)];
+    this.objects = new Object[this.types.length * 2];
+    this.chars = new char[this.types.length * 8];
+  }
+
+  /**
+   * Sends all the recorded events, in the order they were received, to
+   * <code>handler</code>.
+   */
+  public void replay(ContentHandler handler) throws SAXException {
+    int object = 0, charOffset = 0;
+    for (int i = 0; i < this.eventCount; i++) {
+      switch (this.types[i]) {
+        case START_ELEMENT:
+          handler.startElement((String) this.objects[object],
+                               (String) this.objects[object + 1],
+                               (String) this.objects[object + 2],
+                               (Attributes) this.objects[object + 3]);
+          object += 4;
+          break;
+        case END_ELEMENT:
+          handler.endElement((String) this.objects[object],
+                             (String) this.objects[object + 1],
+                             (String) this.objects[object + 2]);
+          object += 3;
+          break;
+        case CHARACTERS:
+        case IGNORABLE_WHITESPACE:
+          final int length = ((Integer) this.objects[object++]).intValue();
+          if (this.types[i] == CHARACTERS) {
+            handler.characters(this.chars, charOffset, length);
+          } else {
+            handler.ignorableWhitespace(this.chars, charOffset, length);
+          }
+          charOffset += length;
+          break;
+        case PROCESSING_INSTRUCTION:
+          handler.processingInstruction((String) this.objects[object],
+                                        (String) this.objects[object + 1]);
+          object += 2;
+          break;
+        case START_PREFIX_MAPPING:
+          handler.startPrefixMapping((String) this.objects[object],
+                                     (String) this.objects[object + 1]);
+          object += 2;
+          break;
+        case END_PREFIX_MAPPING:
+          handler.endPrefixMapping((String) this.objects[object++]);
+          break;
+        case SKIPPED_ENTITY:
+          handler.skippedEntity((String) this.objects[object++]);
+          break;
+      }
+    }
+  }
+
+  /**
+   * Discards all recorded events, keeping the allocated memory.
+   */
+  public void clear() {
+    for (int i = 0; i < this.objectCount; i++) {
+      this.objects[i] = null;
+    }
+    this.eventCount = 0;
+    this.objectCount = 0;
+    this.charCount = 0;
+  }
+
+  /**
+   * @return true if no event was recorded since the last <code>clear()</code>.
+   */
+  public boolean isEmpty() {
+    return (this.eventCount == 0);
+  }
+
+  /**
+   * @return the number of recorded events.
+   */
+  public int size() {
+    return this.eventCount;
+  }
+
+  /** ************************************** */
+  /* Start of the ContentHandler implementation */
+  /** ************************************** */
+  public void startElement(String uri, String localName, String qName, Attributes atts) {
+    addEvent(START_ELEMENT, 4);
+    this.objects[this.objectCount++] = uri;
+    this.objects[this.objectCount++] = localName;
+    this.objects[this.objectCount++] = qName;
+    // the attributes are only valid during this call
+    this.objects[this.objectCount++] = new AttributesImpl(atts);
+  }
+
+  public void endElement(String uri, String localName, String qName) {
+    addEvent(END_ELEMENT, 3);
+    this.objects[this.objectCount++] = uri;
+    this.objects[this.objectCount++] = localName;
+    this.objects[this.objectCount++] = qName;
+  }
+
+  public void characters(char[] ch, int start, int length) {
+    addChars(CHARACTERS, ch, start, length);
+  }
+
+  public void ignorableWhitespace(char[] ch, int start, int length) {
+    addChars(IGNORABLE_WHITESPACE, ch, start, length);
+  }
+
+  public void processingInstruction(String target, String data) {
+    addEvent(PROCESSING_INSTRUCTION, 2);
+    this.objects[this.objectCount++] = target;
+    this.objects[this.objectCount++] = data;
+  }
+
+  public void startPrefixMapping(String prefix, String uri) {
+    addEvent(START_PREFIX_MAPPING, 2);
+    this.objects[this.objectCount++] = prefix;
+    this.objects[this.objectCount++] = uri;
+  }
+
+  public void endPrefixMapping(String prefix) {
+    addEvent(END_PREFIX_MAPPING, 1);
+    this.objects[this.objectCount++] = prefix;
+  }
+
+  public void skippedEntity(String name) {
+    addEvent(SKIPPED_ENTITY, 1);
+    this.objects[this.objectCount++] = name;
+  }
+
+  public void setDocumentLocator(Locator locator) {
+  }
+
+  public void startDocument() {
+  }
+
+  public void endDocument() {
+  }
+
+  /** ************************************ */
+  /* End of the ContentHandler implementation */
+  /** ************************************ */
+
+  private final void addChars(int type, char[] ch, int start, int length) {
+    addEvent(type, 1);
+    this.objects[this.objectCount++] = Integer.valueOf(length);
+    if (this.charCount + length > this.chars.length) {
+      final char[] newChars = new char[Math.max(this.chars.length * 2, this.charCount + length)];
+      System.arraycopy(this.chars, 0, newChars, 0, this.charCount);
+      this.chars = newChars;
+    }
+    System.arraycopy(ch, start, this.chars, this.charCount, length);
+    this.charCount += length;
+  }
+
+  private final void addEvent(int type, int objectsNeeded) {
+    if (this.eventCount == this.types.length) {
+      final int[] newTypes = new int[this.types.length * 2];
+      System.arraycopy(this.types, 0, newTypes, 0, this.eventCount);
+      this.types = newTypes;
+    }
+    if (this.objectCount + objectsNeeded > this.objects.length) {
+      final Object[] newObjects = new Object[Math.max(this.objects.length * 2,
+                                                      this.objectCount + objectsNeeded)];
+      System.arraycopy(this.objects, 0, newObjects, 0, this.objectCount);
+      this.objects = newObjects;
+    }
+    this.types[this.eventCount++] = type;
+  }
+}
@@ -18,12 +18,14 @@
 package br.com.auster.udd.reader;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -35,6 +37,7 @@ import org.xml.sax.helpers.AttributesImpl;
 
 import br.com.auster.common.util.I18n;
 import br.com.auster.common.xml.DOMUtils;
+import br.com.auster.udd.node.ParsePlan;
 import br.com.auster.udd.node.UDDChoose;
 import br.com.auster.udd.node.UDDContent;
 import br.com.auster.udd.node.UDDElement;
@@ -47,11 +50,58 @@ import br.com.auster.udd.node.UDDElement;
  */
 public class SimpleFlatFileReader extends FlatNIOReader {
 
+  /**
+   * The UDD configuration parsed by <code>parseUDD()</code>, kept in the
+   * <code>LayoutCache</code>.
+   */
+  private static final class Layout {
+
+    final String name;
+
+    final List elements;
+
+    final ParsePlan plan;
+
+    Layout(String name, List elements, ParsePlan plan) {
+      this.name = name;
+      this.elements = elements;
+      this.plan = plan;
+    }
+  }
+
+  /**
+   * The selections of the chooses of the elements, as
+   * <code>choose.&lt;name&gt;[&lt;value&gt;]</code>.
+   */
+  private static final class ChooseCounts implements ReaderMetrics.Source {
+
+    private final List elements;
+
+    ChooseCounts(List elements) {
+      this.elements = elements;
+    }
+
+    public void addCounts(Map counts) {
+      for (Iterator it = this.elements.iterator(); it.hasNext();) {
+        ReaderMetrics.addChooseCounts("choose.", (UDDElement) it.next(), counts);
+      }
+    }
+
+    public void setCounting(boolean counting) {
+      for (Iterator it = this.elements.iterator(); it.hasNext();) {
+        ReaderMetrics.setCountingSelections((UDDElement) it.next(), counting);
+      }
+    }
+  }
+
   // Instance variables
   protected final AttributesImpl atts = new org.xml.sax.helpers.AttributesImpl();
 
   protected List elements;
 
+  // the compiled elements, that parse the records
+  protected ParsePlan plan;
+
   protected String name;
 
   private final I18n i18n = I18n.getInstance(SimpleFlatFileReader.class);
@@ -83,6 +133,39 @@ public class SimpleFlatFileReader extends FlatNIOReader {
         this.elements.add(new UDDContent(element));
       }
     }
+    this.plan = ParsePlan.compile(this.elements);
+  }
+
+  /**
+   * The layouts may be shared by the readers of the same UDD file when all
+   * the elements may parse records in different threads at the same time.
+   * Subclasses must override it, and <code>setLayout()</code>, to share
+   * their own layouts.
+   */
+  protected Object getLayout() {
+    if (this.getClass() != SimpleFlatFileReader.class || !this.isParallelCapable()) {
+      return null;
+    }
+    return new Layout(this.name, this.elements, this.plan);
+  }
+
+  /**
+   * Uses a layout of this class. The layouts of the subclasses are not used,
+   * so they are parsed again unless the subclasses override it.
+   */
+  protected boolean setLayout(Object layout) {
+    if (!(layout instanceof Layout)) {
+      return false;
+    }
+    final Layout shared = (Layout) layout;
+    this.name = shared.name;
+    this.elements = shared.elements;
+    this.plan = shared.plan;
+    return true;
+  }
+
+  protected ReaderMetrics.Source getMetricsSource() {
+    return new ChooseCounts(this.elements);
   }
 
   /**
@@ -90,12 +173,50 @@ public class SimpleFlatFileReader extends FlatNIOReader {
    */
   protected void processRecord(ContentHandler handler, CharBuffer cb) throws SAXException {
     if (cb.length() > 0)
-      for (Iterator it = this.elements.iterator(); it.hasNext();)
-        try {
-          ((UDDElement) it.next()).parse(cb, handler);
-        } catch (ParseException e) {
-          throw new SAXException(e);
-        }
+      try {
+        this.plan.parse(cb, handler);
+      } catch (ParseException e) {
+        throw new SAXException(e);
+      }
+  }
+
+  /**
+   * Found a record by the byte engine. Process it.
+   */
+  protected void processRecord(ContentHandler handler, ByteBuffer record) throws SAXException {
+    if (record.hasRemaining())
+      try {
+        this.plan.parse(record, this.codec, handler);
+      } catch (ParseException e) {
+        throw new SAXException(e);
+      }
+  }
+
+  /**
+   * All the UDD nodes may parse the records from the input bytes, unless they
+   * replace the invalid XML chars: those are replaced in the chars of the
+   * record, which are seen by the next nodes of the same record.
+   */
+  protected boolean isByteCapable() {
+    for (Iterator it = this.elements.iterator(); it.hasNext();) {
+      if (((UDDElement) it.next()).isReplacingInvalidChars()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Records may be processed in parallel when all the elements may parse
+   * different records at the same time.
+   */
+  protected boolean isParallelCapable() {
+    for (Iterator it = this.elements.iterator(); it.hasNext();) {
+      if (!((UDDElement) it.next()).isParallelSafe()) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
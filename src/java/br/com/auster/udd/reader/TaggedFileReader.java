@@ -22,8 +22,15 @@ import gnu.trove.TIntStack;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.nio.CharBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -36,12 +43,39 @@ import org.xml.sax.helpers.AttributesImpl;
 
 import br.com.auster.common.util.I18n;
 import br.com.auster.common.xml.DOMUtils;
+import br.com.auster.udd.node.ParsePlan;
+import br.com.auster.udd.node.RecordAttributes;
+import br.com.auster.udd.node.StripedCounter;
 import br.com.auster.udd.node.UDDElement;
 import br.com.auster.udd.node.UDDKeyDefinition;
 import br.com.auster.udd.node.UDDNode;
+import br.com.auster.udd.node.ValueTable;
 
 /**
- * TODO class comments
+ * Reads files where each record starts with a key, that tells the block of
+ * the UDD file the record belongs to. The key of each record is found by the
+ * <code>key-definition</code> of the current block, or by the default one.
+ * A record with the <code>start-key</code> of a child block opens that block
+ * as a new element, and the record is parsed into its attributes and
+ * children; a record with the <code>end-key</code> of the current block, or
+ * the key of a block outside it, closes it. The line and the key of each
+ * block may be added to its element with <code>print-line-number</code> and
+ * <code>print-key</code>.
+ * <p>
+ * When the <code>parallel-workers</code> attribute of the
+ * <code>xml-reader</code> element is greater than one, the records are
+ * grouped in batches that start with a top level block (a child of the
+ * document), and each batch is parsed by one of the workers. The reading
+ * thread only follows the block hierarchy, to know where the top level blocks
+ * start; the SAX events and the log messages of each batch are sent in the
+ * file order, just like in a sequential parsing.
+ * </p>
+ * <p>
+ * The checkpoints of a sequential parsing keep the current line, the start
+ * keys of the open blocks and the entries of the last keys found in each one,
+ * so the block hierarchy is restored when the document is resumed. Parallel
+ * parsing takes no checkpoints.
+ * </p>
  * 
  * @version $Id: TaggedFileReader.java 53 2007-04-04 19:24:32Z rbarone $
  */
@@ -78,7 +112,7 @@ public final class TaggedFileReader extends FlatNIOReader {
   /**
 	 * This class is used to maintain a list of what components a block may have.
 	 */
-  private final class RecordBlock {
+  private static final class RecordBlock {
 
     // Map<RecordBlock(childs)>
     private final Map blocks = new HashMap();
@@ -93,6 +127,10 @@ public final class TaggedFileReader extends FlatNIOReader {
 
     public final UDDElement udd;
 
+    // the compiled udd, that parses the records of this block (null for the
+    // root)
+    public final ParsePlan plan;
+
     // WeakReference<RecordBlock>
     public final WeakReference parent;
     
@@ -102,14 +140,30 @@ public final class TaggedFileReader extends FlatNIOReader {
     // HashMap<String (child key name), String(UDDKeyDefinition name)>
     public final HashMap keyDefinitions = new HashMap();
 
+    // the blocks of the keys found in this block: the children by their
+    // start keys, and this block by its end key
+    private ValueTable blockKeys;
+
+    // the same as blockKeys, plus the compiled key definitions of the
+    // children by their key names, found by the default key
+    private ValueTable defaultKeys;
+
+    // the records that started this block, and the ones found out of order,
+    // only counted by the readers with metrics
+    private final StripedCounter hits = new StripedCounter();
+
+    private final StripedCounter orderingWarnings = new StripedCounter();
+
     /**
      * Given a root element, creates a record block for it and their children,
      * recursively.
      * 
      * @param root
      *          the root element defining this block.
+     * @param keyPlans
+     *          the compiled key definitions, by their names.
      */
-    public RecordBlock(Element root) throws SAXException {
+    public RecordBlock(Element root, Map keyPlans) throws SAXException {
       this.blockName = "";
       this.startKey = "";
       this.endKey = "";
@@ -117,10 +171,11 @@ public final class TaggedFileReader extends FlatNIOReader {
       this.skipFlag = false;
       this.index = 0;
       this.udd = null;
+      this.plan = null;
       this.parent = null;
       this.keyName = "ROOT";
       this.keyDefinitionName = null;
-      this.createChildren(root);
+      this.createChildren(root, keyPlans);
     }
 
     /**
@@ -131,14 +186,18 @@ public final class TaggedFileReader extends FlatNIOReader {
      *          the root element defining this block.
      * @param parent
      *          the parent record for this.
+     * @param keyPlans
+     *          the compiled key definitions, by their names.
      */
-    public RecordBlock(Element root, RecordBlock parent, String startKey, int index) throws SAXException {
+    public RecordBlock(Element root, RecordBlock parent, String startKey, int index, Map keyPlans)
+        throws SAXException {
       this.parent = new WeakReference(parent);
       this.blockName = DOMUtils.getAttribute(root, NAME_ATTR, true);
       this.startKey = startKey;     
       this.endKey = root.getAttribute(END_KEY_ATTR);
       this.skipFlag = DOMUtils.getBooleanAttribute(root, SKIP_KEY_ATTR);
       this.udd = new UDDElement(root, parent.udd);
+      this.plan = ParsePlan.compile(this.udd);
       this.label = DOMUtils.getAttribute(root, LABEL_ATTR, false);
       this.index = index;
       
@@ -151,10 +210,10 @@ public final class TaggedFileReader extends FlatNIOReader {
       	this.keyDefinitionName = null;
       }
       
-      this.createChildren(root);
+      this.createChildren(root, keyPlans);
     }
 
-    private final void createChildren(Element root) throws SAXException {
+    private final void createChildren(Element root, Map keyPlans) throws SAXException {
       String malformedAttr = null;
       if (this.parent == null && root.hasAttribute(UDDNode.REPLACE_MALFORMED_ATT)) {
         final boolean value = DOMUtils.getBooleanAttribute(root, UDDNode.REPLACE_MALFORMED_ATT);
@@ -173,12 +232,28 @@ public final class TaggedFileReader extends FlatNIOReader {
           element.setAttribute(UDDNode.REPLACE_MALFORMED_ATT, malformedAttr);
         }
         
-        final RecordBlock child = new RecordBlock(element, this, startKey, i);
+        final RecordBlock child = new RecordBlock(element, this, startKey, i, keyPlans);
         if (child.keyDefinitionName != null) {
         	this.keyDefinitions.put(child.keyName, child.keyDefinitionName);
         }
         this.blocks.put(startKey, child);
       }
+
+      // a child key hides the end key, and a key definition hides both
+      final Map keys = new HashMap();
+      if (this.endKey.length() > 0) {
+        keys.put(this.endKey, this);
+      }
+      keys.putAll(this.blocks);
+      this.blockKeys = new ValueTable(keys);
+      for (Iterator it = this.keyDefinitions.entrySet().iterator(); it.hasNext();) {
+        final Map.Entry entry = (Map.Entry) it.next();
+        final ParsePlan keyPlan = (ParsePlan) keyPlans.get(entry.getValue());
+        if (keyPlan != null) {
+          keys.put(entry.getKey(), keyPlan);
+        }
+      }
+      this.defaultKeys = new ValueTable(keys);
     }
 
     /**
@@ -196,6 +271,216 @@ public final class TaggedFileReader extends FlatNIOReader {
     public final RecordBlock getParent() {
       return (this.parent == null ? null : (RecordBlock) this.parent.get());
     }
+
+    /**
+     * Tells if this block and all its children may parse records in
+     * different threads at the same time.
+     */
+    public final boolean isParallelSafe() {
+      if (this.udd != null && !this.udd.isParallelSafe()) {
+        return false;
+      }
+      for (Iterator it = this.blocks.values().iterator(); it.hasNext();) {
+        if (!((RecordBlock) it.next()).isParallelSafe()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * The counters of the blocks, as <code>block.&lt;path&gt;.hits</code> and
+   * <code>block.&lt;path&gt;.orderingWarnings</code>, where the path has the
+   * names of the block and of its parents, and the selections of the chooses
+   * of the blocks, as <code>choose.&lt;path&gt;/&lt;name&gt;[&lt;value&gt;]</code>.
+   */
+  private static final class BlockCounts implements ReaderMetrics.Source {
+
+    private final RecordBlock root;
+
+    BlockCounts(RecordBlock root) {
+      this.root = root;
+    }
+
+    public void addCounts(Map counts) {
+      addCounts(this.root, "", counts);
+    }
+
+    private static void addCounts(RecordBlock block, String parentPath, Map counts) {
+      for (Iterator it = block.blocks.values().iterator(); it.hasNext();) {
+        final RecordBlock child = (RecordBlock) it.next();
+        final String path = parentPath + child.blockName;
+        ReaderMetrics.addCount(counts, "block." + path + ".hits", child.hits.get());
+        ReaderMetrics.addCount(counts, "block." + path + ".orderingWarnings", 
+                               child.orderingWarnings.get());
+        ReaderMetrics.addChooseCounts("choose." + path + "/", child.udd, counts);
+        addCounts(child, path + "/", counts);
+      }
+    }
+
+    public void setCounting(boolean counting) {
+      setCounting(this.root, counting);
+    }
+
+    private static void setCounting(RecordBlock block, boolean counting) {
+      for (Iterator it = block.blocks.values().iterator(); it.hasNext();) {
+        final RecordBlock child = (RecordBlock) it.next();
+        ReaderMetrics.setCountingSelections(child.udd, counting);
+        setCounting(child, counting);
+      }
+    }
+  }
+
+  /**
+   * The position of a parsing inside the block hierarchy. The reader keeps one
+   * for the sequential parsing; in parallel parsing, each batch of records
+   * has its own.
+   */
+  private static final class ParseState {
+
+    private RecordBlock currentBlock;
+
+    private int currentLine;
+
+    private final TIntStack lastEntry = new TIntStack();
+
+    // if true, only the block hierarchy is followed: no elements are started
+    // and nothing is logged
+    private final boolean isDryRun;
+
+    // List<String[]{level, message}> to be logged later, or null to log them
+    // as they are found
+    private final List messages;
+
+    // set when a record starts a child of the document, with the entry of the
+    // previous child of the document
+    private boolean isTopLevelStart;
+
+    private int topLevelEntry;
+
+    public ParseState(boolean isDryRun, boolean deferLogging) {
+      this.isDryRun = isDryRun;
+      this.messages = (deferLogging ? new ArrayList() : null);
+    }
+
+    /**
+     * Puts this state at the document level.
+     */
+    public void reset(RecordBlock root, int currentLine, int rootEntry) {
+      this.currentBlock = root;
+      this.currentLine = currentLine;
+      this.lastEntry.clear();
+      this.lastEntry.push(rootEntry);
+      this.isTopLevelStart = false;
+    }
+  }
+
+  /**
+   * A sequence of records, starting with a child of the document, that is
+   * parsed by a worker. The records are copied, since the reader buffers are
+   * reused for the next records.
+   */
+  private final class RecordBatch implements Callable {
+
+    private final ParseState state = new ParseState(false, true);
+
+    private final SAXEventBuffer events = new SAXEventBuffer();
+
+    // the end of the blocks that were open at the end of the batch, found
+    // with the first record of the next batch
+    private SAXEventBuffer closing;
+
+    private char[] chars = new char[BATCH_INITIAL_SIZE];
+
+    private int charCount = 0;
+
+    // start and end of each record in chars
+    private int[] bounds = new int[BATCH_INITIAL_SIZE / 32];
+
+    private int recordCount = 0;
+
+    public RecordBatch(int currentLine, int rootEntry) {
+      this.state.reset(uddRoot, currentLine, rootEntry);
+    }
+
+    public void add(CharBuffer cb) {
+      final int length = cb.remaining();
+      if (this.charCount + length > this.chars.length) {
+        final char[] newChars = new char[Math.max(this.chars.length * 2, this.charCount + length)];
+        System.arraycopy(this.chars, 0, newChars, 0, this.charCount);
+        this.chars = newChars;
+      }
+      if (2 * this.recordCount + 2 > this.bounds.length) {
+        final int[] newBounds = new int[this.bounds.length * 2];
+        System.arraycopy(this.bounds, 0, newBounds, 0, 2 * this.recordCount);
+        this.bounds = newBounds;
+      }
+      cb.duplicate().get(this.chars, this.charCount, length);
+      this.bounds[2 * this.recordCount] = this.charCount;
+      this.charCount += length;
+      this.bounds[2 * this.recordCount + 1] = this.charCount;
+      this.recordCount++;
+    }
+
+    public int length() {
+      return this.charCount;
+    }
+
+    public void setClosing(SAXEventBuffer closing) {
+      this.closing = closing;
+    }
+
+    public Object call() throws SAXException {
+      for (int i = 0; i < this.recordCount; i++) {
+        final int start = this.bounds[2 * i];
+        final CharBuffer record = CharBuffer.wrap(this.chars, start, this.bounds[2 * i + 1] - start);
+        processRecord(this.state, this.events, record.slice());
+      }
+      return this;
+    }
+
+    /**
+     * Logs the messages and sends the SAX events of this batch.
+     */
+    public void replay(ContentHandler handler) throws SAXException {
+      for (Iterator it = this.state.messages.iterator(); it.hasNext();) {
+        final String[] message = (String[]) it.next();
+        if (message[0] == WARN_LEVEL) {
+          TaggedFileReader.log.warn(message[1]);
+        } else {
+          TaggedFileReader.log.error(message[1]);
+        }
+      }
+      this.events.replay(handler);
+      if (this.closing != null) {
+        this.closing.replay(handler);
+      }
+    }
+  }
+
+  /**
+   * The UDD configuration parsed by <code>parseUDD()</code>, kept in the
+   * <code>LayoutCache</code>.
+   */
+  private static final class Layout {
+
+    final Map keyDefinitions, keyPlans;
+
+    final RecordBlock uddRoot;
+
+    final String documentName;
+
+    final boolean isPrintLineNumber, isPrintKey;
+
+    Layout(TaggedFileReader reader) {
+      this.keyDefinitions = reader.keyDefinitions;
+      this.keyPlans = reader.keyPlans;
+      this.uddRoot = reader.uddRoot;
+      this.documentName = reader.documentName;
+      this.isPrintLineNumber = reader.isPrintLineNumber;
+      this.isPrintKey = reader.isPrintKey;
+    }
   }
 
   /** *************************************** */
@@ -205,29 +490,69 @@ public final class TaggedFileReader extends FlatNIOReader {
   // The static variables
   private static final Logger log = Logger.getLogger(TaggedFileReader.class);
   private static final String UDD_MISSING_ATTR = "quiet-missing";
+  private static final String WARN_LEVEL = "WARN";
+  private static final String ERROR_LEVEL = "ERROR";
+  private static final int BATCH_INITIAL_SIZE = 64 * 1024;
   
   // Map<String(name), UDDKeyDefinition> - default key is null
   private Map keyDefinitions;
+
+  // Map<String(name), ParsePlan> - the compiled key definitions
+  private Map keyPlans;
   
-  private RecordBlock uddRoot, currentBlock;
+  private RecordBlock uddRoot;
 
-  private String documentName;
+  // the keys of the parsing state in the checkpoints
+  private static final String CHECKPOINT_LINE = "tagged.line";
+
+  private static final String CHECKPOINT_BLOCKS = "tagged.blocks";
+
+  private static final String CHECKPOINT_ENTRIES = "tagged.entries";
 
-  private int currentLine;
+  private String documentName;
 
   private boolean isPrintLineNumber, isPrintKey;
 
-  private final TIntStack lastEntry = new TIntStack();
+  private final ParseState state = new ParseState(false, false);
 
   private final I18n i18n = I18n.getInstance(TaggedFileReader.class);
 
   private boolean quietOnMissing;
 
+  // Parallel parsing: the workers, the state that follows the block hierarchy
+  // in the reading thread, the batch being filled and the ones being parsed
+  private final boolean isBlockParallel;
+
+  private final ParseState splitState = new ParseState(true, false);
+
+  private ExecutorService workers;
+
+  private RecordBatch batch;
+
+  private SAXEventBuffer closing;
+
+  // List<Future<RecordBatch>>, in the file order
+  private final LinkedList pending = new LinkedList();
+
   public TaggedFileReader(Element config) throws ParserConfigurationException, SAXException,
       IOException {
     super(config);
     this.quietOnMissing = Boolean.valueOf(DOMUtils.getAttribute(config, UDD_MISSING_ATTR, false))
         .booleanValue();
+    this.isBlockParallel = (this.parallelWorkers > 1 && isLayoutParallelSafe());
+  }
+
+  /**
+   * Tells if all the blocks and key definitions may parse records in
+   * different threads at the same time.
+   */
+  private final boolean isLayoutParallelSafe() {
+    for (Iterator it = this.keyDefinitions.values().iterator(); it.hasNext();) {
+      if (!((UDDKeyDefinition) it.next()).isParallelSafe()) {
+        return false;
+      }
+    }
+    return this.uddRoot.isParallelSafe();
   }
 
   /**
@@ -236,6 +561,7 @@ public final class TaggedFileReader extends FlatNIOReader {
   protected void parseUDD(Element uddConf, String uddFileName) throws SAXException {
   	// key definitions
   	this.keyDefinitions = new HashMap();
+  	this.keyPlans = new HashMap();
   	final NodeList keyDefs = DOMUtils.getElements(uddConf, UDDKeyDefinition.KEY_DEF_ELT);
   	if (keyDefs.getLength() == 0) {
   		throw new IllegalArgumentException("Key definition error: at least one default " + 
@@ -250,6 +576,7 @@ public final class TaggedFileReader extends FlatNIOReader {
 	  			                                   UDDKeyDefinition.KEY_DEF_ELT + " [" + name + "]");
 	  		}
 	  		this.keyDefinitions.put(name, keyDef);
+	  		this.keyPlans.put(name, ParsePlan.compile(keyDef));
 	  	}
   	}
   	
@@ -257,7 +584,37 @@ public final class TaggedFileReader extends FlatNIOReader {
     this.isPrintKey = DOMUtils.getBooleanAttribute(uddConf, PRINT_KEY_ATTR);
     
     this.documentName = DOMUtils.getAttribute(uddConf, NAME_ATTR, true);
-    this.uddRoot = new RecordBlock(uddConf);
+    this.uddRoot = new RecordBlock(uddConf, this.keyPlans);
+  }
+
+  /**
+   * Counts the keys found by each block and the selections of their chooses.
+   */
+  protected ReaderMetrics.Source getMetricsSource() {
+    return new BlockCounts(this.uddRoot);
+  }
+
+  /**
+   * The layouts may be shared by the readers of the same UDD file when all
+   * the blocks and key definitions may parse records in different threads at
+   * the same time.
+   */
+  protected Object getLayout() {
+    return (isLayoutParallelSafe() ? new Layout(this) : null);
+  }
+
+  protected boolean setLayout(Object layout) {
+    if (!(layout instanceof Layout)) {
+      return false;
+    }
+    final Layout shared = (Layout) layout;
+    this.keyDefinitions = shared.keyDefinitions;
+    this.keyPlans = shared.keyPlans;
+    this.uddRoot = shared.uddRoot;
+    this.documentName = shared.documentName;
+    this.isPrintLineNumber = shared.isPrintLineNumber;
+    this.isPrintKey = shared.isPrintKey;
+    return true;
   }
 
   /**
@@ -270,23 +627,98 @@ public final class TaggedFileReader extends FlatNIOReader {
    */
   protected final void processRecord(ContentHandler handler, CharBuffer cb)
 			throws SAXException {
-		this.currentLine++;
-		final String key = getKey(cb);
-		if (key != null) {
-			this.process(handler, cb, key);
+		if (this.isBlockParallel) {
+			this.splitRecord(cb);
+		} else {
+			this.processRecord(this.state, handler, cb);
 		}
 	}
 
+  /**
+   * Process a record found, in the given parsing state.
+   */
+  private final void processRecord(ParseState state, ContentHandler handler, CharBuffer cb)
+      throws SAXException {
+		state.currentLine++;
+		final Object block = findBlock(state, cb);
+		if (block != ParsePlan.NO_KEY) {
+			this.process(state, handler, cb, block);
+		}
+  }
+
+  /**
+   * Adds a record to the current batch. If the record starts a child of the
+   * document and the batch is big enough, the batch is sent to the workers
+   * and a new one is started with this record.
+   */
+  private final void splitRecord(CharBuffer cb) throws SAXException {
+    final int line = this.splitState.currentLine;
+    this.closing.clear();
+    this.splitState.isTopLevelStart = false;
+    // the end elements of the blocks closed by this record go to closing
+    this.processRecord(this.splitState, this.closing, cb);
+
+    if (this.splitState.isTopLevelStart && this.batch.length() >= this.parallelChunkSize) {
+      this.batch.setClosing(this.closing);
+      this.closing = new SAXEventBuffer(16);
+      this.submit(this.batch);
+      this.batch = new RecordBatch(line, this.splitState.topLevelEntry);
+    }
+    this.batch.add(cb);
+  }
+
+  /**
+   * Sends a batch to the workers, and the SAX events of the batches already
+   * parsed to the content handler, keeping the file order. If there are
+   * <code>parallelWindow</code> batches pending, waits for the first one.
+   */
+  private final void submit(RecordBatch batch) throws SAXException {
+    this.pending.addLast(this.workers.submit(batch));
+    try {
+      while (!this.pending.isEmpty()
+             && (this.pending.size() >= this.parallelWindow 
+                 || ((Future) this.pending.getFirst()).isDone())) {
+        ((RecordBatch) waitFor((Future) this.pending.removeFirst())).replay(this.handler);
+      }
+    } catch (IOException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  /**
+   * Finds the block of the key of a record, without creating the key. The
+   * key is found just like <code>getKey()</code> does, and matched with the
+   * keys of the current block.
+   * 
+   * @return a child of the current block, the current block itself for its
+   *         end key, null for the other keys, or <code>ParsePlan.NO_KEY</code>
+   *         if the record has no key.
+   */
+  private final Object findBlock(ParseState state, CharBuffer cb) throws SAXException {
+    try {
+      final RecordBlock currentBlock = state.currentBlock;
+      Object block = ((ParsePlan) this.keyPlans.get(null)).findKey(cb, currentBlock.defaultKeys);
+      if (block instanceof ParsePlan) {
+        // a key definition of a child
+        block = ((ParsePlan) block).findKey(cb, currentBlock.blockKeys);
+      }
+      return block;
+    } catch (Exception e) {
+      error(state, e.getMessage());
+      throw new SAXException(e);
+    }
+  }
+
   /**
    * Gets the tag name from a record
    */
-  private final String getKey(CharBuffer cb) throws SAXException {
+  private final String getKey(ParseState state, CharBuffer cb) throws SAXException {
   	try {
-  		String key = ((UDDKeyDefinition)this.keyDefinitions.get(null)).parseKey(cb.duplicate());
+  		String key = ((ParsePlan) this.keyPlans.get(null)).parseKey(cb.duplicate());
   		if (key != null) {
-  			final String keyDefName = (String) this.currentBlock.keyDefinitions.get(key);
+  			final String keyDefName = (String) state.currentBlock.keyDefinitions.get(key);
   			if (keyDefName != null) {
-  				final UDDKeyDefinition userKeyDef = (UDDKeyDefinition) this.keyDefinitions.get(keyDefName);
+  				final ParsePlan userKeyDef = (ParsePlan) this.keyPlans.get(keyDefName);
   				if (userKeyDef != null) {
   					key = userKeyDef.parseKey(cb.duplicate());
   				}
@@ -294,80 +726,100 @@ public final class TaggedFileReader extends FlatNIOReader {
   		}
   		return key;
   	} catch (Exception e) {
-      error(e.getMessage());
+      error(state, e.getMessage());
       throw new SAXException(e);
     }
   }
 
   /**
-   * Process the buffer using the key to find the RecordBlock.
+   * Process the buffer using the block found for its key.
+   * 
+   * @param block
+   *          the block found by <code>findBlock()</code>. The key itself is
+   *          only parsed for the log messages.
    */
-  protected final void process(ContentHandler handler, CharBuffer cb, String key)
+  private final void process(ParseState state, ContentHandler handler, CharBuffer cb, Object block)
       throws SAXException {
-    RecordBlock childBlock = this.currentBlock.getChildBlock(key);
+    final boolean isEndKey = (block == state.currentBlock);
+    RecordBlock childBlock = (isEndKey || !(block instanceof RecordBlock) ? null 
+                                                                          : (RecordBlock) block);
     if (childBlock != null) {
       // Checks the key ordering
       final int keyEntry = childBlock.index;
-      final int lastEntry = this.lastEntry.pop();
+      final int lastEntry = state.lastEntry.pop();
+      final boolean isCounted = (this.metrics != null && !state.isDryRun);
+      if (isCounted) {
+        childBlock.hits.increment();
+      }
       if (keyEntry < lastEntry) {
+        if (isCounted) {
+          childBlock.orderingWarnings.increment();
+        }
       	if (!this.quietOnMissing) {
-      		warn(i18n.getString("foundKeyAfter", key,
-      		                    this.currentBlock.startKey));
+      		warn(state, i18n.getString("foundKeyAfter", getKey(state, cb),
+      		                           state.currentBlock.startKey));
       	}
       }
 
       // Found a child of the current block
-      this.lastEntry.push(keyEntry);
+      state.lastEntry.push(keyEntry);
       if (childBlock.skipFlag) {
         return;
       }
-      this.currentBlock = childBlock;
-      this.lastEntry.push(0);
+      if (state.currentBlock == this.uddRoot) {
+        state.isTopLevelStart = true;
+        state.topLevelEntry = lastEntry;
+      }
+      state.currentBlock = childBlock;
+      state.lastEntry.push(0);
+      if (state.isDryRun) {
+        return;
+      }
 
       try {
-        final AttributesImpl atts = this.currentBlock.udd.getAttributes(cb);
+        final RecordAttributes atts = state.currentBlock.plan.getAttributes(cb);
         if (this.isPrintKey) {
-        	atts.addAttribute("", KEY_NAME_ATTR, KEY_NAME_ATTR, "CDATA", this.currentBlock.keyName);
+        	atts.addAttribute("", KEY_NAME_ATTR, KEY_NAME_ATTR, "CDATA", state.currentBlock.keyName);
         }
-        if (this.currentBlock.label != null && this.currentBlock.label.length() > 0) {
-          atts.addAttribute("", LABEL_ATTR, LABEL_ATTR, "CDATA", this.currentBlock.label);
+        if (state.currentBlock.label != null && state.currentBlock.label.length() > 0) {
+          atts.addAttribute("", LABEL_ATTR, LABEL_ATTR, "CDATA", state.currentBlock.label);
         }
 
         if (this.isPrintLineNumber) {
           // Insert the line number as an attribute of the block element
           atts.addAttribute("", LINE_NUMBER_ATTR, LINE_NUMBER_ATTR, "CDATA", Integer
-              .toString(this.currentLine));
+              .toString(state.currentLine));
         }
-        handler.startElement("", this.currentBlock.blockName, this.currentBlock.blockName, atts);
-        this.currentBlock.udd.getElements(cb, handler);
+        handler.startElement("", state.currentBlock.blockName, state.currentBlock.blockName, atts);
+        state.currentBlock.plan.getElements(cb, handler);
       } catch (Exception e) {
-        error(e.getMessage());
-        System.err.println(e.getMessage() + " - Full StackTrace:");
-        e.printStackTrace();
+        error(state, e.getMessage());
+        TaggedFileReader.log.error(e.getMessage() + " - Full StackTrace:", e);
         throw new SAXException(e);
       }
-    } else if (this.currentBlock.endKey.length() > 0) {
-      if (!this.currentBlock.endKey.equals(key)) {
+    } else if (state.currentBlock.endKey.length() > 0) {
+      if (!isEndKey) {
         if (!this.quietOnMissing) {
-          warn(i18n.getString("keyNotDefined", key, this.currentBlock.startKey));
+          warn(state, i18n.getString("keyNotDefined", getKey(state, cb),
+                                     state.currentBlock.startKey));
         }
       } else {
         // Ends the element
-        handler.endElement("", this.currentBlock.blockName, this.currentBlock.blockName);
+        handler.endElement("", state.currentBlock.blockName, state.currentBlock.blockName);
 
         // Gets back to the record block parent
-        this.currentBlock = this.currentBlock.getParent();
-        this.lastEntry.pop();
+        state.currentBlock = state.currentBlock.getParent();
+        state.lastEntry.pop();
       }
-    } else if (this.currentBlock.endKey.length() == 0) {
-      if (this.currentBlock.getParent() == null) {
-      	error(i18n.getString("couldNotFindKey", key));
+    } else if (state.currentBlock.endKey.length() == 0) {
+      if (state.currentBlock.getParent() == null) {
+      	error(state, i18n.getString("couldNotFindKey", getKey(state, cb)));
       } else {
-      	handler.endElement("", this.currentBlock.blockName, this.currentBlock.blockName);
+      	handler.endElement("", state.currentBlock.blockName, state.currentBlock.blockName);
 	      // Gets back to the record block parent
-	      this.lastEntry.pop();
-	      this.currentBlock = this.currentBlock.getParent();
-   	    process(handler, cb, getKey(cb));
+	      state.lastEntry.pop();
+	      state.currentBlock = state.currentBlock.getParent();
+   	    process(state, handler, cb, findBlock(state, cb));
       }
     }
   }
@@ -375,22 +827,42 @@ public final class TaggedFileReader extends FlatNIOReader {
   /**
    * Logs the message with the line number.
    */
-  private final void debug(String logMsg) {
-    TaggedFileReader.log.debug("TaggedFile - (line: " + this.currentLine + ") " + logMsg);
+  private final void debug(ParseState state, String logMsg) {
+    TaggedFileReader.log.debug("TaggedFile - (line: " + state.currentLine + ") " + logMsg);
   }
 
   /**
    * Logs the message with the line number.
    */
-  private final void warn(String logMsg) {
-    TaggedFileReader.log.warn(i18n.getString("taggedFileLine", new Integer(this.currentLine), logMsg));
+  private final void warn(ParseState state, String logMsg) {
+    log(state, WARN_LEVEL, logMsg);
   }
 
   /**
    * Logs the message with the line number.
    */
-  private final void error(String logMsg) {
-    TaggedFileReader.log.error(i18n.getString("taggedFileLine", new Integer(this.currentLine), logMsg));
+  private final void error(ParseState state, String logMsg) {
+    log(state, ERROR_LEVEL, logMsg);
+  }
+
+  /**
+   * Logs the message with the line number, or keeps it to be logged with the
+   * SAX events of its batch. Nothing is logged while only following the block
+   * hierarchy, since the same records will be parsed again.
+   */
+  private final void log(ParseState state, String level, String logMsg) {
+    if (state.isDryRun) {
+      return;
+    }
+    final String message = 
+      i18n.getString("taggedFileLine", Integer.valueOf(state.currentLine), logMsg);
+    if (state.messages != null) {
+      state.messages.add(new String[] { level, message });
+    } else if (level == WARN_LEVEL) {
+      TaggedFileReader.log.warn(message);
+    } else {
+      TaggedFileReader.log.error(message);
+    }
   }
 
   /**
@@ -401,15 +873,110 @@ public final class TaggedFileReader extends FlatNIOReader {
    *          the content handler used to output the SAX events.
    */
   protected final void startDocument(ContentHandler handler) throws SAXException {
-    this.currentBlock = this.uddRoot;
-    this.currentLine = 0;
-    this.lastEntry.clear();
-    this.lastEntry.push(0);
+    this.state.reset(this.uddRoot, 0, 0);
+    if (this.isBlockParallel) {
+      this.stopWorkers();
+      this.splitState.reset(this.uddRoot, 0, 0);
+      this.workers = createWorkers();
+      this.batch = new RecordBatch(0, 0);
+      this.closing = new SAXEventBuffer(16);
+      this.pending.clear();
+    }
 
     handler.startElement("", this.documentName, this.documentName, new AttributesImpl());
 
   }
 
+  /**
+   * Stops the batches still being parsed when the parsing fails.
+   */
+  protected final void abortDocument() {
+    this.stopWorkers();
+  }
+
+  /**
+   * Cancels the batches pending and stops the workers, if they were started.
+   */
+  private final void stopWorkers() {
+    for (Iterator it = this.pending.iterator(); it.hasNext();) {
+      ((Future) it.next()).cancel(true);
+    }
+    this.pending.clear();
+    this.batch = null;
+    if (this.workers != null) {
+      this.workers.shutdownNow();
+      this.workers = null;
+    }
+  }
+
+  /**
+   * Keeps the position of the parsing inside the block hierarchy.
+   */
+  protected final void saveCheckpoint(Checkpoint checkpoint) throws SAXException {
+    checkpoint.set(CHECKPOINT_LINE, this.state.currentLine);
+
+    final LinkedList keys = new LinkedList();
+    for (RecordBlock block = this.state.currentBlock; 
+         block != this.uddRoot; 
+         block = block.getParent()) {
+      keys.addFirst(block.startKey);
+    }
+    checkpoint.set(CHECKPOINT_BLOCKS, keys.size());
+    int level = 0;
+    for (Iterator it = keys.iterator(); it.hasNext(); level++) {
+      checkpoint.set(CHECKPOINT_BLOCKS + "." + level, (String) it.next());
+    }
+
+    // the stack is emptied and filled again, from the bottom to the top
+    final TIntStack lastEntry = this.state.lastEntry;
+    final int[] entries = new int[lastEntry.size()];
+    for (int i = entries.length - 1; i >= 0; i--) {
+      entries[i] = lastEntry.pop();
+    }
+    final StringBuffer value = new StringBuffer();
+    for (int i = 0; i < entries.length; i++) {
+      lastEntry.push(entries[i]);
+      value.append(i == 0 ? "" : ",").append(entries[i]);
+    }
+    checkpoint.set(CHECKPOINT_ENTRIES, value.toString());
+  }
+
+  /**
+   * Restores the position saved by <code>saveCheckpoint()</code>. The
+   * elements of the open blocks were already written before the checkpoint.
+   */
+  protected final void resumeDocument(ContentHandler handler, Checkpoint checkpoint)
+      throws SAXException {
+    this.state.reset(this.uddRoot, (int) checkpoint.getLong(CHECKPOINT_LINE), 0);
+    final int levels = (int) checkpoint.getLong(CHECKPOINT_BLOCKS);
+    for (int level = 0; level < levels; level++) {
+      final String key = checkpoint.get(CHECKPOINT_BLOCKS + "." + level);
+      final RecordBlock child = this.state.currentBlock.getChildBlock(key);
+      if (child == null) {
+        throw new SAXException("The checkpoint has a block not found in the UDD: " + key);
+      }
+      this.state.currentBlock = child;
+    }
+
+    final String[] entries = checkpoint.get(CHECKPOINT_ENTRIES).split(",");
+    if (entries.length != levels + 1) {
+      throw new SAXException("The checkpoint entries do not match its blocks: " 
+                             + checkpoint.get(CHECKPOINT_ENTRIES));
+    }
+    this.state.lastEntry.clear();
+    for (int i = 0; i < entries.length; i++) {
+      this.state.lastEntry.push(Integer.parseInt(entries[i]));
+    }
+  }
+
+  /**
+   * The blocks are split in batches by the parallel parsing, which has no
+   * checkpoints.
+   */
+  protected final boolean isCheckpointCapable() {
+    return !this.isBlockParallel;
+  }
+
   /**
    * Method called at the end of the document, before a call to
    * <code>handler.endDocument()</code>.
@@ -418,11 +985,25 @@ public final class TaggedFileReader extends FlatNIOReader {
    *          the content handler used to output the SAX events.
    */
   protected final void endDocument(ContentHandler handler) throws SAXException {
+    RecordBlock currentBlock = this.state.currentBlock;
+    if (this.isBlockParallel) {
+      try {
+        this.submit(this.batch);
+        while (!this.pending.isEmpty()) {
+          ((RecordBatch) waitFor((Future) this.pending.removeFirst())).replay(handler);
+        }
+      } catch (IOException e) {
+        throw new SAXException(e);
+      } finally {
+        this.stopWorkers();
+      }
+      currentBlock = this.splitState.currentBlock;
+    }
 	// only create an END tag if there is no ENDKEY defined, and the block has a defined name (this last condition excludes 	  
 	//    the ROOT element)
-	if (((this.currentBlock.endKey == null) || (this.currentBlock.endKey.trim().length() <= 0)) && 
-		((this.currentBlock.blockName != null) && (this.currentBlock.blockName.trim().length() > 0))) {
-		handler.endElement("", this.currentBlock.blockName, this.currentBlock.blockName);
+	if (((currentBlock.endKey == null) || (currentBlock.endKey.trim().length() <= 0)) && 
+		((currentBlock.blockName != null) && (currentBlock.blockName.trim().length() > 0))) {
+		handler.endElement("", currentBlock.blockName, currentBlock.blockName);
 	}
     handler.endElement("", this.documentName, this.documentName);
   }
@@ -58,6 +58,8 @@ public class MessagesBundle extends ListResourceBundle {
 					"Problems looking for separator in input: {0}."},
       {"decryptionFailed",
           "Problems decrypting UDD file descriptor: {0}."},
+      {"recordTooLong",
+          "No record separator in the {0} bytes after the input offset {1}. Increase max-record-size."},
   
       // TaggedFileReader.java
       {"keyAlreadyDefined",
@@ -58,6 +58,8 @@ public class MessagesBundle_pt_BR extends ListResourceBundle {
 					"Problemas ao procurar o separador na entrada: {0}."},
       {"decryptionFailed",
           "Problemas ao decriptografar o descritor UDD: {0}."},
+      {"recordTooLong",
+          "Nenhum separador de registros nos {0} bytes aps a posio {1} da entrada. Aumente o max-record-size."},
                      
       // TaggedFileReader.java
       {"keyAlreadyDefined", "A chave {0} j foi definida no bloco {1}."},
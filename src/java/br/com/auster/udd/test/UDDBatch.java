@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.sax.SAXSource;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import br.com.auster.common.cli.CLOption;
+import br.com.auster.common.cli.OptionsParser;
+import br.com.auster.common.io.IOUtils;
+import br.com.auster.common.io.NIOUtils;
+import br.com.auster.common.xml.DOMUtils;
+import br.com.auster.common.xml.sax.NIOInputSource;
+import br.com.auster.udd.reader.ReaderFactory;
+import br.com.auster.udd.transform.XMLSerializerResult;
+
+/**
+ * Transforms many input files with the same configuration, several files at
+ * a time. The readers are created by a single <code>ReaderFactory</code>, so
+ * the UDD is parsed only once, and each file is written to
+ * <code>&lt;output dir&gt;/&lt;input name&gt;.xml</code>. Inputs with the
+ * same name in different directories are refused, since they would be
+ * written to the same output. So are readers with a
+ * <code>checkpoint-file</code>: the files transformed at the same time would
+ * all write their checkpoints to it.
+ * <p>
+ * The inputs are a directory (all its files), a file, or a file name with
+ * the <code>*</code> and <code>?</code> wildcards, given by the argument
+ * <code>input</code>, and the files listed in the manifest given by the
+ * argument <code>manifest</code>, one per line. At the end, the throughput,
+ * the latency percentiles of the files and the failures are logged. The
+ * records are counted as the elements just under the root element of the
+ * output.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class UDDBatch {
+
+  public static final String CONF_PARAM = UDDTest.CONF_PARAM;
+
+  public static final String INPUT_PARAM = UDDTest.INPUT_PARAM;
+
+  public static final String MANIFEST_PARAM = "manifest";
+
+  public static final String OUTPUT_DIR_PARAM = "output-dir";
+
+  public static final String THREADS_PARAM = "threads";
+
+  public static final String ENCODING = "ISO-8859-1";
+
+  public static final String OUTPUT_SUFFIX = ".xml";
+
+  protected static final CLOption[] options = {
+      new CLOption(CONF_PARAM, 'x', true, true, "file", "the XML configuration file"),
+      new CLOption(INPUT_PARAM, 'i', false, true, "path", 
+                   "the input directory, file or file name pattern"),
+      new CLOption(MANIFEST_PARAM, 'm', false, true, "file", 
+                   "a file with the input files, one per line"),
+      new CLOption(OUTPUT_DIR_PARAM, 'o', true, true, "dir", "the output directory"),
+      new CLOption(THREADS_PARAM, 't', false, true, "number", 
+                   "the files transformed at a time (the number of processors by default)") };
+
+  /**
+   * The result of the transformation of an input file.
+   */
+  public static final class FileResult {
+
+    private final File input;
+
+    private long bytes, records, nanos;
+
+    private Exception error;
+
+    private FileResult(File input) {
+      this.input = input;
+    }
+
+    public File getInput() {
+      return this.input;
+    }
+
+    public long getBytes() {
+      return this.bytes;
+    }
+
+    public long getRecords() {
+      return this.records;
+    }
+
+    /**
+     * Gets the time taken by the file, in nanoseconds.
+     */
+    public long getNanos() {
+      return this.nanos;
+    }
+
+    /**
+     * @return the error that stopped the transformation, or null if it did
+     *         not fail.
+     */
+    public Exception getError() {
+      return this.error;
+    }
+  }
+
+  /**
+   * Counts the elements just under the root element, passing all the events
+   * to the content handler.
+   */
+  private static final class RecordCounter extends XMLFilterImpl {
+
+    private int depth;
+
+    private long records;
+
+    RecordCounter(XMLReader parent) {
+      super(parent);
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes atts)
+        throws SAXException {
+      if (++this.depth == 2) {
+        this.records++;
+      }
+      super.startElement(uri, localName, qName, atts);
+    }
+
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+      this.depth--;
+      super.endElement(uri, localName, qName);
+    }
+  }
+
+  protected final Logger log = Logger.getLogger(this.getClass());
+
+  private final ReaderFactory readerFactory;
+
+  private final int threads;
+
+  /**
+   * @throws IllegalArgumentException
+   *           if the readers write checkpoints.
+   */
+  public UDDBatch(Element config, int threads) throws Exception {
+    final Element readerConfig = DOMUtils.getElement(config, UDDTest.XML_READER_ELEMENT, true);
+    if (readerConfig.getAttribute(UDDTest.CHECKPOINT_FILE_ATTR).length() > 0) {
+      throw new IllegalArgumentException("Batches cannot write checkpoints: remove the " 
+                                         + UDDTest.CHECKPOINT_FILE_ATTR + " of the " 
+                                         + UDDTest.XML_READER_ELEMENT);
+    }
+    this.readerFactory = new ReaderFactory(readerConfig);
+    this.threads = Math.max(threads, 1);
+    this.readerFactory.setMaxIdle(this.threads);
+  }
+
+  /**
+   * Transforms all the <code>inputs</code>, writing them to
+   * <code>outputDir</code>. The failures of a file do not stop the others.
+   * 
+   * @return the <code>FileResult</code> of each input, in the same order.
+   * @throws IllegalArgumentException
+   *           if two inputs would be written to the same output. No input is
+   *           transformed then.
+   */
+  public List run(List inputs, File outputDir) throws InterruptedException {
+    final List outputs = getOutputs(inputs, outputDir);
+    final ExecutorService executor = 
+      new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.SECONDS,
+                             new LinkedBlockingQueue());
+    try {
+      final List futures = new ArrayList(inputs.size());
+      for (int i = 0; i < inputs.size(); i++) {
+        final File input = (File) inputs.get(i);
+        final File output = (File) outputs.get(i);
+        futures.add(executor.submit(new Callable() {
+          public Object call() {
+            return transform(input, output);
+          }
+        }));
+      }
+      final List results = new ArrayList(inputs.size());
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          results.add(((Future) futures.get(i)).get());
+        } catch (ExecutionException e) {
+          // transform() catches the exceptions, so it is an error
+          throw (Error) e.getCause();
+        }
+      }
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Gets the output file of each input, in the same order, checking that no
+   * two inputs have the same one: the transformations would overwrite each
+   * other, and the failure of one would remove the output of the other.
+   */
+  private static List getOutputs(List inputs, File outputDir) {
+    final List outputs = new ArrayList(inputs.size());
+    // Map<File, File>, from each output to its input
+    final Map inputsByOutput = new HashMap();
+    for (int i = 0; i < inputs.size(); i++) {
+      final File input = (File) inputs.get(i);
+      final File output = new File(outputDir, input.getName() + OUTPUT_SUFFIX);
+      final File previous = (File) inputsByOutput.put(output.getAbsoluteFile(), input);
+      if (previous != null) {
+        throw new IllegalArgumentException("The inputs " + previous + " and " + input 
+                                           + " would both be written to " + output);
+      }
+      outputs.add(output);
+    }
+    return outputs;
+  }
+
+  /**
+   * Transforms <code>input</code> into <code>output</code>. The output is
+   * removed if the transformation fails.
+   */
+  public FileResult transform(File input, File output) {
+    final FileResult result = new FileResult(input);
+    final long start = System.nanoTime();
+    try {
+      final XMLReader reader = this.readerFactory.acquire();
+      try {
+        final RecordCounter counter = new RecordCounter(reader);
+        final ReadableByteChannel channel = NIOUtils.openFileForRead(input);
+        try {
+          final NIOInputSource source = new NIOInputSource(channel);
+          source.setEncoding(ENCODING);
+          final OutputStream stream = IOUtils.openFileForWrite(output, false);
+          try {
+            new XMLSerializerResult(stream, ENCODING).parse(new SAXSource(counter, source));
+          } finally {
+            stream.close();
+          }
+        } finally {
+          channel.close();
+        }
+        result.bytes = input.length();
+        result.records = counter.records;
+      } finally {
+        this.readerFactory.release(reader);
+      }
+    } catch (Exception e) {
+      log.error("Could not transform " + input, e);
+      result.error = e;
+      output.delete();
+    }
+    result.nanos = System.nanoTime() - start;
+    return result;
+  }
+
+  /**
+   * Logs the throughput, the latency percentiles and the failures of the
+   * <code>results</code>.
+   * 
+   * @param nanos
+   *          the time taken by all the files.
+   */
+  public void report(List results, long nanos) {
+    final DecimalFormat df = new DecimalFormat("#,###,###,##0");
+    final DecimalFormat ms = new DecimalFormat("#,###,##0.0");
+    long bytes = 0, records = 0;
+    final List failures = new ArrayList();
+    final long[] latencies = new long[results.size()];
+    for (int i = 0; i < results.size(); i++) {
+      final FileResult result = (FileResult) results.get(i);
+      latencies[i] = result.nanos;
+      if (result.error != null) {
+        failures.add(result);
+      } else {
+        bytes += result.bytes;
+        records += result.records;
+      }
+    }
+    Arrays.sort(latencies);
+    final double seconds = Math.max(nanos, 1) / 1e9;
+    log.info("Files: " + results.size() + " (" + failures.size() + " failed) in "
+             + ms.format(nanos / 1e6) + " ms");
+    log.info("Bytes: " + df.format(bytes) + " (" + df.format(bytes / seconds) + "/s)");
+    log.info("Records: " + df.format(records) + " (" + df.format(records / seconds) + "/s)");
+    if (latencies.length > 0) {
+      log.info("Latency per file (ms): p50=" + ms.format(percentile(latencies, 50) / 1e6) 
+               + " p90=" + ms.format(percentile(latencies, 90) / 1e6) 
+               + " p99=" + ms.format(percentile(latencies, 99) / 1e6) 
+               + " max=" + ms.format(latencies[latencies.length - 1] / 1e6));
+    }
+    for (int i = 0; i < failures.size(); i++) {
+      final FileResult result = (FileResult) failures.get(i);
+      log.error("Failed: " + result.input + ": " + result.error);
+    }
+  }
+
+  /**
+   * Gets the nearest rank <code>percent</code> percentile of the sorted
+   * <code>values</code>.
+   */
+  private static long percentile(long[] values, int percent) {
+    final int rank = (int) Math.ceil(percent / 100.0 * values.length);
+    return values[Math.max(rank, 1) - 1];
+  }
+
+  /**
+   * Finds the files of <code>path</code>: all the files of a directory, a
+   * single file, or the files whose names match a pattern with the
+   * <code>*</code> and <code>?</code> wildcards.
+   */
+  public static List findInputs(String path) {
+    final File file = new File(path);
+    final List inputs = new ArrayList();
+    if (file.isDirectory()) {
+      addFiles(file.listFiles(), null, inputs);
+    } else if (file.getName().indexOf('*') >= 0 || file.getName().indexOf('?') >= 0) {
+      final File dir = (file.getParentFile() == null ? new File(".") : file.getParentFile());
+      addFiles(dir.listFiles(), toPattern(file.getName()), inputs);
+    } else {
+      inputs.add(file);
+    }
+    return inputs;
+  }
+
+  /**
+   * Reads the files listed in <code>manifest</code>, one per line. The
+   * empty lines and the ones starting with <code>#</code> are skipped.
+   */
+  public static List readManifest(File manifest) throws IOException {
+    final List inputs = new ArrayList();
+    final BufferedReader reader = new BufferedReader(new FileReader(manifest));
+    try {
+      for (String line; (line = reader.readLine()) != null;) {
+        line = line.trim();
+        if (line.length() > 0 && !line.startsWith("#")) {
+          inputs.add(new File(line));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return inputs;
+  }
+
+  private static void addFiles(File[] files, Pattern pattern, List inputs) {
+    if (files == null) {
+      return;
+    }
+    final List found = new ArrayList();
+    for (int i = 0; i < files.length; i++) {
+      if (files[i].isFile()
+          && (pattern == null || pattern.matcher(files[i].getName()).matches())) {
+        found.add(files[i]);
+      }
+    }
+    Collections.sort(found);
+    inputs.addAll(found);
+  }
+
+  private static Pattern toPattern(String wildcards) {
+    final StringBuffer regex = new StringBuffer();
+    for (int i = 0; i < wildcards.length(); i++) {
+      final char c = wildcards.charAt(i);
+      if (c == '*') {
+        regex.append(".*");
+      } else if (c == '?') {
+        regex.append('.');
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regex.toString());
+  }
+
+  private static Element readConfig(File configFile) throws Exception {
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    return dbf.newDocumentBuilder().parse(configFile).getDocumentElement();
+  }
+
+  public static void main(String[] args) throws Exception {
+    final OptionsParser parser = new OptionsParser(options, UDDBatch.class, "UDD Batch", true);
+    parser.parse(args);
+    final Element config = readConfig(new File(OptionsParser.getOptionValue(CONF_PARAM)));
+    UDDTest.configureLog4J(config);
+    final Logger log = Logger.getLogger(UDDBatch.class);
+
+    final List inputs = new ArrayList();
+    if (OptionsParser.getOptionValue(INPUT_PARAM) != null) {
+      inputs.addAll(findInputs(OptionsParser.getOptionValue(INPUT_PARAM)));
+    }
+    if (OptionsParser.getOptionValue(MANIFEST_PARAM) != null) {
+      inputs.addAll(readManifest(new File(OptionsParser.getOptionValue(MANIFEST_PARAM))));
+    }
+    final File outputDir = new File(OptionsParser.getOptionValue(OUTPUT_DIR_PARAM));
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      throw new IOException("Could not create the output directory " + outputDir);
+    }
+    final String threads = OptionsParser.getOptionValue(THREADS_PARAM);
+
+    final UDDBatch batch = 
+      new UDDBatch(config, (threads == null ? Runtime.getRuntime().availableProcessors()
+                                             : Integer.parseInt(threads)));
+    log.info("Transforming " + inputs.size() + " files with " + batch.threads + " threads.");
+    final long start = System.nanoTime();
+    final List results = batch.run(inputs, outputDir);
+    batch.report(results, System.nanoTime() - start);
+    for (int i = 0; i < results.size(); i++) {
+      if (((FileResult) results.get(i)).error != null) {
+        System.exit(1);
+      }
+    }
+  }
+}
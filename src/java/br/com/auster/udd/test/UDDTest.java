@@ -18,10 +18,11 @@
 package br.com.auster.udd.test;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.Writer;
-import java.nio.channels.Channels;
 import java.nio.channels.WritableByteChannel;
 import java.text.DecimalFormat;
 
@@ -46,6 +47,11 @@ import br.com.auster.common.io.IOUtils;
 import br.com.auster.common.io.NIOUtils;
 import br.com.auster.common.xml.DOMUtils;
 import br.com.auster.common.xml.sax.NIOInputSource;
+import br.com.auster.udd.reader.Checkpoint;
+import br.com.auster.udd.reader.CheckpointHandler;
+import br.com.auster.udd.reader.FlatNIOReader;
+import br.com.auster.udd.transform.ParallelGZIPOutputStream;
+import br.com.auster.udd.transform.XMLSerializerResult;
 
 /**
  * @version $Id: UDDTest.java 2 2005-04-22 16:38:31Z rbarone $
@@ -60,6 +66,8 @@ public class UDDTest {
 
   protected static final String CLASS_NAME_ATTR = "class-name";
 
+  protected static final String CHECKPOINT_FILE_ATTR = "checkpoint-file";
+
   public static final String SQL_CONF_PARAM = "sql-conf";
 
   public static final String CONF_PARAM = "xml-conf";
@@ -68,11 +76,19 @@ public class UDDTest {
 
   public static final String OUTPUT_PARAM = "output";
 
+  public static final String COMPRESS_PARAM = "compress-threads";
+
+  public static final String RESUME_PARAM = "resume";
+
   protected static final CLOption[] options = {
       new CLOption(SQL_CONF_PARAM, 's', false, true, "file", "the SQL configuration file"),
       new CLOption(CONF_PARAM, 'x', true, true, "file", "the XML configuration file"),
       new CLOption(INPUT_PARAM, 'i', true, true, "file", "the input file"),
-      new CLOption(OUTPUT_PARAM, 'o', true, true, "file", "the output file") };
+      new CLOption(OUTPUT_PARAM, 'o', true, true, "file", "the output file"),
+      new CLOption(COMPRESS_PARAM, 'z', false, true, "threads", 
+                   "compresses the output with gzip, using this number of threads"),
+      new CLOption(RESUME_PARAM, 'r', false, false, null, 
+                   "resumes the output from the last checkpoint of the xml-reader") };
 
   protected XMLReader xmlReader = null;
 
@@ -148,16 +164,49 @@ public class UDDTest {
     Result result = getResult(output);
 
     // Starts the input interpretation (transformation)
-    SAXTransformerFactory.newInstance().newTransformer().transform(source, result);
+    if (XMLSerializerResult.canParse(source, result)) {
+      ((XMLSerializerResult) result).parse((SAXSource) source);
+    } else {
+      SAXTransformerFactory.newInstance().newTransformer().transform(source, result);
+    }
+  }
+
+  /**
+   * Cuts the output of a document that is resumed at the position of the
+   * last checkpoint of the reader, or empties it if there is no checkpoint.
+   * The output is only truncated: if it is shorter than the checkpoint, the
+   * bytes written before the checkpoint were lost, and it cannot be resumed.
+   */
+  private static void cutOutput(File output, Element readerConfig) throws IOException {
+    final String checkpointFile = readerConfig.getAttribute(CHECKPOINT_FILE_ATTR);
+    if (checkpointFile.length() == 0) {
+      throw new IllegalArgumentException("The xml-reader has no checkpoint-file to resume from.");
+    }
+    final Checkpoint checkpoint = Checkpoint.read(new File(checkpointFile));
+    final long position = (checkpoint == null 
+                           ? 0 : checkpoint.getLong(CheckpointHandler.OUTPUT_POSITION));
+    final RandomAccessFile file = new RandomAccessFile(output, "rw");
+    try {
+      if (file.length() < position) {
+        throw new IOException("The output " + output + " has " + file.length() 
+                              + " bytes, less than the " + position 
+                              + " bytes of the checkpoint. It cannot be resumed.");
+      }
+      file.setLength(position);
+    } finally {
+      file.close();
+    }
   }
 
   protected Result getResult(Object output) throws Exception {
-    if (output instanceof ContentHandler) {
+    if (output instanceof Result) {
+      return (Result) output;
+    } else if (output instanceof ContentHandler) {
       return new SAXResult((ContentHandler) output);
     } else if (output instanceof WritableByteChannel) {
-      return new StreamResult(Channels.newOutputStream((WritableByteChannel) output));
+      return new XMLSerializerResult((WritableByteChannel) output, "UTF-8");
     } else if (output instanceof OutputStream) {
-      return new StreamResult((OutputStream) output);
+      return new XMLSerializerResult((OutputStream) output, "UTF-8");
     } else if (output instanceof Writer) {
       return new StreamResult((Writer) output);
     } else if (output instanceof File) {
@@ -201,12 +250,38 @@ public class UDDTest {
     log.info("Setting encoding to 'ISO-8859-1'.");
     input.setEncoding("ISO-8859-1");
     log.info("Opening output.");
-    OutputStream output = IOUtils.openFileForWrite(new File(OptionsParser
-        .getOptionValue(OUTPUT_PARAM)), false);
+    final File outputFile = new File(OptionsParser.getOptionValue(OUTPUT_PARAM));
+    final String compressThreads = OptionsParser.getOptionValue(COMPRESS_PARAM);
+    final boolean isResuming = (OptionsParser.getOptionValue(RESUME_PARAM) != null);
+    if (isResuming && compressThreads != null) {
+      throw new IllegalArgumentException("Compressed outputs cannot be resumed.");
+    }
+    final Element readerConfig = DOMUtils.getElement(config, XML_READER_ELEMENT, true);
+    final boolean isCheckpointed = 
+      (readerConfig.getAttribute(CHECKPOINT_FILE_ATTR).length() > 0);
+    // the serializer forces the file to the disk at each checkpoint, which
+    // needs the channel of the file stream itself
+    OutputStream output = (isCheckpointed && compressThreads == null 
+                           ? new FileOutputStream(outputFile, isResuming)
+                           : IOUtils.openFileForWrite(outputFile, isResuming));
+    if (compressThreads != null) {
+      log.info("Compressing the output with " + compressThreads + " threads.");
+      output = new ParallelGZIPOutputStream(output, Integer.parseInt(compressThreads));
+    }
+    final XMLSerializerResult result = new XMLSerializerResult(output, "ISO-8859-1");
+    if (isResuming) {
+      if (!result.getSerializer().canCheckpoint()) {
+        output.close();
+        throw new IllegalArgumentException("The output " + outputFile + " cannot be resumed.");
+      }
+      log.info("Resuming the output from the last checkpoint.");
+      cutOutput(outputFile, readerConfig);
+      test.xmlReader.setFeature(FlatNIOReader.RESUME_FEATURE, true);
+    }
 
     log.info("Running transformation.");
     sTime = System.currentTimeMillis();
-    test.process(input, new OutputStreamWriter(output, "ISO-8859-1"));
+    test.process(input, result);
     eTime = System.currentTimeMillis();
 
     long fE = rt.freeMemory();
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.transform;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A stream that writes the bytes compressed with gzip, deflating blocks of
+ * them in parallel. Each block is written as a complete gzip member, and a
+ * sequence of members is a valid gzip file (RFC 1952): <code>gzip -d</code>
+ * and <code>GZIPInputStream</code> inflate them as a single stream.
+ * <p>
+ * The blocks are deflated by a pool of threads while the next ones are
+ * filled, and are written to the output in order. At most twice the number
+ * of threads blocks are kept in memory. The dictionary of each block starts
+ * empty, which costs a little compression for the blocks of the default
+ * size.
+ * </p>
+ * <p>
+ * <code>flush()</code> ends the current block, so it should not be called
+ * too often. <code>finish()</code> writes the blocks left without closing the
+ * output, and <code>end()</code> also stops the threads created by the
+ * stream. Instances must not be shared by threads.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class ParallelGZIPOutputStream extends OutputStream implements WritableByteChannel {
+
+  public static final int DEFAULT_BLOCK_SIZE = 512 * 1024;
+
+  // the header of each member: no file name, time nor extra fields
+  private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0,
+      (byte) 0xff };
+
+  // seconds an idle thread waits for a new block
+  private static final long THREAD_KEEP_ALIVE = 5;
+
+  private final OutputStream output;
+
+  private final ExecutorService executor;
+
+  // true if the executor was created by this stream, so it is shut down
+  private final boolean isExecutorOwned;
+
+  private final int maxPending;
+
+  private final int blockSize;
+
+  private final int level;
+
+  // the futures of the blocks being deflated, in the output order
+  private final LinkedList pending = new LinkedList();
+
+  private byte[] block;
+
+  private int blockLength;
+
+  private boolean isEmpty = true;
+
+  private boolean isClosed;
+
+  private final byte[] single = new byte[1];
+
+  /**
+   * Creates a stream with a thread for each available processor.
+   */
+  public ParallelGZIPOutputStream(OutputStream output) {
+    this(output, Runtime.getRuntime().availableProcessors());
+  }
+
+  public ParallelGZIPOutputStream(OutputStream output, int threads) {
+    this(output, newExecutor(threads), Math.max(threads, 1), DEFAULT_BLOCK_SIZE,
+         Deflater.DEFAULT_COMPRESSION, true);
+  }
+
+  /**
+   * Creates a stream that deflates the blocks with <code>executor</code>,
+   * which may be shared by several streams. It is not shut down by
+   * <code>close()</code>.
+   * 
+   * @param threads
+   *          the number of blocks deflated at the same time by this stream.
+   * @param level
+   *          the compression level, from 0 to 9.
+   */
+  public ParallelGZIPOutputStream(OutputStream output, ExecutorService executor, int threads,
+                                  int blockSize, int level) {
+    this(output, executor, threads, blockSize, level, false);
+  }
+
+  private ParallelGZIPOutputStream(OutputStream output, ExecutorService executor, int threads,
+                                   int blockSize, int level, boolean isExecutorOwned) {
+    this.output = output;
+    this.executor = executor;
+    this.isExecutorOwned = isExecutorOwned;
+    this.maxPending = 2 * Math.max(threads, 1);
+    this.blockSize = Math.max(blockSize, 1024);
+    this.level = level;
+    this.block = new byte[this.blockSize];
+  }
+
+  /**
+   * Creates the threads of a stream. They end when idle, so streams that are
+   * finished but not closed do not keep them.
+   */
+  private static ExecutorService newExecutor(int threads) {
+    threads = Math.max(threads, 1);
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 
+                                                               THREAD_KEEP_ALIVE,
+                                                               TimeUnit.SECONDS, 
+                                                               new LinkedBlockingQueue(),
+                                                               new ThreadFactory() {
+      public Thread newThread(Runnable task) {
+        final Thread thread = new Thread(task, "udd-deflater");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  public void write(int b) throws IOException {
+    this.single[0] = (byte) b;
+    write(this.single, 0, 1);
+  }
+
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    while (len > 0) {
+      final int count = Math.min(len, this.blockSize - this.blockLength);
+      System.arraycopy(b, off, this.block, this.blockLength, count);
+      this.blockLength += count;
+      off += count;
+      len -= count;
+      if (this.blockLength == this.blockSize) {
+        submitBlock();
+      }
+    }
+  }
+
+  public int write(ByteBuffer src) throws IOException {
+    ensureOpen();
+    final int written = src.remaining();
+    while (src.hasRemaining()) {
+      final int count = Math.min(src.remaining(), this.blockSize - this.blockLength);
+      src.get(this.block, this.blockLength, count);
+      this.blockLength += count;
+      if (this.blockLength == this.blockSize) {
+        submitBlock();
+      }
+    }
+    return written;
+  }
+
+  /**
+   * Ends the current block and writes all the blocks to the output.
+   */
+  public void flush() throws IOException {
+    ensureOpen();
+    submitBlock();
+    writePending(0);
+    this.output.flush();
+  }
+
+  /**
+   * Writes all the blocks to the output, without closing it. A stream with
+   * no bytes is written as an empty gzip member.
+   */
+  public void finish() throws IOException {
+    ensureOpen();
+    if (this.isEmpty && this.blockLength == 0) {
+      this.pending.addLast(this.executor.submit(new DeflateTask(new byte[0], 0, this.level)));
+      this.isEmpty = false;
+    }
+    submitBlock();
+    writePending(0);
+    this.output.flush();
+  }
+
+  public boolean isOpen() {
+    return !this.isClosed;
+  }
+
+  /**
+   * Writes all the blocks to the output, without closing it, and stops the
+   * threads created by this stream. The stream is closed.
+   */
+  public void end() throws IOException {
+    close(false);
+  }
+
+  public void close() throws IOException {
+    close(true);
+  }
+
+  private void close(boolean isOutputClosed) throws IOException {
+    if (this.isClosed) {
+      return;
+    }
+    try {
+      finish();
+      if (isOutputClosed) {
+        this.output.close();
+      }
+    } finally {
+      this.isClosed = true;
+      if (this.isExecutorOwned) {
+        this.executor.shutdown();
+      }
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (this.isClosed) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  /**
+   * Starts deflating the current block, if it has any bytes, and waits for
+   * the oldest blocks while there are too many of them.
+   */
+  private void submitBlock() throws IOException {
+    if (this.blockLength == 0) {
+      return;
+    }
+    this.pending.addLast(this.executor.submit(new DeflateTask(this.block, this.blockLength,
+                                                              this.level)));
+    this.isEmpty = false;
+    this.block = new byte[this.blockSize];
+    this.blockLength = 0;
+    writePending(this.maxPending);
+  }
+
+  /**
+   * Writes the deflated blocks, in order, until at most <code>max</code>
+   * blocks are left.
+   */
+  private void writePending(int max) throws IOException {
+    while (this.pending.size() > max) {
+      final Future future = (Future) this.pending.removeFirst();
+      try {
+        final ByteBuffer member = (ByteBuffer) future.get();
+        this.output.write(member.array(), 0, member.limit());
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while deflating");
+      } catch (ExecutionException e) {
+        final IOException error = new IOException("Deflate failed: " + e.getCause());
+        error.initCause(e.getCause());
+        throw error;
+      }
+    }
+  }
+
+  /**
+   * Deflates a block into a gzip member.
+   */
+  private static final class DeflateTask implements Callable {
+
+    private final byte[] block;
+
+    private final int length;
+
+    private final int level;
+
+    DeflateTask(byte[] block, int length, int level) {
+      this.block = block;
+      this.length = length;
+      this.level = level;
+    }
+
+    public Object call() {
+      final Deflater deflater = new Deflater(this.level, true);
+      try {
+        deflater.setInput(this.block, 0, this.length);
+        deflater.finish();
+        // stored blocks add 5 bytes for each 16K, plus the header and trailer
+        byte[] out = new byte[this.length + this.length / 1024 + 64];
+        System.arraycopy(HEADER, 0, out, 0, HEADER.length);
+        int count = HEADER.length;
+        while (!deflater.finished()) {
+          if (count == out.length) {
+            final byte[] bigger = new byte[out.length * 2];
+            System.arraycopy(out, 0, bigger, 0, count);
+            out = bigger;
+          }
+          count += deflater.deflate(out, count, out.length - count);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(this.block, 0, this.length);
+        if (count + 8 > out.length) {
+          final byte[] bigger = new byte[count + 8];
+          System.arraycopy(out, 0, bigger, 0, count);
+          out = bigger;
+        }
+        count = writeInt(out, count, (int) crc.getValue());
+        count = writeInt(out, count, this.length);
+        final ByteBuffer member = ByteBuffer.wrap(out);
+        member.limit(count);
+        return member;
+      } finally {
+        deflater.end();
+      }
+    }
+
+    // gzip integers are little endian
+    private static int writeInt(byte[] out, int offset, int value) {
+      out[offset] = (byte) value;
+      out[offset + 1] = (byte) (value >>> 8);
+      out[offset + 2] = (byte) (value >>> 16);
+      out[offset + 3] = (byte) (value >>> 24);
+      return offset + 4;
+    }
+  }
+}
@@ -18,6 +18,7 @@
 package br.com.auster.udd.transform;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
@@ -43,6 +44,7 @@ import javax.xml.transform.stream.StreamSource;
 import org.w3c.dom.Node;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
 /**
@@ -61,11 +63,41 @@ public abstract class UDDAbstractTransformation implements UDDTransformation {
 
   private XMLReader reader;
 
+  // the compressed stream of the result, ended by transform()
+  private ParallelGZIPOutputStream compressedOutput;
+
   public void transform() throws TransformerConfigurationException, TransformerException {
 
-    this.sft = SAXTransformerFactory.newInstance();
-    this.transformer = sft.newTransformer();
-    this.transformer.transform(this.entrada, this.saida);
+    boolean isTransformed = false;
+    try {
+      if (XMLSerializerResult.canParse(this.entrada, this.saida)) {
+        // the reader writes directly to the serializer, without the identity
+        // transformation
+        try {
+          ((XMLSerializerResult) this.saida).parse((SAXSource) this.entrada);
+        } catch (IOException e) {
+          throw new TransformerException(e);
+        } catch (SAXException e) {
+          throw new TransformerException(e);
+        }
+      } else {
+        this.sft = SAXTransformerFactory.newInstance();
+        this.transformer = sft.newTransformer();
+        this.transformer.transform(this.entrada, this.saida);
+      }
+      isTransformed = true;
+    } finally {
+      if (this.compressedOutput != null) {
+        // stops the compression threads, even if the transformation failed
+        try {
+          this.compressedOutput.end();
+        } catch (IOException e) {
+          if (isTransformed) {
+            throw new TransformerException(e);
+          }
+        }
+      }
+    }
   }
 
   /**
@@ -130,6 +162,7 @@ public abstract class UDDAbstractTransformation implements UDDTransformation {
 
   public void setResult(Result saida) throws Exception {
 
+    this.compressedOutput = null;
     if (saida instanceof ContentHandler) {
       this.saida = new SAXResult((ContentHandler) saida);
     } else if (saida instanceof WritableByteChannel) {
@@ -144,12 +177,37 @@ public abstract class UDDAbstractTransformation implements UDDTransformation {
       this.saida = new DOMResult((Node) saida);
     } else if (saida instanceof DOMResult) {
       this.saida = saida;
+    } else if (saida instanceof XMLSerializerResult) {
+      this.saida = saida;
     } else {
       throw new Exception("Unsupported output type: " + saida.getClass());
     }
 
   }
 
+  /**
+   * Defines the result as the XML text written to <code>output</code>,
+   * compressed with gzip by <code>compressThreads</code> threads (see
+   * <code>ParallelGZIPOutputStream</code>). The gzip stream is ended, and its
+   * threads stopped, at the end of <code>transform()</code>, but
+   * <code>output</code> is not closed.
+   * 
+   * @param compressThreads
+   *          the number of threads that compress the output, or zero to
+   *          write it without compression.
+   */
+  public void setResult(OutputStream output, String encoding, int compressThreads)
+      throws Exception {
+    if (compressThreads > 0) {
+      final ParallelGZIPOutputStream compressed = 
+        new ParallelGZIPOutputStream(output, compressThreads);
+      setResult(new XMLSerializerResult((WritableByteChannel) compressed, encoding));
+      this.compressedOutput = compressed;
+    } else {
+      setResult(new XMLSerializerResult(output, encoding));
+    }
+  }
+
   public Result getResult() {
     return saida;
   }
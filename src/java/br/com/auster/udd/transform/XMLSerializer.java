@@ -0,0 +1,498 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.transform;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+import br.com.auster.udd.node.RecordAttributes;
+import br.com.auster.udd.reader.Checkpoint;
+import br.com.auster.udd.reader.CheckpointHandler;
+
+/**
+ * A content handler that writes the SAX events it receives as XML text, to a
+ * channel. The text is escaped directly into a char buffer, that is encoded
+ * into the channel only when it is full, and at the end of the document.
+ * <p>
+ * The output is the same of the identity transformation with a
+ * <code>StreamResult</code>: no indentation, empty elements written as
+ * <code>&lt;name/&gt;</code>, and chars that cannot be encoded written as
+ * character references. Like the identity transformation, the chars above
+ * U+FFFF are also written as character references, except in UTF-16 and
+ * UTF-32, which write them as they are.
+ * </p>
+ * <p>
+ * Instances are not thread safe, and may be reused for other documents, one
+ * after the other, with <code>setOutput()</code>.
+ * </p>
+ * <p>
+ * The readers that write checkpoints flush the serializer at each one, and
+ * keep the number of bytes written since <code>startDocument()</code>, forcing
+ * them to the disk when the output is a <code>FileChannel</code>. A
+ * document resumed from a checkpoint is appended to the output cut at that
+ * position.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class XMLSerializer implements CheckpointHandler {
+
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  // true in the checkpoints taken right after a start tag
+  private static final String START_TAG_OPEN = "output.start-tag-open";
+
+  // the chars that must be escaped in text and in attribute values, besides
+  // the ones that cannot be encoded
+  private static final boolean[] TEXT_ESCAPES = new boolean[0xA0];
+
+  private static final boolean[] ATTRIBUTE_ESCAPES = new boolean[0x80];
+
+  static {
+    for (int c = 0; c < 0x20; c++) {
+      TEXT_ESCAPES[c] = ATTRIBUTE_ESCAPES[c] = true;
+    }
+    for (int c = 0x7F; c < 0xA0; c++) {
+      TEXT_ESCAPES[c] = true;
+    }
+    TEXT_ESCAPES['\t'] = TEXT_ESCAPES['\n'] = false;
+    TEXT_ESCAPES['&'] = TEXT_ESCAPES['<'] = TEXT_ESCAPES['>'] = true;
+    ATTRIBUTE_ESCAPES['&'] = ATTRIBUTE_ESCAPES['<'] = ATTRIBUTE_ESCAPES['>'] = true;
+    ATTRIBUTE_ESCAPES['"'] = true;
+  }
+
+  private WritableByteChannel channel;
+
+  private final Charset charset;
+
+  private final CharsetEncoder encoder;
+
+  // used only to check if a char can be encoded, since checking resets the
+  // encoder
+  private final CharsetEncoder probe;
+
+  // the highest char that is always encoded, without checking it
+  private final int maxEncodedChar;
+
+  // true if the surrogate pairs are written as character references
+  private final boolean isPairEscaped;
+
+  private final char[] chars;
+
+  private final CharBuffer charBuffer;
+
+  private int charCount;
+
+  private final ByteBuffer bytes;
+
+  // true while the '>' of the last start tag was not written yet
+  private boolean isStartTagOpen;
+
+  // the bytes written since the start of the document
+  private long position;
+
+  // the namespaces declared for the next start tag: prefix, uri, ...
+  private String[] namespaces = new String[8];
+
+  private int namespaceCount;
+
+  /**
+   * Creates a serializer that writes to <code>channel</code>.
+   *
+   * @param channel
+   *          the channel where the document will be written to. It is not
+   *          closed at the end of the document.
+   * @param encoding
+   *          the name of the encoding of the output.
+   */
+  public XMLSerializer(WritableByteChannel channel, String encoding) {
+    this(channel, encoding, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a serializer that writes to <code>channel</code>.
+   *
+   * @param channel
+   *          the channel where the document will be written to. It is not
+   *          closed at the end of the document.
+   * @param encoding
+   *          the name of the encoding of the output.
+   * @param bufferSize
+   *          the number of chars kept before encoding and writing them.
+   */
+  public XMLSerializer(WritableByteChannel channel, String encoding, int bufferSize) {
+    this.channel = channel;
+    this.charset = Charset.forName(encoding);
+    this.encoder = this.charset.newEncoder();
+    this.probe = this.charset.newEncoder();
+    final String name = this.charset.name();
+    if (name.startsWith("UTF-")) {
+      // surrogates are always escaped
+      this.maxEncodedChar = Character.MIN_HIGH_SURROGATE - 1;
+    } else if ("ISO-8859-1".equals(name)) {
+      this.maxEncodedChar = 0xFF;
+    } else {
+      this.maxEncodedChar = 0x7F;
+    }
+    this.isPairEscaped = !(name.startsWith("UTF-16") || name.startsWith("UTF-32"));
+    this.chars = new char[Math.max(bufferSize, 1024)];
+    this.charBuffer = CharBuffer.wrap(this.chars);
+    this.bytes = ByteBuffer.allocate((int) (this.chars.length * this.encoder.maxBytesPerChar()));
+  }
+
+  /**
+   * Changes the channel where the next documents will be written to.
+   */
+  public void setOutput(WritableByteChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Writes all the chars kept in the buffer to the channel. The chars the
+   * encoder cannot take yet, like a high surrogate without the low one, are
+   * moved to the start of the buffer and written by the next flush.
+   */
+  public void flush() throws IOException {
+    this.charBuffer.clear().limit(this.charCount);
+    CoderResult result;
+    do {
+      result = this.encoder.encode(this.charBuffer, this.bytes, false);
+      if (result.isError()) {
+        result.throwException();
+      }
+      write();
+    } while (result.isOverflow());
+    this.charCount = this.charBuffer.remaining();
+    System.arraycopy(this.chars, this.charBuffer.position(), this.chars, 0, this.charCount);
+  }
+
+  /** ************************************** */
+  /* Start of the ContentHandler implementation */
+  /** ************************************** */
+  public void setDocumentLocator(Locator locator) {
+  }
+
+  public void startDocument() throws SAXException {
+    this.charCount = 0;
+    this.position = 0;
+    this.isStartTagOpen = false;
+    this.namespaceCount = 0;
+    this.encoder.reset();
+    append("<?xml version=\"1.0\" encoding=\"");
+    append(this.charset.name());
+    append("\"?>");
+  }
+
+  public void endDocument() throws SAXException {
+    closeStartTag();
+    try {
+      flush();
+      this.charBuffer.clear().limit(this.charCount);
+      CoderResult result = this.encoder.encode(this.charBuffer, this.bytes, true);
+      if (!result.isError()) {
+        result = this.encoder.flush(this.bytes);
+      }
+      if (result.isError()) {
+        result.throwException();
+      }
+      this.charCount = 0;
+      write();
+    } catch (IOException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  public void startPrefixMapping(String prefix, String uri) {
+    if (this.namespaceCount + 2 > this.namespaces.length) {
+      final String[] newNamespaces = new String[this.namespaces.length * 2];
+      System.arraycopy(this.namespaces, 0, newNamespaces, 0, this.namespaceCount);
+      this.namespaces = newNamespaces;
+    }
+    this.namespaces[this.namespaceCount++] = prefix;
+    this.namespaces[this.namespaceCount++] = uri;
+  }
+
+  public void endPrefixMapping(String prefix) {
+  }
+
+  public void startElement(String uri, String localName, String qName, Attributes atts)
+      throws SAXException {
+    closeStartTag();
+    append('<');
+    append(getName(localName, qName));
+    for (int i = 0; i < this.namespaceCount; i += 2) {
+      final String prefix = this.namespaces[i];
+      append(prefix == null || prefix.length() == 0 ? " xmlns" : " xmlns:");
+      append(prefix == null ? "" : prefix);
+      appendAttributeValue(this.namespaces[i + 1]);
+    }
+    this.namespaceCount = 0;
+    final int length = atts.getLength();
+    if (atts instanceof RecordAttributes) {
+      // the values are written from the chars of the record
+      final RecordAttributes values = (RecordAttributes) atts;
+      for (int i = 0; i < length; i++) {
+        append(' ');
+        append(getName(atts.getLocalName(i), atts.getQName(i)));
+        append("=\"");
+        appendEscaped(values.getValueChars(i), values.getValueOffset(i),
+                      values.getValueLength(i), ATTRIBUTE_ESCAPES);
+        append('"');
+      }
+    } else {
+      for (int i = 0; i < length; i++) {
+        append(' ');
+        append(getName(atts.getLocalName(i), atts.getQName(i)));
+        appendAttributeValue(atts.getValue(i));
+      }
+    }
+    this.isStartTagOpen = true;
+  }
+
+  public void endElement(String uri, String localName, String qName) throws SAXException {
+    if (this.isStartTagOpen) {
+      this.isStartTagOpen = false;
+      append("/>");
+    } else {
+      append("</");
+      append(getName(localName, qName));
+      append('>');
+    }
+  }
+
+  public void characters(char[] ch, int start, int length) throws SAXException {
+    if (length == 0) {
+      return;
+    }
+    closeStartTag();
+    appendEscaped(ch, start, length, TEXT_ESCAPES);
+  }
+
+  public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+    characters(ch, start, length);
+  }
+
+  public void processingInstruction(String target, String data) throws SAXException {
+    closeStartTag();
+    append("<?");
+    append(target);
+    if (data != null && data.length() > 0) {
+      append(' ');
+      append(data);
+    }
+    append("?>");
+  }
+
+  public void skippedEntity(String name) throws SAXException {
+    closeStartTag();
+    append('&');
+    append(name);
+    append(';');
+  }
+
+  /** ************************************ */
+  /* End of the ContentHandler implementation */
+  /** ************************************ */
+
+  /**
+   * @return true if the output is a file, that can be forced to the disk.
+   */
+  public boolean canCheckpoint() {
+    return (this.channel instanceof FileChannel);
+  }
+
+  public void checkpoint(Checkpoint checkpoint) throws SAXException {
+    try {
+      flush();
+      ((FileChannel) this.channel).force(false);
+    } catch (IOException e) {
+      throw new SAXException(e);
+    }
+    checkpoint.set(OUTPUT_POSITION, this.position);
+    checkpoint.set(START_TAG_OPEN, String.valueOf(this.isStartTagOpen));
+  }
+
+  public void resume(Checkpoint checkpoint) throws SAXException {
+    this.charCount = 0;
+    this.namespaceCount = 0;
+    this.encoder.reset();
+    this.position = checkpoint.getLong(OUTPUT_POSITION);
+    this.isStartTagOpen = Boolean.valueOf(checkpoint.get(START_TAG_OPEN)).booleanValue();
+  }
+
+  private static final String getName(String localName, String qName) {
+    return (qName == null || qName.length() == 0 ? localName : qName);
+  }
+
+  private final void closeStartTag() throws SAXException {
+    if (this.isStartTagOpen) {
+      this.isStartTagOpen = false;
+      append('>');
+    }
+  }
+
+  /**
+   * Appends an attribute value, between quotes. Values that need no escaping
+   * are copied at once.
+   */
+  private final void appendAttributeValue(String value) throws SAXException {
+    append("=\"");
+    final int length = value.length();
+    int i = 0;
+    for (; i < length; i++) {
+      final char c = value.charAt(i);
+      if (c < ATTRIBUTE_ESCAPES.length ? ATTRIBUTE_ESCAPES[c] : c > this.maxEncodedChar) {
+        break;
+      }
+    }
+    if (i == length) {
+      append(value);
+    } else {
+      final char[] valueChars = value.toCharArray();
+      append(valueChars, 0, i);
+      appendEscaped(valueChars, i, length - i, ATTRIBUTE_ESCAPES);
+    }
+    append('"');
+  }
+
+  /**
+   * Appends the chars of <code>ch</code>, escaping the ones marked in
+   * <code>escapes</code>, the ones that cannot be encoded and, unless the
+   * charset is UTF-16 or UTF-32, the surrogate pairs. The runs of chars that need no escaping are copied at once.
+   */
+  private final void appendEscaped(char[] ch, int start, int length, boolean[] escapes)
+      throws SAXException {
+    final int end = start + length;
+    int runStart = start;
+    for (int i = start; i < end; i++) {
+      final char c = ch[i];
+      if (c < escapes.length ? !escapes[c] : c <= this.maxEncodedChar) {
+        continue;
+      }
+      if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(ch[i + 1])) {
+        if (!this.isPairEscaped) {
+          i++;
+          continue;
+        }
+        // as the identity transformation, even if the charset could encode it
+        append(ch, runStart, i - runStart);
+        appendReference(Character.toCodePoint(c, ch[i + 1]));
+        runStart = ++i + 1;
+        continue;
+      }
+      if (c >= escapes.length && canEncode(c)) {
+        continue;
+      }
+      append(ch, runStart, i - runStart);
+      switch (c) {
+        case '&':
+          append("&amp;");
+          break;
+        case '<':
+          append("&lt;");
+          break;
+        case '>':
+          append("&gt;");
+          break;
+        case '"':
+          append("&quot;");
+          break;
+        default:
+          appendReference(c);
+      }
+      runStart = i + 1;
+    }
+    append(ch, runStart, end - runStart);
+  }
+
+  private final boolean canEncode(char c) {
+    return (c < Character.MIN_HIGH_SURROGATE || c > Character.MAX_LOW_SURROGATE)
+           && this.probe.canEncode(c);
+  }
+
+  private final void appendReference(int codePoint) throws SAXException {
+    append("&#");
+    append(Integer.toString(codePoint));
+    append(';');
+  }
+
+  private final void append(char c) throws SAXException {
+    if (this.charCount == this.chars.length) {
+      flushChars();
+    }
+    this.chars[this.charCount++] = c;
+  }
+
+  private final void append(String s) throws SAXException {
+    int offset = 0;
+    int length = s.length();
+    while (length > 0) {
+      if (this.charCount == this.chars.length) {
+        flushChars();
+      }
+      final int count = Math.min(length, this.chars.length - this.charCount);
+      s.getChars(offset, offset + count, this.chars, this.charCount);
+      this.charCount += count;
+      offset += count;
+      length -= count;
+    }
+  }
+
+  private final void append(char[] ch, int start, int length) throws SAXException {
+    while (length > 0) {
+      if (this.charCount == this.chars.length) {
+        flushChars();
+      }
+      final int count = Math.min(length, this.chars.length - this.charCount);
+      System.arraycopy(ch, start, this.chars, this.charCount, count);
+      this.charCount += count;
+      start += count;
+      length -= count;
+    }
+  }
+
+  private final void flushChars() throws SAXException {
+    try {
+      flush();
+    } catch (IOException e) {
+      throw new SAXException(e);
+    }
+  }
+
+  /**
+   * Writes the encoded bytes to the channel.
+   */
+  private final void write() throws IOException {
+    this.bytes.flip();
+    while (this.bytes.hasRemaining()) {
+      this.position += this.channel.write(this.bytes);
+    }
+    this.bytes.clear();
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.transform;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * A result that writes the document as XML text with a
+ * <code>XMLSerializer</code>. It is a <code>SAXResult</code>, so it can be
+ * used by any transformer, but a <code>SAXSource</code> with a reader can be
+ * sent to it directly with <code>parse()</code>, without the identity
+ * transformation.
+ *
+ * @version $Id$
+ */
+public class XMLSerializerResult extends SAXResult {
+
+  private final XMLSerializer serializer;
+
+  /**
+   * @param channel
+   *          the channel where the document will be written to. It is not
+   *          closed at the end of the document.
+   * @param encoding
+   *          the name of the encoding of the output.
+   */
+  public XMLSerializerResult(WritableByteChannel channel, String encoding) {
+    this(new XMLSerializer(channel, encoding));
+  }
+
+  /**
+   * @param output
+   *          the stream where the document will be written to. It is not
+   *          closed at the end of the document.
+   * @param encoding
+   *          the name of the encoding of the output.
+   */
+  public XMLSerializerResult(OutputStream output, String encoding) {
+    this(toChannel(output), encoding);
+  }
+
+  public XMLSerializerResult(XMLSerializer serializer) {
+    super(serializer);
+    this.serializer = serializer;
+  }
+
+  /**
+   * Gets the channel to write to <code>output</code>. The channel of a file
+   * stream is used directly, so the serializer can force it to the disk. Other
+   * streams, even the ones that write to a file, are not checkpointed (see
+   * <code>XMLSerializer.canCheckpoint()</code>).
+   */
+  private static WritableByteChannel toChannel(OutputStream output) {
+    if (output instanceof WritableByteChannel) {
+      return (WritableByteChannel) output;
+    } else if (output.getClass() == FileOutputStream.class) {
+      return ((FileOutputStream) output).getChannel();
+    }
+    return Channels.newChannel(output);
+  }
+
+  public XMLSerializer getSerializer() {
+    return this.serializer;
+  }
+
+  /**
+   * Tells if <code>source</code> can be sent to <code>result</code> with
+   * <code>parse()</code>.
+   */
+  public static boolean canParse(Source source, Result result) {
+    return (result instanceof XMLSerializerResult) && (source instanceof SAXSource)
+           && (((SAXSource) source).getXMLReader() != null)
+           && (((SAXSource) source).getInputSource() != null);
+  }
+
+  /**
+   * Parses <code>source</code> with its reader, writing the events to the
+   * serializer of this result.
+   */
+  public void parse(SAXSource source) throws IOException, SAXException {
+    final XMLReader reader = source.getXMLReader();
+    reader.setContentHandler(this.serializer);
+    reader.parse(source.getInputSource());
+  }
+}
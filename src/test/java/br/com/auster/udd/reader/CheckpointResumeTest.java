@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.WritableByteChannel;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import br.com.auster.udd.transform.XMLSerializer;
+
+/**
+ * Checks that a document interrupted after some checkpoints, and resumed from
+ * the last one, has the same output as the document parsed at once.
+ *
+ * @version $Id$
+ */
+public class CheckpointResumeTest extends TestCase {
+
+  private static final int RECORDS = 5000;
+
+  /**
+   * A serializer that fails after <code>elements</code> start tags, like a
+   * process that is killed in the middle of a document.
+   */
+  private static final class FailingSerializer extends XMLSerializer {
+
+    private int elements;
+
+    FailingSerializer(WritableByteChannel channel, int elements) {
+      super(channel, ReaderFixtures.ENCODING);
+      this.elements = elements;
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes atts)
+        throws SAXException {
+      if (--this.elements < 0) {
+        throw new SAXException("Interrupted");
+      }
+      super.startElement(uri, localName, qName, atts);
+    }
+  }
+
+  public void testSeparated() throws Exception {
+    assertResumed(SimpleFlatFileReader.class, ReaderFixtures.simpleUDD(false, true, false),
+                  ReaderFixtures.simpleInput(RECORDS, false, true, false));
+  }
+
+  public void testFixedLength() throws Exception {
+    assertResumed(SimpleFlatFileReader.class, ReaderFixtures.simpleUDD(true, false, false),
+                  ReaderFixtures.simpleInput(RECORDS, true, false, false));
+  }
+
+  public void testTagged() throws Exception {
+    assertResumed(TaggedFileReader.class, ReaderFixtures.taggedUDD(),
+                  ReaderFixtures.taggedInput(RECORDS / 8));
+  }
+
+  /**
+   * Parses <code>input</code> until it fails in the middle of the document,
+   * cuts the output at the last checkpoint and resumes it, checking that the
+   * output is the one of the uninterrupted parsing.
+   */
+  private static void assertResumed(Class readerClass, String udd, String input)
+      throws Exception {
+    final File uddFile = ReaderFixtures.writeTempFile("udd-layout", ".xml", udd);
+    final File inputFile = ReaderFixtures.writeTempFile("udd-input", ".txt", input);
+    final File outputFile = File.createTempFile("udd-output", ".xml");
+    outputFile.deleteOnExit();
+    final File checkpointFile = new File(outputFile.getPath() + ".checkpoint");
+    checkpointFile.deleteOnExit();
+    final String checkpoints = "checkpoint-file=\"" + checkpointFile.getAbsolutePath()
+                               + "\" checkpoint-records=\"100\"";
+
+    final String expected =
+      ReaderFixtures.transform(ReaderFixtures.newReader(readerClass, uddFile, ""), inputFile);
+
+    // interrupted after about half of the records
+    FileOutputStream output = new FileOutputStream(outputFile);
+    try {
+      ReaderFixtures.parse(ReaderFixtures.newReader(readerClass, uddFile, checkpoints),
+                           inputFile, new FailingSerializer(output.getChannel(), RECORDS / 2));
+      fail("The parsing was not interrupted");
+    } catch (SAXException e) {
+      // expected
+    } finally {
+      output.close();
+    }
+    assertTrue(checkpointFile.exists());
+
+    // cut at the last checkpoint, as the files are after a crash
+    final Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+    final long position = checkpoint.getLong(CheckpointHandler.OUTPUT_POSITION);
+    assertTrue(position > 0);
+    final RandomAccessFile file = new RandomAccessFile(outputFile, "rw");
+    try {
+      file.setLength(position);
+    } finally {
+      file.close();
+    }
+
+    final XMLReader reader = ReaderFixtures.newReader(readerClass, uddFile, checkpoints);
+    reader.setFeature(FlatNIOReader.RESUME_FEATURE, true);
+    output = new FileOutputStream(outputFile, true);
+    try {
+      ReaderFixtures.parse(reader, inputFile,
+                           new XMLSerializer(output.getChannel(), ReaderFixtures.ENCODING));
+    } finally {
+      output.close();
+    }
+    assertFalse(checkpointFile.exists());
+    assertEquals(expected, read(outputFile));
+  }
+
+  private static String read(File file) throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final FileInputStream input = new FileInputStream(file);
+    try {
+      final byte[] buffer = new byte[8192];
+      for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+        bytes.write(buffer, 0, read);
+      }
+    } finally {
+      input.close();
+    }
+    return bytes.toString(ReaderFixtures.ENCODING);
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks that the parallel, pipelined, memory-mapped and byte engine paths of
+ * the readers write the same XML as the sequential parsing of the decoded
+ * chars, which is the one of the readers before those paths existed.
+ *
+ * @version $Id$
+ */
+public class ReaderEquivalenceTest extends TestCase {
+
+  // the sequential parsing, decoding the input
+  private static final String SEQUENTIAL = "byte-engine=\"false\"";
+
+  // the other paths, and the ones that use the decoded chars
+  private static final String[] PATHS = {
+      "",
+      "parallel-workers=\"4\" parallel-chunk-size=\"8192\"",
+      "parallel-workers=\"4\" parallel-chunk-size=\"8192\" byte-engine=\"false\"",
+      "pipelined=\"true\" pipeline-depth=\"2\"",
+      "pipelined=\"true\" pipeline-depth=\"2\" byte-engine=\"false\"",
+      "memory-mapped=\"true\" map-window-size=\"1024\"",
+      "memory-mapped=\"true\" map-window-size=\"1024\" byte-engine=\"false\"" };
+
+  private static final int RECORDS = 5000;
+
+  public void testSeparated() throws Exception {
+    assertSameOutput(SimpleFlatFileReader.class,
+                     ReaderFixtures.simpleUDD(false, false, false),
+                     ReaderFixtures.simpleInput(RECORDS, false, false, false));
+  }
+
+  public void testSeparatedWithEscapes() throws Exception {
+    assertSameOutput(SimpleFlatFileReader.class,
+                     ReaderFixtures.simpleUDD(false, true, false),
+                     ReaderFixtures.simpleInput(RECORDS, false, true, false));
+  }
+
+  public void testFixedLength() throws Exception {
+    assertSameOutput(SimpleFlatFileReader.class,
+                     ReaderFixtures.simpleUDD(true, false, false),
+                     ReaderFixtures.simpleInput(RECORDS, true, false, false));
+  }
+
+  public void testReplacedInvalidChars() throws Exception {
+    assertSameOutput(SimpleFlatFileReader.class,
+                     ReaderFixtures.simpleUDD(false, false, true),
+                     ReaderFixtures.simpleInput(RECORDS, false, false, true));
+    assertSameOutput(SimpleFlatFileReader.class,
+                     ReaderFixtures.simpleUDD(true, false, true),
+                     ReaderFixtures.simpleInput(RECORDS, true, false, true));
+  }
+
+  public void testTagged() throws Exception {
+    assertSameOutput(TaggedFileReader.class, ReaderFixtures.taggedUDD(),
+                     ReaderFixtures.taggedInput(RECORDS / 8));
+  }
+
+  /**
+   * Parses <code>input</code> with each of the <code>PATHS</code>, checking
+   * that the output is the one of the sequential parsing.
+   */
+  private static void assertSameOutput(Class readerClass, String udd, String input)
+      throws Exception {
+    final File uddFile = ReaderFixtures.writeTempFile("udd-layout", ".xml", udd);
+    final File inputFile = ReaderFixtures.writeTempFile("udd-input", ".txt", input);
+    final String expected =
+      ReaderFixtures.transform(ReaderFixtures.newReader(readerClass, uddFile, SEQUENTIAL),
+                               inputFile);
+    assertTrue(expected.indexOf("<rec ") > 0 || expected.indexOf("<customer ") > 0);
+    for (int i = 0; i < PATHS.length; i++) {
+      final String output =
+        ReaderFixtures.transform(ReaderFixtures.newReader(readerClass, uddFile, PATHS[i]),
+                                 inputFile);
+      assertEquals(PATHS[i], expected, output);
+    }
+  }
+}
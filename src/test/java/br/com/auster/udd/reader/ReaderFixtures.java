@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.reader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import br.com.auster.common.xml.sax.NIOInputSource;
+import br.com.auster.udd.transform.XMLSerializer;
+import br.com.auster.udd.transform.XMLSerializerResult;
+
+/**
+ * The layouts, the inputs and the helpers shared by the tests of the
+ * readers. The inputs are generated, always in ISO-8859-1, and are large
+ * enough to be cut in many parallel chunks and mapped windows.
+ *
+ * @version $Id$
+ */
+public final class ReaderFixtures {
+
+  public static final String ENCODING = "ISO-8859-1";
+
+  public static final String SIMPLE_NS = "http://www.auster.com.br/udd/SimpleFlatFileReader/";
+
+  public static final String TAGGED_NS = "http://www.auster.com.br/udd/TaggedFileReader/";
+
+  public static final int FIELDS = 6;
+
+  // the size of each field in the fixed length records
+  public static final int FIELD_SIZE = 12;
+
+  private ReaderFixtures() {
+  }
+
+  /**
+   * Parses a XML fragment, with namespaces, and returns its root element.
+   */
+  public static Element parseElement(String xml) throws Exception {
+    final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+    dbf.setNamespaceAware(true);
+    return dbf.newDocumentBuilder().parse(new InputSource(new StringReader(xml)))
+              .getDocumentElement();
+  }
+
+  /**
+   * Writes <code>content</code> to a temporary file, that will be deleted when
+   * the JVM exits.
+   */
+  public static File writeTempFile(String prefix, String suffix, String content)
+      throws IOException {
+    final File file = File.createTempFile(prefix, suffix);
+    file.deleteOnExit();
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(file), ENCODING);
+    try {
+      writer.write(content);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+  /**
+   * Creates a reader of <code>readerClass</code> for the UDD file
+   * <code>udd</code>, with the other <code>attributes</code> of the
+   * <code>xml-reader</code> element.
+   */
+  public static XMLReader newReader(Class readerClass, File udd, String attributes)
+      throws Exception {
+    final Element config = parseElement("<xml-reader class-name=\"" + readerClass.getName()
+                                        + "\" udd-path=\"" + udd.getAbsolutePath()
+                                        + "\" encrypted=\"false\" " + attributes + "/>");
+    try {
+      return (XMLReader) readerClass.getConstructor(new Class[] { Element.class })
+                                    .newInstance(new Object[] { config });
+    } catch (InvocationTargetException e) {
+      throw (Exception) e.getTargetException();
+    }
+  }
+
+  /**
+   * Parses <code>input</code>, sending the events to <code>handler</code>.
+   */
+  public static void parse(XMLReader reader, File input, ContentHandler handler)
+      throws Exception {
+    final FileInputStream stream = new FileInputStream(input);
+    try {
+      reader.setContentHandler(handler);
+      reader.parse(new NIOInputSource(stream.getChannel()));
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Parses <code>input</code> into the XML text written by a
+   * <code>XMLSerializer</code>.
+   */
+  public static String transform(XMLReader reader, File input) throws Exception {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final XMLSerializer serializer =
+      new XMLSerializerResult(output, ENCODING).getSerializer();
+    parse(reader, input, serializer);
+    return output.toString(ENCODING);
+  }
+
+  /**
+   * The UDD of the simple layout, with <code>FIELDS</code> fields in each
+   * record, separated by ';' or with <code>FIELD_SIZE</code> chars each if
+   * <code>fixedLength</code> is true.
+   */
+  public static String simpleUDD(boolean fixedLength, boolean escaped, boolean replaced) {
+    final StringBuffer udd = new StringBuffer();
+    udd.append("<udd:document name=\"DOC\" xmlns:udd=\"").append(SIMPLE_NS).append("\"");
+    udd.append(" encoding-from=\"").append(ENCODING).append("\"");
+    udd.append(" max-record-size=\"16384\" buffer-size=\"4096\"");
+    if (fixedLength) {
+      udd.append(" record-length=\"").append(FIELDS * FIELD_SIZE).append("\">");
+      udd.append("<udd:element name=\"rec\"");
+      udd.append(replaced ? " replace-invalid-chars=\"true\">" : ">");
+      for (int i = 0; i < FIELDS; i++) {
+        udd.append("<udd:attribute name=\"f").append(i).append("\" start=\"")
+           .append(i * FIELD_SIZE + 1).append("\" size=\"").append(FIELD_SIZE).append("\"/>");
+      }
+    } else {
+      udd.append(" separator-char=\"\\n\"");
+      udd.append(escaped ? " escape-char=\"\\\">" : ">");
+      udd.append("<udd:element name=\"rec\" separator=\";\"");
+      udd.append(escaped ? " escape=\"\\\"" : "");
+      udd.append(replaced ? " replace-invalid-chars=\"true\">" : ">");
+      for (int i = 0; i < FIELDS; i++) {
+        udd.append("<udd:attribute name=\"f").append(i).append("\" index=\"").append(i + 1)
+           .append("\"/>");
+      }
+    }
+    udd.append("</udd:element></udd:document>");
+    return udd.toString();
+  }
+
+  /**
+   * Generates <code>records</code> records of the simple layout. Some fields
+   * have chars above 0x7F, and an escaped separator if <code>escaped</code>
+   * is true, or an invalid XML char if <code>invalid</code> is true.
+   */
+  public static String simpleInput(int records, boolean fixedLength, boolean escaped,
+                                   boolean invalid) {
+    final StringBuffer input = new StringBuffer(records * FIELDS * (FIELD_SIZE + 1));
+    for (int r = 0; r < records; r++) {
+      for (int f = 0; f < FIELDS; f++) {
+        final String value = field(r, f, escaped, invalid);
+        if (fixedLength) {
+          input.append(value);
+          for (int i = value.length(); i < FIELD_SIZE; i++) {
+            input.append(' ');
+          }
+        } else {
+          if (f > 0) {
+            input.append(';');
+          }
+          input.append(value);
+        }
+      }
+      if (!fixedLength) {
+        input.append('\n');
+      }
+    }
+    return input.toString();
+  }
+
+  private static String field(int record, int field, boolean escaped, boolean invalid) {
+    if (escaped && field == 1) {
+      return "a\\;b" + (record % 1000);
+    } else if (invalid && field == 2) {
+      return "x\u0001y" + (record % 1000);
+    } else if (field == 3) {
+      return "\u00e7\u00e3o" + (record % 1000);
+    }
+    // at most FIELD_SIZE chars, with some spaces to trim
+    return " v" + field + "_" + (record % 100000) + " ";
+  }
+
+  /**
+   * The UDD of the tagged layout: a customer block (key "01") with item
+   * ("02") and tax ("03") children and a notes block ("05" to "06"), and a
+   * trailer ("09").
+   */
+  public static String taggedUDD() {
+    return "<udd:document name=\"INV\" xmlns:udd=\"" + TAGGED_NS + "\" encoding-from=\""
+           + ENCODING + "\" max-record-size=\"4096\" buffer-size=\"4096\""
+           + " separator-char=\"\\n\">"
+           + "<udd:key-definition><udd:attribute name=\"k\" start=\"1\" size=\"2\"/>"
+           + "</udd:key-definition>"
+           + "<udd:key start-key=\"01\" name=\"customer\" separator=\";\">"
+           + "<udd:attribute name=\"id\" index=\"2\"/>"
+           + "<udd:key start-key=\"02\" name=\"item\" separator=\";\">"
+           + "<udd:attribute name=\"desc\" index=\"2\"/>"
+           + "<udd:attribute name=\"v\" index=\"3\"/></udd:key>"
+           + "<udd:key start-key=\"03\" name=\"tax\" separator=\";\">"
+           + "<udd:attribute name=\"t\" index=\"2\"/></udd:key>"
+           + "<udd:key start-key=\"05\" name=\"notes\" end-key=\"06\">"
+           + "<udd:key start-key=\"07\" name=\"note\" separator=\";\">"
+           + "<udd:attribute name=\"n\" index=\"2\"/></udd:key></udd:key>"
+           + "</udd:key>"
+           + "<udd:key start-key=\"09\" name=\"trailer\" separator=\";\">"
+           + "<udd:attribute name=\"count\" index=\"2\"/></udd:key>"
+           + "</udd:document>";
+  }
+
+  /**
+   * Generates the input of the tagged layout, with <code>customers</code>
+   * customer blocks of 8 records each.
+   */
+  public static String taggedInput(int customers) {
+    final StringBuffer input = new StringBuffer(customers * 120);
+    for (int c = 0; c < customers; c++) {
+      input.append("01;").append(c).append('\n');
+      for (int i = 0; i < 3; i++) {
+        input.append("02;item \u00e9 ").append(i).append(';').append(c * 10 + i).append('\n');
+      }
+      input.append("03;tax\n");
+      input.append("05\n07;note ").append(c).append("\n06\n");
+    }
+    input.append("09;").append(customers).append('\n');
+    return input.toString();
+  }
+}
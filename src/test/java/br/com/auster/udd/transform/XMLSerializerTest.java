@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2004-2005 Auster Solutions do Brasil. All Rights Reserved.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Created on Oct 18, 2026
+ */
+package br.com.auster.udd.transform;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import junit.framework.TestCase;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+import br.com.auster.udd.reader.ReaderFixtures;
+import br.com.auster.udd.reader.SimpleFlatFileReader;
+import br.com.auster.udd.reader.TaggedFileReader;
+
+/**
+ * Checks that the <code>XMLSerializer</code> writes the same XML as the
+ * identity transformation with a <code>StreamResult</code>, which it replaces.
+ * The XML declarations are only checked for the encoding, since the
+ * transformers do not agree on the <code>standalone</code> pseudo-attribute.
+ *
+ * @version $Id$
+ */
+public class XMLSerializerTest extends TestCase {
+
+  private static final String[] ENCODINGS = { "ISO-8859-1", "UTF-8", "US-ASCII" };
+
+  public void testEscapes() throws Exception {
+    for (int i = 0; i < ENCODINGS.length; i++) {
+      assertSameOutput(ENCODINGS[i], new Events() {
+        public void send(ContentHandler handler) throws Exception {
+          sendEscapes(handler);
+        }
+      });
+    }
+  }
+
+  public void testSimpleReader() throws Exception {
+    final File udd = ReaderFixtures.writeTempFile("udd-layout", ".xml",
+                                                  ReaderFixtures.simpleUDD(false, true, true));
+    final File input =
+      ReaderFixtures.writeTempFile("udd-input", ".txt",
+                                   ReaderFixtures.simpleInput(2000, false, true, true));
+    for (int i = 0; i < ENCODINGS.length; i++) {
+      assertSameOutput(ENCODINGS[i], new Events() {
+        public void send(ContentHandler handler) throws Exception {
+          ReaderFixtures.parse(ReaderFixtures.newReader(SimpleFlatFileReader.class, udd, ""),
+                               input, handler);
+        }
+      });
+    }
+  }
+
+  public void testTaggedReader() throws Exception {
+    final File udd = ReaderFixtures.writeTempFile("udd-layout", ".xml",
+                                                  ReaderFixtures.taggedUDD());
+    final File input = ReaderFixtures.writeTempFile("udd-input", ".txt",
+                                                    ReaderFixtures.taggedInput(250));
+    for (int i = 0; i < ENCODINGS.length; i++) {
+      assertSameOutput(ENCODINGS[i], new Events() {
+        public void send(ContentHandler handler) throws Exception {
+          ReaderFixtures.parse(ReaderFixtures.newReader(TaggedFileReader.class, udd, ""),
+                               input, handler);
+        }
+      });
+    }
+  }
+
+  /**
+   * A source of SAX events, sent once to each output.
+   */
+  private interface Events {
+    void send(ContentHandler handler) throws Exception;
+  }
+
+  private static void sendEscapes(ContentHandler handler) throws Exception {
+    final AttributesImpl atts = new AttributesImpl();
+    atts.addAttribute("", "a", "a", "CDATA", "x<y & \"z\" > w");
+    atts.addAttribute("", "b", "b", "CDATA", "tab\tnew\nline");
+    atts.addAttribute("", "c", "c", "CDATA", "\u00e9\u20ac\ud83d\ude00");
+    handler.startDocument();
+    handler.startPrefixMapping("u", "http://www.auster.com.br/udd/test/");
+    handler.startElement("", "root", "root", new AttributesImpl());
+    handler.startElement("", "e", "e", atts);
+    characters(handler, "< & > ' \"");
+    characters(handler, "tab\tnew\nline");
+    characters(handler, "\u00e9\u20ac\ud83d\ude00");
+    handler.endElement("", "e", "e");
+    handler.startElement("http://www.auster.com.br/udd/test/", "empty", "u:empty",
+                         new AttributesImpl());
+    handler.endElement("http://www.auster.com.br/udd/test/", "empty", "u:empty");
+    handler.startElement("", "text", "text", new AttributesImpl());
+    characters(handler, "");
+    handler.endElement("", "text", "text");
+    handler.endElement("", "root", "root");
+    handler.endPrefixMapping("u");
+    handler.endDocument();
+  }
+
+  private static void characters(ContentHandler handler, String text) throws Exception {
+    handler.characters(text.toCharArray(), 0, text.length());
+  }
+
+  private static void assertSameOutput(String encoding, Events events) throws Exception {
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    final TransformerHandler identity =
+      ((SAXTransformerFactory) SAXTransformerFactory.newInstance()).newTransformerHandler();
+    identity.getTransformer().setOutputProperty(OutputKeys.ENCODING, encoding);
+    identity.setResult(new StreamResult(expected));
+    events.send(identity);
+
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    events.send(new XMLSerializerResult(output, encoding).getSerializer());
+
+    assertEquals(encoding, body(expected.toByteArray(), encoding),
+                 body(output.toByteArray(), encoding));
+  }
+
+  /**
+   * @return the document after its XML declaration, that must name
+   *         <code>encoding</code>.
+   */
+  private static String body(byte[] document, String encoding) throws Exception {
+    final String text = new String(document, encoding);
+    assertTrue(text, text.startsWith("<?xml version=\"1.0\" encoding=\"" + encoding + "\""));
+    return text.substring(text.indexOf("?>") + 2);
+  }
+}